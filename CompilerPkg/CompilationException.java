@@ -0,0 +1,29 @@
+package CompilerPkg;
+
+/**
+ * Base class of every error reported by the compiler.
+ * The command line driver prints the message and exits, library users catch it instead.
+ */
+public class CompilationException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private int lineNumber;
+
+    public CompilationException(String message) {
+        this(message, 0);
+    }
+
+    public CompilationException(String message, int lineNumber) {
+        super(message);
+        this.lineNumber = lineNumber;
+    }
+
+    public CompilationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    // line number of the source program where the error was found, 0 if it is not known
+    public int getLineNumber() {
+        return lineNumber;
+    }
+}
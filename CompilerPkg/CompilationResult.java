@@ -0,0 +1,34 @@
+package CompilerPkg;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In memory output of Compiler.compile.
+ */
+public class CompilationResult {
+    private final String tac;
+    private final String assembly;
+    private final List<String> diagnostics;
+
+    public CompilationResult(String tac, String assembly, List<String> diagnostics) {
+        this.tac = tac;
+        this.assembly = assembly;
+        this.diagnostics = Collections.unmodifiableList(diagnostics);
+    }
+
+    // Three Address Code, same content adac writes to the .tac file
+    public String getTac() {
+        return tac;
+    }
+
+    // 8086 assembly, same content adac writes to the .asm file
+    public String getAssembly() {
+        return assembly;
+    }
+
+    // messages that did not stop the compilation
+    public List<String> getDiagnostics() {
+        return diagnostics;
+    }
+}
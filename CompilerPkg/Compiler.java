@@ -0,0 +1,94 @@
+package CompilerPkg;
+
+import OptimizerPkg.AlignmentPass;
+import OptimizerPkg.ConstantFoldingPass;
+import OptimizerPkg.CopyInCopyOutPass;
+import OptimizerPkg.CopyPropagationPass;
+import OptimizerPkg.DeadGlobalEliminationPass;
+import OptimizerPkg.InliningPass;
+import OptimizerPkg.InterproceduralConstantPass;
+import OptimizerPkg.OutputFoldingPass;
+import OptimizerPkg.SlotSharingPass;
+import OptimizerPkg.SsaPass;
+import OptimizerPkg.StringPoolPass;
+import OptimizerPkg.ValueNumberingPass;
+import OptimizerPkg.TacPass;
+import ParserPkg.Parser;
+import TACx86Pkg.TacProgram;
+import TACx86Pkg.x86Translator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In process entry point of the compiler.
+ * It does not touch the file system, print to stdout or terminate the JVM, errors are thrown as CompilationException.
+ * Every call uses its own parser, symbol table and translator, so calls from several threads do not interfere.
+ */
+public class Compiler {
+    private Compiler() {
+    }
+
+    /**
+     * Compiles a Mini-Ada program to TAC and 8086 assembly.
+     * @param source Ada source program
+     * @param options compilation options
+     * @return TAC, assembly and diagnostics of the program
+     * @throws SyntaxException if the program does not follow the grammar
+     * @throws SemanticException if the program uses an undefined or duplicate identifier
+     * @throws TranslationException if the TAC can not be translated
+     */
+    public static CompilationResult compile(CharSequence source, CompilerOptions options) {
+        List<String> diagnostics = new ArrayList<>();
+
+        try {
+            PassManager passes = new PassManager(options, diagnostics);
+            PassManager.Measurement parse = passes.start("parse", "TAC", 0);
+            StringWriter tacWriter = new StringWriter();
+            Parser parser = new Parser(new StringReader(source.toString()), new PrintWriter(tacWriter), options.isBuildAst());
+            TacProgram program = TacProgram.parse(new BufferedReader(new StringReader(tacWriter.toString())), parser.getSymbolTable());
+            passes.finish(parse, program.instructions.size());
+
+            passes.runTacPasses(tacPasses(options), program);
+            String tac = program.toString();
+
+            StringWriter asmWriter = new StringWriter();
+            new x86Translator(program, new PrintWriter(asmWriter), passes);
+            passes.reportTimes();
+
+            return new CompilationResult(tac, asmWriter.toString(), diagnostics);
+        } catch (CompilationException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // in memory readers do not fail, anything caught here is a bug of the compiler
+            throw new CompilationException("Internal error while compiling " + options.getSourceName() + ": " + e, e);
+        }
+    }
+
+    // every TAC pass in the order they run, passes keep state so each compilation gets new instances
+    // the optimization level and the -f options decide which of them run, see EOptimizationLevel
+    private static TacPass[] tacPasses(CompilerOptions options) {
+        return new TacPass[]{
+                new InliningPass(options.getParameter("inline-size", 12), options.getParameter("inline-growth", 50)),
+                new SsaPass(),
+                new ConstantFoldingPass(),
+                new InterproceduralConstantPass(options.getParameter("ipcp-clone-size", 20)),
+                // folds the literals ipcp put into the procedures
+                new ConstantFoldingPass("const-fold-ipcp"),
+                new CopyInCopyOutPass(),
+                new ValueNumberingPass(),
+                new CopyPropagationPass(),
+                new SlotSharingPass(),
+                // before string-pool, which shares the strings it makes
+                new OutputFoldingPass(),
+                new StringPoolPass(),
+                new DeadGlobalEliminationPass(),
+                new AlignmentPass(options.getTarget())
+        };
+    }
+}
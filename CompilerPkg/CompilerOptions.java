@@ -0,0 +1,134 @@
+package CompilerPkg;
+
+import TACx86Pkg.ETargetCpu;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Options of a single call to Compiler.compile.
+ * A fresh instance compiles with the same settings as the adac command line driver.
+ */
+public class CompilerOptions {
+    // every pass that can be enabled or disabled, the TAC passes in the order they run and then the backend passes
+    public static final List<String> PASS_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "inline", "ssa", "const-fold", "ipcp", "const-fold-ipcp", "copy-in-out", "lvn", "copy-prop", "slot-share",
+            "output-fold", "string-pool", "global-dce", "align",
+            "regalloc", "regcall", "tail-call", "isel", "strength-reduce", "peephole", "frame", "schedule", "icf"));
+    // every parameter setParameter accepts
+    public static final List<String> PARAMETER_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "inline-size", "inline-growth", "ipcp-clone-size"));
+
+    private String sourceName = "<source>";
+    private boolean buildAst = false;
+    private EOptimizationLevel optimizationLevel = EOptimizationLevel.O0;
+    private Set<String> enabledPasses = new HashSet<>();
+    private Set<String> disabledPasses = new HashSet<>();
+    private boolean timePasses = false;
+    private ETargetCpu target = ETargetCpu.i8086;
+    private Map<String, Integer> parameters = new HashMap<>();
+
+    // name of the compiled program, it is only used in diagnostics
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    public CompilerOptions setSourceName(String sourceName) {
+        this.sourceName = sourceName;
+        return this;
+    }
+
+    // when true the parser builds a typed AST and lowers it to TAC in a separate pass
+    public boolean isBuildAst() {
+        return buildAst;
+    }
+
+    public CompilerOptions setBuildAst(boolean buildAst) {
+        this.buildAst = buildAst;
+        return this;
+    }
+
+    // passes of the optimization level run unless they are disabled by name, other passes only when they are enabled by name
+    // const-fold-ipcp folds what ipcp leaves behind, it runs whenever ipcp does unless it is disabled
+    public boolean isPassEnabled(String passName) {
+        if(disabledPasses.contains(passName))
+            return false;
+        if(passName.equals("const-fold-ipcp") && isPassEnabled("ipcp"))
+            return true;
+        return enabledPasses.contains(passName) || optimizationLevel.getPasses().contains(passName);
+    }
+
+    // passName is one of PASS_NAMES, otherwise IllegalArgumentException is thrown
+    public CompilerOptions enablePass(String passName) {
+        checkPassName(passName);
+        enabledPasses.add(passName);
+        disabledPasses.remove(passName);
+        return this;
+    }
+
+    public CompilerOptions disablePass(String passName) {
+        checkPassName(passName);
+        enabledPasses.remove(passName);
+        disabledPasses.add(passName);
+        return this;
+    }
+
+    // O0 unless it is set, see EOptimizationLevel for the passes of every level
+    public EOptimizationLevel getOptimizationLevel() {
+        return optimizationLevel;
+    }
+
+    public CompilerOptions setOptimizationLevel(EOptimizationLevel optimizationLevel) {
+        this.optimizationLevel = optimizationLevel;
+        return this;
+    }
+
+    // true at -Os, backend passes then prefer the smaller code over the faster one
+    public boolean isOptimizeForSize() {
+        return optimizationLevel == EOptimizationLevel.Os;
+    }
+
+    // when true every pass is timed and the diagnostics end with a table of the times, see PassManager
+    public boolean isTimePasses() {
+        return timePasses;
+    }
+
+    public CompilerOptions setTimePasses(boolean timePasses) {
+        this.timePasses = timePasses;
+        return this;
+    }
+
+    // processor the backend estimates cycles for and chooses instructions for
+    public ETargetCpu getTarget() {
+        return target;
+    }
+
+    public CompilerOptions setTarget(ETargetCpu target) {
+        this.target = target;
+        return this;
+    }
+
+    // numeric setting of a pass, such as the growth budget of the inliner, or defaultValue if it was not set
+    public int getParameter(String name, int defaultValue) {
+        return parameters.getOrDefault(name, defaultValue);
+    }
+
+    // name is one of PARAMETER_NAMES, otherwise IllegalArgumentException is thrown
+    public CompilerOptions setParameter(String name, int value) {
+        if(!PARAMETER_NAMES.contains(name))
+            throw new IllegalArgumentException("Unknown parameter " + name);
+        parameters.put(name, value);
+        return this;
+    }
+
+    // a misspelled name would otherwise be accepted and change nothing
+    private static void checkPassName(String passName) {
+        if(!PASS_NAMES.contains(passName))
+            throw new IllegalArgumentException("Unknown pass " + passName);
+    }
+}
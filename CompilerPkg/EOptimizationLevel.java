@@ -0,0 +1,39 @@
+package CompilerPkg;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Optimization levels of the -O option, each one is the set of passes it enables.
+ * O0 runs no pass and compiles fastest. O1 adds the passes that are linear in the size of the program and only
+ * make the code smaller or faster. O2 adds everything else, including inlining, tail calls and multiplication
+ * with shifts, which can make the code larger. Os is O2 without the passes that grow the code, and the backend
+ * compares bytes before cycles.
+ */
+public enum EOptimizationLevel {
+    O0(),
+    O1("const-fold", "copy-prop", "output-fold", "string-pool", "global-dce", "align", "regalloc", "peephole", "frame", "icf"),
+    O2("inline", "ipcp", "const-fold", "copy-in-out", "lvn", "copy-prop", "slot-share", "output-fold", "string-pool", "global-dce", "align", "regalloc", "regcall", "tail-call", "isel", "strength-reduce", "peephole", "frame", "schedule", "icf"),
+    Os("const-fold", "copy-in-out", "lvn", "copy-prop", "slot-share", "output-fold", "string-pool", "global-dce", "align", "regalloc", "regcall", "isel", "peephole", "frame", "schedule", "icf");
+
+    private final Set<String> passes;
+
+    EOptimizationLevel(String... passes) {
+        this.passes = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(passes)));
+    }
+
+    public Set<String> getPasses() {
+        return passes;
+    }
+
+    // level of an -O option such as -O2, or null if option is not one
+    public static EOptimizationLevel fromOption(String option) {
+        for(EOptimizationLevel level : values()) {
+            if(option.equals("-" + level.name()))
+                return level;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,130 @@
+package CompilerPkg;
+
+import OptimizerPkg.TacPass;
+import TACx86Pkg.TacProgram;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs the passes of one compilation and, with --time-passes, measures them.
+ *
+ * Every measured step gets a row with its wall time, the bytes the compiling thread allocated and the number of
+ * instructions of its IR before and after it: TAC statements for the TAC passes, x86 instructions for the backend
+ * passes, and TAC statements -> x86 instructions for the translation itself. The instruction selector and
+ * strength reduction run inside the translation, so their time is part of its row.
+ * Allocation is only known on JVMs whose ThreadMXBean reports it, otherwise the column shows ?.
+ */
+public class PassManager {
+    private CompilerOptions options;
+    private List<String> report;
+    private ArrayList<Measurement> measurements = new ArrayList<>();
+
+    public PassManager(CompilerOptions options, List<String> report) {
+        this.options = options;
+        this.report = report;
+    }
+
+    public CompilerOptions getOptions() {
+        return options;
+    }
+
+    // diagnostics the passes add their summaries to
+    public List<String> getReport() {
+        return report;
+    }
+
+    public boolean isEnabled(String passName) {
+        return options.isPassEnabled(passName);
+    }
+
+    // runs every enabled TAC pass in order
+    public void runTacPasses(TacPass[] passes, TacProgram program) {
+        for(TacPass pass : passes) {
+            if(isEnabled(pass.getName()))
+                run(pass.getName(), "TAC", () -> program.instructions.size(), () -> pass.run(program, report));
+        }
+    }
+
+    /**
+     * Runs one step and measures it when passes are timed.
+     * @param name name of the step in the table
+     * @param ir name of the IR size counts
+     * @param size number of instructions of the IR, asked before and after the step
+     */
+    public void run(String name, String ir, IntSupplier size, Runnable step) {
+        Measurement measurement = start(name, ir, size.getAsInt());
+        step.run();
+        finish(measurement, size.getAsInt());
+    }
+
+    // starts measuring a step that does not fit run, null when passes are not timed
+    public Measurement start(String name, String ir, int instructions) {
+        if(!options.isTimePasses())
+            return null;
+        Measurement measurement = new Measurement(name, ir, instructions);
+        measurement.allocated = allocatedBytes();
+        measurement.nanos = System.nanoTime();
+        return measurement;
+    }
+
+    public void finish(Measurement measurement, int instructions) {
+        if(measurement == null)
+            return;
+        measurement.nanos = System.nanoTime() - measurement.nanos;
+        long allocated = allocatedBytes();
+        measurement.allocated = allocated < 0 || measurement.allocated < 0 ? -1 : allocated - measurement.allocated;
+        measurement.instructionsAfter = instructions;
+        measurements.add(measurement);
+    }
+
+    // adds the table of the measured steps to the report, nothing when passes are not timed
+    public void reportTimes() {
+        if(!options.isTimePasses())
+            return;
+        long nanos = 0;
+        long allocated = 0;
+        report.add(String.format("time-passes: %-16s %10s %12s  %s", "pass", "ms", "KB allocated", "instructions"));
+        for(Measurement measurement : measurements) {
+            report.add(String.format("time-passes: %-16s %10.3f %12s  %d -> %d %s", measurement.name, measurement.nanos / 1e6,
+                    kilobytes(measurement.allocated), measurement.instructionsBefore, measurement.instructionsAfter, measurement.ir));
+            nanos += measurement.nanos;
+            allocated = allocated < 0 || measurement.allocated < 0 ? -1 : allocated + measurement.allocated;
+        }
+        report.add(String.format("time-passes: %-16s %10.3f %12s", "total", nanos / 1e6, kilobytes(allocated)));
+    }
+
+    private static String kilobytes(long bytes) {
+        return bytes < 0 ? "?" : Long.toString((bytes + 1023) / 1024);
+    }
+
+    // bytes the current thread allocated so far, -1 if the JVM does not count them
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if(!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled())
+            return -1;
+        return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // one row of the --time-passes table
+    public static class Measurement {
+        private String name;
+        private String ir;
+        private long nanos;
+        private long allocated;
+        private int instructionsBefore;
+        private int instructionsAfter;
+
+        private Measurement(String name, String ir, int instructionsBefore) {
+            this.name = name;
+            this.ir = ir;
+            this.instructionsBefore = instructionsBefore;
+        }
+    }
+}
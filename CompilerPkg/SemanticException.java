@@ -0,0 +1,12 @@
+package CompilerPkg;
+
+/**
+ * Thrown by the parser for undefined or duplicate identifiers.
+ */
+public class SemanticException extends CompilationException {
+    private static final long serialVersionUID = 1L;
+
+    public SemanticException(String message, int lineNumber) {
+        super(message, lineNumber);
+    }
+}
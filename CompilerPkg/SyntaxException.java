@@ -0,0 +1,12 @@
+package CompilerPkg;
+
+/**
+ * Thrown by the parser when the source program does not follow the grammar.
+ */
+public class SyntaxException extends CompilationException {
+    private static final long serialVersionUID = 1L;
+
+    public SyntaxException(String message, int lineNumber) {
+        super(message, lineNumber);
+    }
+}
@@ -0,0 +1,12 @@
+package CompilerPkg;
+
+/**
+ * Thrown by the TAC to x86 translator when it can not translate a TAC statement.
+ */
+public class TranslationException extends CompilationException {
+    private static final long serialVersionUID = 1L;
+
+    public TranslationException(String message) {
+        super(message);
+    }
+}
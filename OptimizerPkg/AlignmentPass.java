@@ -0,0 +1,131 @@
+package OptimizerPkg;
+
+import SymbolTablePkg.Symbol;
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.ETargetCpu;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProcedure;
+import TACx86Pkg.TacProgram;
+import TACx86Pkg.X86CostModel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Places every word of the frames and of the data segment at an even address.
+ *
+ * The parser gives locals offsets in declaration order, so a char local puts the words declared after it at odd
+ * offsets (_bp-3), and a frame of odd size leaves sp odd for every push and call of the procedure. bp is even,
+ * the return address and the saved bp are words. A procedure with an odd slot or an odd frame gets the slots its body
+ * uses back as _bp-2, _bp-4 ... in the order of their old offsets, see FrameLayout.compact. Unused char locals take
+ * no space any more, so no padding is needed.
+ * The data segment starts at an even address, the translator emitted the strings and words in the order of the
+ * symbol table, so a string of even length (odd with its "$") moved every word after it. Words are now placed first
+ * and strings after them, again without padding.
+ * The estimate is the number of word accesses the TAC makes to odd addresses times the misaligned access penalty of
+ * the target, before and after.
+ */
+public class AlignmentPass implements TacPass {
+    private ETargetCpu target;
+
+    public AlignmentPass(ETargetCpu target) {
+        this.target = target;
+    }
+
+    @Override
+    public String getName() {
+        return "align";
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        int frameBefore = 0;
+        int frameAfter = 0;
+        int moved = 0;
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        for(TacProcedure procedure : procedures) {
+            int misaligned = misalignedFrameAccesses(procedure);
+            frameBefore += misaligned;
+            if(misaligned > 0) {
+                FrameLayout.compact(procedure);
+                moved++;
+            }
+            frameAfter += misalignedFrameAccesses(procedure);
+        }
+        program.setProcedures(procedures);
+
+        ArrayList<Symbol> symbols = program.symbolTable.lookup(1);
+        int dataBefore = misalignedDataAccesses(program, symbols);
+        ArrayList<Symbol> layout = new ArrayList<>();
+        for(Symbol symbol : symbols) {
+            if(StringPoolPass.dataSize(symbol) == 2)
+                layout.add(symbol);
+        }
+        for(Symbol symbol : symbols) {
+            if(StringPoolPass.dataSize(symbol) != 2)
+                layout.add(symbol);
+        }
+        program.dataLayout = layout;
+        int dataAfter = misalignedDataAccesses(program, layout);
+
+        int penalty = X86CostModel.misalignedWordPenalty(target);
+        report.add(getName() + ": " + moved + " of " + procedures.size() + " frames laid out again, misaligned word accesses " +
+                frameBefore + " -> " + frameAfter + " in frames and " + dataBefore + " -> " + dataAfter + " in the data segment, " +
+                penalty * (frameBefore + dataBefore) + " -> " + penalty * (frameAfter + dataAfter) + " estimated " + target + " cycles");
+    }
+
+    // accesses to odd frame slots, and the pushes and calls of a procedure whose frame leaves sp odd
+    private static int misalignedFrameAccesses(TacProcedure procedure) {
+        boolean oddFrame = FrameLayout.frameSize(procedure) % 2 != 0;
+        int accesses = 0;
+        for(TacInstruction instruction : procedure.body) {
+            for(String operand : accessedOperands(instruction)) {
+                if(TacInstruction.isFrameSlot(operand) && Integer.parseInt(operand.substring(4)) % 2 != 0)
+                    accesses++;
+            }
+            if(oddFrame && (instruction.opcode == ETacOpcode.push || instruction.opcode == ETacOpcode.call))
+                accesses++;
+        }
+        return accesses;
+    }
+
+    // accesses to words at odd offsets of the data segment when the symbols are emitted in order
+    private static int misalignedDataAccesses(TacProgram program, List<Symbol> order) {
+        HashMap<String, Integer> offsets = new HashMap<>();
+        int offset = 0;
+        for(Symbol symbol : order) {
+            offsets.put(symbol.lexeme, offset);
+            offset += StringPoolPass.dataSize(symbol);
+        }
+
+        int accesses = 0;
+        for(TacInstruction instruction : program.instructions) {
+            for(String operand : accessedOperands(instruction)) {
+                Integer address = offsets.get(operand);
+                if(address != null && address % 2 != 0)
+                    accesses++;
+            }
+        }
+        return accesses;
+    }
+
+    // operands whose word the instruction reads or writes, @x reads the pointer x, push @x only takes the address of x
+    private static List<String> accessedOperands(TacInstruction instruction) {
+        ArrayList<String> operands = new ArrayList<>(3);
+        for(String operand : new String[]{instruction.result, instruction.operand1, instruction.operand2}) {
+            if(operand == null || TacInstruction.isLiteral(operand))
+                continue;
+            if(TacInstruction.isReference(operand)) {
+                if(instruction.opcode != ETacOpcode.push)
+                    operands.add(operand.substring(1));
+            } else {
+                operands.add(operand);
+            }
+        }
+        if(instruction.opcode == ETacOpcode.proc || instruction.opcode == ETacOpcode.endp || instruction.opcode == ETacOpcode.call
+                || instruction.opcode == ETacOpcode.start || instruction.opcode == ETacOpcode.wrs)
+            operands.clear();
+        return operands;
+    }
+}
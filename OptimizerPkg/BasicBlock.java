@@ -0,0 +1,32 @@
+package OptimizerPkg;
+
+import TACx86Pkg.TacInstruction;
+
+import java.util.ArrayList;
+
+/**
+ * A sequence of TAC statements that runs from the first one to the last one, see ControlFlowGraph.
+ */
+public class BasicBlock {
+    // position of the block in ControlFlowGraph.blocks, dataflow results are indexed by it
+    public int index;
+    public ArrayList<TacInstruction> instructions = new ArrayList<>();
+    public ArrayList<BasicBlock> predecessors = new ArrayList<>();
+    public ArrayList<BasicBlock> successors = new ArrayList<>();
+    // phi functions at the start of the block, only while the procedure is in SSA form
+    public ArrayList<PhiFunction> phis = new ArrayList<>();
+
+    public BasicBlock(int index) {
+        this.index = index;
+    }
+
+    void addSuccessor(BasicBlock successor) {
+        successors.add(successor);
+        successor.predecessors.add(this);
+    }
+
+    @Override
+    public String toString() {
+        return "B" + index;
+    }
+}
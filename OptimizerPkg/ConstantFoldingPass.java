@@ -0,0 +1,264 @@
+package OptimizerPkg;
+
+import SymbolTablePkg.ESymbolType;
+import SymbolTablePkg.EVariableType;
+import SymbolTablePkg.Symbol;
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Constant folding, constant propagation and algebraic simplification.
+ *
+ * The TAC has no jumps, so the body of a procedure is one basic block and a single forward walk
+ * knows the value of every operand that was last assigned a literal.
+ * Known values are replaced by literals, operators on two literals are computed with 16 bit wrap around,
+ * and identities such as x*1, x+0 and x*0 become copies.
+ * Global CONSTANT symbols are known in every procedure, unless the program assigns to them.
+ * A call or a store through an out parameter can change any global variable, so they forget what is known about globals.
+ * A call also forgets the frame slots and parameters whose address the procedure pushes, the callee can store to them.
+ * Literal copies to private operands that are no longer read are removed.
+ */
+public class ConstantFoldingPass implements TacPass {
+    private final String name;
+    private int folded;
+    private int simplified;
+    private int propagated;
+
+    public ConstantFoldingPass() {
+        this("const-fold");
+    }
+
+    // a second run of the pass gets a name of its own, so -f and -fno- and the report tell the two apart
+    public ConstantFoldingPass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        int before = program.size();
+        HashMap<String, Integer> constants = globalConstants(program);
+        HashMap<String, Integer> known = new HashMap<>();
+        HashMap<String, HashSet<String>> addressesPassed = program.addressesPassed();
+        HashSet<String> passed = new HashSet<>();
+
+        for(TacInstruction instruction : program.instructions) {
+            switch (instruction.opcode) {
+                case proc:
+                    known.clear();
+                    known.putAll(constants);
+                    passed = addressesPassed.getOrDefault(instruction.operand1, new HashSet<>());
+                    break;
+                case call:
+                    forgetGlobals(known, constants);
+                    known.keySet().removeAll(passed);
+                    break;
+                case push:
+                case wri:
+                    instruction.operand1 = substitute(instruction.operand1, known);
+                    break;
+                case rdi:
+                    forget(instruction.result, known, constants);
+                    break;
+                case copy:
+                case neg:
+                case binary:
+                    instruction.operand1 = substitute(instruction.operand1, known);
+                    instruction.operand2 = substitute(instruction.operand2, known);
+                    simplify(instruction);
+
+                    forget(instruction.result, known, constants);
+                    if(instruction.opcode == ETacOpcode.copy && TacInstruction.isLiteral(instruction.operand1) && !TacInstruction.isReference(instruction.result))
+                        known.put(instruction.result, TacInstruction.literalValue(instruction.operand1));
+                    break;
+            }
+        }
+
+        int removed = removeUnreadLiteralCopies(program);
+        report.add(getName() + ": " + before + " -> " + program.size() + " TAC instructions, " +
+                folded + " folded, " + simplified + " simplified, " + propagated + " operands propagated, " + removed + " literal copies removed");
+    }
+
+    // integer CONSTANT symbols of the start procedure, except the ones the program assigns to
+    private HashMap<String, Integer> globalConstants(TacProgram program) {
+        HashSet<String> assigned = new HashSet<>();
+        for(TacInstruction instruction : program.instructions) {
+            if(instruction.getDefinition() != null)
+                assigned.add(instruction.getDefinition());
+        }
+
+        HashMap<String, Integer> constants = new HashMap<>();
+        for(Symbol symbol : program.symbolTable.lookup(1)) {
+            if(symbol.getSymbolType() == ESymbolType.constant && symbol.constantAttributes.typeOfConstant == EVariableType.integerType && !assigned.contains(symbol.lexeme))
+                constants.put(symbol.lexeme, symbol.constantAttributes.value);
+        }
+        return constants;
+    }
+
+    private String substitute(String operand, HashMap<String, Integer> known) {
+        if(operand == null)
+            return null;
+        Integer value = known.get(operand);
+        if(value == null)
+            return operand;
+        if(!TacInstruction.isLiteral(operand))
+            propagated++;
+        return Integer.toString(value);
+    }
+
+    // a store through a reference can change any global variable, and a store to a global can change what a reference points to
+    private void forget(String result, HashMap<String, Integer> known, HashMap<String, Integer> constants) {
+        if(TacInstruction.isReference(result))
+            forgetGlobals(known, constants);
+        else
+            known.remove(result);
+    }
+
+    private void forgetGlobals(HashMap<String, Integer> known, HashMap<String, Integer> constants) {
+        Iterator<String> iterator = known.keySet().iterator();
+        while(iterator.hasNext()) {
+            String operand = iterator.next();
+            if(!TacInstruction.isPrivate(operand) && !operand.startsWith("_bp+") && !constants.containsKey(operand))
+                iterator.remove();
+        }
+    }
+
+    private void simplify(TacInstruction instruction) {
+        if(instruction.opcode == ETacOpcode.neg) {
+            if(TacInstruction.isLiteral(instruction.operand1)) {
+                toCopy(instruction, Integer.toString((short) -TacInstruction.literalValue(instruction.operand1)));
+                folded++;
+            }
+            return;
+        }
+        if(instruction.opcode != ETacOpcode.binary)
+            return;
+
+        String x = instruction.operand1;
+        String y = instruction.operand2;
+        boolean xLiteral = TacInstruction.isLiteral(x);
+        boolean yLiteral = TacInstruction.isLiteral(y);
+
+        if(xLiteral && yLiteral) {
+            Integer value = fold(TacInstruction.literalValue(x), instruction.operator, TacInstruction.literalValue(y));
+            if(value != null) {
+                toCopy(instruction, Integer.toString(value));
+                folded++;
+            }
+            return;
+        }
+
+        int xValue = xLiteral ? TacInstruction.literalValue(x) : Integer.MIN_VALUE;
+        int yValue = yLiteral ? TacInstruction.literalValue(y) : Integer.MIN_VALUE;
+        switch (instruction.operator) {
+            case "+":
+                if(yValue == 0) toCopy(instruction, x);
+                else if(xValue == 0) toCopy(instruction, y);
+                else return;
+                break;
+            case "-":
+                if(yValue == 0) toCopy(instruction, x);
+                else if(xValue == 0) toNeg(instruction, y);
+                else if(x.equals(y)) toCopy(instruction, "0");
+                else return;
+                break;
+            case "*":
+                if(xValue == 0 || yValue == 0) toCopy(instruction, "0");
+                else if(yValue == 1) toCopy(instruction, x);
+                else if(xValue == 1) toCopy(instruction, y);
+                else if(yValue == -1) toNeg(instruction, x);
+                else if(xValue == -1) toNeg(instruction, y);
+                else return;
+                break;
+            case "/":
+                if(yValue == 1) toCopy(instruction, x);
+                else if(yValue == -1) toNeg(instruction, x);
+                else return;
+                break;
+            case "MOD":
+            case "REM":
+                if(yValue == 1 || yValue == -1) toCopy(instruction, "0");
+                else return;
+                break;
+            default:
+                return;
+        }
+        simplified++;
+    }
+
+    // value of x operator y as a 16 bit integer, or null if it can not be computed at compile time
+    private static Integer fold(int x, String operator, int y) {
+        switch (operator) {
+            case "+":
+                return (int) (short) (x + y);
+            case "-":
+                return (int) (short) (x - y);
+            case "*":
+                return (int) (short) (x * y);
+            case "/":
+                // idiv faults on division by zero and on -32768 / -1, that is left to happen at run time
+                if(y == 0 || (x == Short.MIN_VALUE && y == -1))
+                    return null;
+                return x / y;
+            case "REM":
+                if(y == 0)
+                    return null;
+                return x % y;
+            case "MOD":
+                if(y == 0)
+                    return null;
+                return Math.floorMod(x, y);
+            default:
+                return null;
+        }
+    }
+
+    private static void toCopy(TacInstruction instruction, String operand) {
+        instruction.opcode = ETacOpcode.copy;
+        instruction.operand1 = operand;
+        instruction.operator = null;
+        instruction.operand2 = null;
+    }
+
+    private static void toNeg(TacInstruction instruction, String operand) {
+        instruction.opcode = ETacOpcode.neg;
+        instruction.operand1 = operand;
+        instruction.operator = null;
+        instruction.operand2 = null;
+    }
+
+    // literal copies to private operands that no instruction of their procedure reads any more
+    private static int removeUnreadLiteralCopies(TacProgram program) {
+        ArrayList<TacInstruction> instructions = new ArrayList<>(program.size());
+        HashSet<String> read = new HashSet<>();
+        int removed = 0;
+        for(int i = 0; i < program.size(); i++) {
+            TacInstruction instruction = program.instructions.get(i);
+            if(instruction.opcode == ETacOpcode.proc) {
+                read.clear();
+                for(int j = i + 1; j < program.size() && program.instructions.get(j).opcode != ETacOpcode.endp; j++)
+                    program.instructions.get(j).collectReads(read);
+            }
+
+            if(instruction.opcode == ETacOpcode.copy && TacInstruction.isLiteral(instruction.operand1) &&
+                    TacInstruction.isPrivate(instruction.result) && !read.contains(instruction.result)) {
+                removed++;
+                continue;
+            }
+            instructions.add(instruction);
+        }
+        program.instructions = instructions;
+        return removed;
+    }
+}
@@ -0,0 +1,109 @@
+package OptimizerPkg;
+
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProcedure;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Control flow graph of the body of one procedure.
+ *
+ * A procedure (the statements between PROC and ENDP) is split into basic blocks: a block ends after a statement that
+ * leaves the straight line code, which today is a call, and a branch target would start a new one. Every graph has
+ * an empty entry block first and an empty exit block last, so dataflow problems have one boundary block each.
+ * The TAC has no branches yet, so every block falls through to the next one; branches only need to add their edges
+ * in build and end their block in endsBlock.
+ * Blocks are kept in the order of the code, writeBack puts the statements back into the procedure in that order.
+ */
+public class ControlFlowGraph {
+    public TacProcedure procedure;
+    public ArrayList<BasicBlock> blocks = new ArrayList<>();
+    public BasicBlock entry;
+    public BasicBlock exit;
+
+    private ControlFlowGraph(TacProcedure procedure) {
+        this.procedure = procedure;
+    }
+
+    public static ControlFlowGraph build(TacProcedure procedure) {
+        ControlFlowGraph graph = new ControlFlowGraph(procedure);
+        graph.entry = graph.newBlock();
+
+        BasicBlock block = null;
+        for(TacInstruction instruction : procedure.body) {
+            if(block == null)
+                block = graph.newBlock();
+            block.instructions.add(instruction);
+            if(endsBlock(instruction))
+                block = null;
+        }
+        graph.exit = graph.newBlock();
+
+        // fall through edges, in the order of the code
+        for(int i = 0; i + 1 < graph.blocks.size(); i++)
+            graph.blocks.get(i).addSuccessor(graph.blocks.get(i + 1));
+        return graph;
+    }
+
+    // true if the statements after instruction start a new block
+    static boolean endsBlock(TacInstruction instruction) {
+        return instruction.opcode == ETacOpcode.call;
+    }
+
+    private BasicBlock newBlock() {
+        BasicBlock block = new BasicBlock(blocks.size());
+        blocks.add(block);
+        return block;
+    }
+
+    public int size() {
+        return blocks.size();
+    }
+
+    // blocks reachable from the entry, every block before its successors except along back edges
+    public List<BasicBlock> reversePostorder() {
+        ArrayList<BasicBlock> postorder = new ArrayList<>(blocks.size());
+        boolean[] visited = new boolean[blocks.size()];
+        // block and the index of the next successor to visit, an explicit stack so long procedures do not overflow the Java stack
+        ArrayDeque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[]{entry.index, 0});
+        visited[entry.index] = true;
+        while(!stack.isEmpty()) {
+            int[] top = stack.peek();
+            BasicBlock block = blocks.get(top[0]);
+            if(top[1] < block.successors.size()) {
+                BasicBlock successor = block.successors.get(top[1]++);
+                if(!visited[successor.index]) {
+                    visited[successor.index] = true;
+                    stack.push(new int[]{successor.index, 0});
+                }
+            } else {
+                postorder.add(block);
+                stack.pop();
+            }
+        }
+
+        ArrayList<BasicBlock> order = new ArrayList<>(postorder.size());
+        for(int i = postorder.size() - 1; i >= 0; i--)
+            order.add(postorder.get(i));
+        return order;
+    }
+
+    // replaces the body of the procedure by the statements of the blocks
+    public void writeBack() {
+        ArrayList<TacInstruction> body = new ArrayList<>(procedure.body.size());
+        for(BasicBlock block : blocks)
+            body.addAll(block.instructions);
+        procedure.body = body;
+    }
+
+    public int countInstructions() {
+        int count = 0;
+        for(BasicBlock block : blocks)
+            count += block.instructions.size();
+        return count;
+    }
+}
@@ -0,0 +1,181 @@
+package OptimizerPkg;
+
+import SymbolTablePkg.EParameterModeType;
+import SymbolTablePkg.EVariableType;
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProcedure;
+import TACx86Pkg.TacProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Passes out and inout parameters by copy-in/copy-out where no alias can tell the difference.
+ *
+ * A reference parameter is read and written through its pointer, @_bp+4, and every access loads the pointer into bx.
+ * The pass gives such a parameter a frame slot: the body copies the variable into the slot at the start if it reads
+ * the parameter, uses the slot instead of @_bp+4, and copies the slot back at the end if it writes the parameter.
+ * The TAC has no branches and no return statement, so the end of the body is its only exit.
+ *
+ * Copies only behave like the pointer if nothing else reads or writes the variable while the procedure runs, which
+ * the alias analysis proves from all calls of the procedure:
+ *  - every call pushes the address of a named variable or frame slot for the parameter (@x),
+ *  - no other reference argument of the same call is the same variable,
+ *  - x is not a global the procedure or a procedure it calls, directly or through others, names,
+ *  - the body only uses the parameter through @, so the pointer is not passed on.
+ * Only integer parameters are copied, and only when the copies need fewer accesses through the pointer than the
+ * body had.
+ */
+public class CopyInCopyOutPass implements TacPass {
+
+    @Override
+    public String getName() {
+        return "copy-in-out";
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        int before = program.size();
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        HashMap<String, TacProcedure> byName = new HashMap<>();
+        for(TacProcedure procedure : procedures)
+            byName.put(procedure.name, procedure);
+        HashMap<String, HashSet<String>> globals = globalsUsed(procedures, byName);
+
+        // callee -> the arguments of each of its calls, null once a call does not push one argument per parameter
+        HashMap<String, ArrayList<List<String>>> arguments = new HashMap<>();
+        HashSet<String> irregular = new HashSet<>();
+        for(TacProcedure caller : procedures) {
+            for(int i = 0; i < caller.body.size(); i++) {
+                TacInstruction instruction = caller.body.get(i);
+                TacProcedure callee = instruction.opcode == ETacOpcode.call ? byName.get(instruction.operand1) : null;
+                if(callee == null)
+                    continue;
+                List<String> pushed = arguments(callee, caller.body, i);
+                if(pushed == null)
+                    irregular.add(callee.name);
+                else
+                    arguments.computeIfAbsent(callee.name, k -> new ArrayList<>()).add(pushed);
+            }
+        }
+
+        int referenceParameters = 0;
+        int copied = 0;
+        int accessesBefore = 0;
+        int accessesAfter = 0;
+        for(TacProcedure procedure : procedures) {
+            if(procedure.function == null || !arguments.containsKey(procedure.name) || irregular.contains(procedure.name))
+                continue;
+            int parameters = procedure.function.functionAttributes.numberOfParameter;
+            for(int i = 0; i < parameters; i++) {
+                if(procedure.function.functionAttributes.parameterModeList.get(i) == EParameterModeType.in
+                        || procedure.function.functionAttributes.parameterTypeList.get(i) != EVariableType.integerType)
+                    continue;
+                referenceParameters++;
+                String pointer = "_bp+" + (4 + 2 * (parameters - 1 - i));
+                if(!isUnaliased(i, arguments.get(procedure.name), globals.get(procedure.name)))
+                    continue;
+
+                String through = "@" + pointer;
+                int reads = 0;
+                int writes = 0;
+                boolean passedOn = false;
+                for(TacInstruction instruction : procedure.body) {
+                    passedOn |= pointer.equals(instruction.result) || pointer.equals(instruction.operand1) || pointer.equals(instruction.operand2)
+                            || (instruction.opcode == ETacOpcode.push && through.equals(instruction.operand1));
+                    reads += instruction.reads(through) ? 1 : 0;
+                    writes += through.equals(instruction.getDefinition()) ? 1 : 0;
+                }
+                int copies = (reads > 0 ? 1 : 0) + (writes > 0 ? 1 : 0);
+                if(passedOn || copies >= reads + writes)
+                    continue;
+
+                String slot = FrameLayout.newSlot(procedure);
+                for(TacInstruction instruction : procedure.body) {
+                    instruction.result = through.equals(instruction.result) ? slot : instruction.result;
+                    instruction.operand1 = through.equals(instruction.operand1) ? slot : instruction.operand1;
+                    instruction.operand2 = through.equals(instruction.operand2) ? slot : instruction.operand2;
+                }
+                if(reads > 0)
+                    procedure.body.add(0, TacInstruction.copy(slot, through));
+                if(writes > 0)
+                    procedure.body.add(TacInstruction.copy(through, slot));
+                copied++;
+                accessesBefore += reads + writes;
+                accessesAfter += copies;
+            }
+        }
+        program.setProcedures(procedures);
+
+        report.add(getName() + ": " + before + " -> " + program.size() + " TAC instructions, " + copied + " of " + referenceParameters +
+                " out and inout parameters copied in and out, accesses through a pointer " + accessesBefore + " -> " + accessesAfter);
+    }
+
+    /**
+     * The argument of every parameter of a call of callee, or null if the call does not have a push for every
+     * parameter right before it.
+     */
+    private static List<String> arguments(TacProcedure callee, ArrayList<TacInstruction> body, int call) {
+        if(callee.function == null)
+            return null;
+        int parameters = callee.function.functionAttributes.numberOfParameter;
+        if(callee.function.functionAttributes.sizeOfParameters != 2 * parameters
+                || callee.function.functionAttributes.parameterModeList.size() != parameters || call < parameters)
+            return null;
+        ArrayList<String> arguments = new ArrayList<>();
+        for(int i = call - parameters; i < call; i++) {
+            if(body.get(i).opcode != ETacOpcode.push)
+                return null;
+            arguments.add(body.get(i).operand1);
+        }
+        return arguments;
+    }
+
+    // true if every call passes a variable for parameter that no other reference argument and no global access can reach
+    private static boolean isUnaliased(int parameter, List<List<String>> calls, HashSet<String> globals) {
+        for(List<String> call : calls) {
+            String argument = call.get(parameter);
+            if(!TacInstruction.isReference(argument))
+                return false;
+            String variable = argument.substring(1);
+            if(globals.contains(variable))
+                return false;
+            for(int i = 0; i < call.size(); i++) {
+                if(i != parameter && TacInstruction.isReference(call.get(i)) && call.get(i).substring(1).equals(variable))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    // globals every procedure names, including the ones the procedures it calls name, directly or through others
+    private static HashMap<String, HashSet<String>> globalsUsed(List<TacProcedure> procedures, HashMap<String, TacProcedure> byName) {
+        HashMap<String, HashSet<String>> globals = new HashMap<>();
+        for(TacProcedure procedure : procedures) {
+            HashSet<String> named = new HashSet<>();
+            for(TacInstruction instruction : procedure.body) {
+                for(String operand : new String[]{instruction.result, instruction.operand1, instruction.operand2}) {
+                    String name = TacInstruction.isReference(operand) ? operand.substring(1) : operand;
+                    if(name != null && !TacInstruction.isLiteral(name) && !name.startsWith("_bp") && instruction.opcode != ETacOpcode.call)
+                        named.add(name);
+                }
+            }
+            globals.put(procedure.name, named);
+        }
+
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(TacProcedure procedure : procedures) {
+                for(TacInstruction instruction : procedure.body) {
+                    if(instruction.opcode == ETacOpcode.call && byName.containsKey(instruction.operand1))
+                        changed |= globals.get(procedure.name).addAll(globals.get(instruction.operand1));
+                }
+            }
+        }
+        return globals;
+    }
+}
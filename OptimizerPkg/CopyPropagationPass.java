@@ -0,0 +1,175 @@
+package OptimizerPkg;
+
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProcedure;
+import TACx86Pkg.TacProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copy propagation, dead store elimination and removal of unused local variables.
+ *
+ * After x = y a later read of x reads y instead, until x or y is assigned again, or a call gets the address of x or y.
+ * A temporary that is assigned and then only copied, as in t = a + b; x = t, is replaced by the destination of the copy.
+ * A backward walk removes assignments to private operands and parameters passed by value that are not read afterwards.
+ * Finally the frame of every procedure is compacted to the slots it still uses and unused global temporaries are removed
+ * from the symbol table, so they take no space in the data segment.
+ */
+public class CopyPropagationPass implements TacPass {
+    private int propagated;
+    private int forwarded;
+    private int deadStores;
+
+    @Override
+    public String getName() {
+        return "copy-prop";
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        int before = program.size();
+        int frameBefore = 0;
+        int frameAfter = 0;
+
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        for(TacProcedure procedure : procedures) {
+            frameBefore += FrameLayout.frameSize(procedure);
+
+            // propagation creates dead copies and removing them can expose new forwarding, stop when nothing changes
+            int changes;
+            do {
+                changes = propagated + forwarded + deadStores;
+                propagateCopies(procedure.body);
+                removeDeadStores(procedure.body);
+            } while(changes != propagated + forwarded + deadStores);
+
+            frameAfter += FrameLayout.compact(procedure);
+        }
+        program.setProcedures(procedures);
+        int temporaries = FrameLayout.removeUnusedTemporaries(program);
+
+        report.add(getName() + ": " + before + " -> " + program.size() + " TAC instructions, " +
+                propagated + " copies propagated, " + forwarded + " temporaries forwarded, " + deadStores + " dead stores removed");
+        report.add(getName() + ": frames " + frameBefore + " -> " + frameAfter + " bytes, " + temporaries + " unused global temporaries removed");
+    }
+
+    private void propagateCopies(ArrayList<TacInstruction> body) {
+        // destination -> source of the copies that are still valid
+        HashMap<String, String> copies = new HashMap<>();
+        HashSet<String> passed = TacInstruction.addressesPassed(body);
+
+        for(TacInstruction instruction : body) {
+            switch (instruction.opcode) {
+                case push:
+                    // push @x passes the address of x, that must stay x
+                    if(!TacInstruction.isReference(instruction.operand1))
+                        instruction.operand1 = substitute(instruction.operand1, copies);
+                    break;
+                case wri:
+                    instruction.operand1 = substitute(instruction.operand1, copies);
+                    break;
+                case call:
+                    forgetGlobals(copies);
+                    // the callee can store to the operands whose address the procedure pushes
+                    copies.entrySet().removeIf(copy -> passed.contains(copy.getKey()) || passed.contains(copy.getValue()));
+                    break;
+                case rdi:
+                    forget(instruction.result, copies);
+                    break;
+                case copy:
+                case neg:
+                case binary:
+                    instruction.operand1 = substitute(instruction.operand1, copies);
+                    instruction.operand2 = substitute(instruction.operand2, copies);
+                    forget(instruction.result, copies);
+
+                    // the value of @x changes with every store to a global, so it is not propagated
+                    if(instruction.opcode == ETacOpcode.copy && !TacInstruction.isReference(instruction.result) &&
+                            !TacInstruction.isReference(instruction.operand1) && !instruction.result.equals(instruction.operand1))
+                        copies.put(instruction.result, instruction.operand1);
+                    break;
+            }
+        }
+    }
+
+    private String substitute(String operand, HashMap<String, String> copies) {
+        if(operand == null || TacInstruction.isReference(operand))
+            return operand;
+        String source = copies.get(operand);
+        if(source == null)
+            return operand;
+        propagated++;
+        return source;
+    }
+
+    private void forget(String result, HashMap<String, String> copies) {
+        if(TacInstruction.isReference(result)) {
+            forgetGlobals(copies);
+            return;
+        }
+        copies.remove(result);
+        copies.values().removeIf(source -> source.equals(result));
+    }
+
+    // a callee or a store through a reference can change any global variable
+    private static void forgetGlobals(HashMap<String, String> copies) {
+        Iterator<Map.Entry<String, String>> iterator = copies.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<String, String> copy = iterator.next();
+            if(isGlobal(copy.getKey()) || isGlobal(copy.getValue()))
+                iterator.remove();
+        }
+    }
+
+    private static boolean isGlobal(String operand) {
+        return !TacInstruction.isLiteral(operand) && !isLocal(operand);
+    }
+
+    // private operands and parameters passed by value, no other procedure can read them
+    private static boolean isLocal(String operand) {
+        return TacInstruction.isPrivate(operand) || (operand != null && operand.startsWith("_bp+"));
+    }
+
+    /**
+     * Walks the body backwards with the set of local operands that are read later.
+     * An assignment to a local operand that is not in the set is dead. A copy x = t of a dead temporary t
+     * that the previous instruction assigned makes that instruction assign x directly.
+     * rdi is never removed because it consumes input.
+     */
+    private void removeDeadStores(ArrayList<TacInstruction> body) {
+        HashSet<String> live = new HashSet<>();
+        ArrayList<TacInstruction> kept = new ArrayList<>(body.size());
+
+        for(int i = body.size() - 1; i >= 0; i--) {
+            TacInstruction instruction = body.get(i);
+            String definition = instruction.getDefinition();
+
+            if(instruction.isAssignment() && isLocal(definition) && !live.contains(definition)) {
+                deadStores++;
+                continue;
+            }
+
+            if(instruction.opcode == ETacOpcode.copy && TacInstruction.isPrivate(instruction.operand1) && !live.contains(instruction.operand1) &&
+                    i > 0 && instruction.operand1.equals(body.get(i - 1).getDefinition())) {
+                body.get(i - 1).result = instruction.result;
+                forwarded++;
+                continue;
+            }
+
+            if(definition != null && !TacInstruction.isReference(definition))
+                live.remove(definition);
+            instruction.collectReads(live);
+            kept.add(instruction);
+        }
+
+        body.clear();
+        for(int i = kept.size() - 1; i >= 0; i--)
+            body.add(kept.get(i));
+    }
+}
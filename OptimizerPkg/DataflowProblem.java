@@ -0,0 +1,25 @@
+package OptimizerPkg;
+
+import java.util.BitSet;
+
+/**
+ * A bit vector dataflow problem for DataflowSolver.
+ * Facts are numbered from 0 to size() - 1, and the effect of a block is out = gen | (in & ~kill) in the direction
+ * of the problem (in and out swap for backward problems).
+ */
+public interface DataflowProblem {
+    // true for problems that flow from the entry to the exit, such as reaching definitions
+    boolean isForward();
+
+    // true if facts meet by union (may problems such as liveness), false for intersection (must problems)
+    boolean isUnion();
+
+    int size();
+
+    // facts at the entry of a forward problem or at the exit of a backward problem
+    BitSet boundary();
+
+    BitSet gen(BasicBlock block);
+
+    BitSet kill(BasicBlock block);
+}
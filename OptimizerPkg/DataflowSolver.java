@@ -0,0 +1,95 @@
+package OptimizerPkg;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Worklist solver for bit vector dataflow problems.
+ *
+ * gen and kill are asked once per block. The worklist starts with every reachable block in reverse postorder for
+ * forward problems and in postorder for backward ones, and a block is put back only when the facts flowing into it
+ * changed, so code without loops is solved in one visit per block.
+ * in and out are indexed by BasicBlock.index and are in the direction of the code: in is the start of the block
+ * and out its end, for backward problems too.
+ */
+public class DataflowSolver {
+    public BitSet[] in;
+    public BitSet[] out;
+    // number of blocks the solver evaluated
+    public int visits;
+
+    public DataflowSolver(ControlFlowGraph graph, DataflowProblem problem) {
+        int size = graph.size();
+        in = new BitSet[size];
+        out = new BitSet[size];
+        BitSet[] gen = new BitSet[size];
+        BitSet[] kill = new BitSet[size];
+        boolean forward = problem.isForward();
+        BasicBlock boundaryBlock = forward ? graph.entry : graph.exit;
+
+        for(BasicBlock block : graph.blocks) {
+            gen[block.index] = problem.gen(block);
+            kill[block.index] = problem.kill(block);
+            in[block.index] = new BitSet(problem.size());
+            out[block.index] = new BitSet(problem.size());
+            // must problems start from every fact, so the intersection only removes what a path does not provide
+            if(!problem.isUnion() && block != boundaryBlock) {
+                in[block.index].set(0, problem.size());
+                out[block.index].set(0, problem.size());
+            }
+        }
+
+        List<BasicBlock> order = graph.reversePostorder();
+        ArrayDeque<BasicBlock> worklist = new ArrayDeque<>(order.size());
+        boolean[] queued = new boolean[size];
+        for(int i = 0; i < order.size(); i++) {
+            BasicBlock block = order.get(forward ? i : order.size() - 1 - i);
+            worklist.add(block);
+            queued[block.index] = true;
+        }
+
+        while(!worklist.isEmpty()) {
+            BasicBlock block = worklist.poll();
+            queued[block.index] = false;
+            visits++;
+
+            // facts flowing into the block: the start of a forward block, the end of a backward one
+            BitSet incoming = forward ? in[block.index] : out[block.index];
+            List<BasicBlock> sources = forward ? block.predecessors : block.successors;
+            if(block == boundaryBlock) {
+                incoming.clear();
+                incoming.or(problem.boundary());
+            } else if(!sources.isEmpty()) {
+                BitSet meet = null;
+                for(BasicBlock source : sources) {
+                    BitSet facts = forward ? out[source.index] : in[source.index];
+                    if(meet == null)
+                        meet = (BitSet) facts.clone();
+                    else if(problem.isUnion())
+                        meet.or(facts);
+                    else
+                        meet.and(facts);
+                }
+                incoming.clear();
+                incoming.or(meet);
+            }
+
+            BitSet result = (BitSet) incoming.clone();
+            result.andNot(kill[block.index]);
+            result.or(gen[block.index]);
+            BitSet outgoing = forward ? out[block.index] : in[block.index];
+            if(result.equals(outgoing))
+                continue;
+            outgoing.clear();
+            outgoing.or(result);
+
+            for(BasicBlock target : forward ? block.successors : block.predecessors) {
+                if(!queued[target.index]) {
+                    queued[target.index] = true;
+                    worklist.add(target);
+                }
+            }
+        }
+    }
+}
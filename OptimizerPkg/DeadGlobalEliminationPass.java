@@ -0,0 +1,129 @@
+package OptimizerPkg;
+
+import SymbolTablePkg.Symbol;
+import TACx86Pkg.AsmInstruction;
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProcedure;
+import TACx86Pkg.TacProgram;
+import TACx86Pkg.X86CostModel;
+import TACx86Pkg.x86Translator;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Removes the procedures the program can never call and the global symbols no remaining statement uses.
+ *
+ * Procedures are reachable from the procedure of the START statement through the calls of the call graph, the others
+ * are removed from the TAC, so the translator emits no code for them. Then every operand of the remaining
+ * statements is a reference: a variable, @ operand, global temporary, constant or string, a string pool operand
+ * such as _s0+6 uses _s0. Global symbols that are not referenced leave the symbol table and take no space in the
+ * data segment. Symbols of procedures stay, they take no space.
+ * The code bytes in the summary are those of the templates for the removed procedures, as -O0 would emit them.
+ */
+public class DeadGlobalEliminationPass implements TacPass {
+
+    @Override
+    public String getName() {
+        return "global-dce";
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        int before = program.size();
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        String entry = null;
+        for(TacInstruction instruction : program.instructions) {
+            if(instruction.opcode == ETacOpcode.start)
+                entry = instruction.operand1;
+        }
+
+        ArrayList<TacProcedure> live = new ArrayList<>();
+        ArrayList<TacProcedure> dead = new ArrayList<>();
+        // without START every procedure could be the program
+        HashSet<String> reachable = entry == null ? null : reachable(entry, procedures);
+        for(TacProcedure procedure : procedures) {
+            if(reachable == null || reachable.contains(procedure.name))
+                live.add(procedure);
+            else
+                dead.add(procedure);
+        }
+        int codeBytes = codeBytes(program, dead);
+        program.setProcedures(live);
+
+        HashSet<String> referenced = new HashSet<>();
+        for(TacInstruction instruction : program.instructions) {
+            addReference(instruction.result, referenced);
+            addReference(instruction.operand1, referenced);
+            addReference(instruction.operand2, referenced);
+        }
+        int globals = 0;
+        int dataBytes = 0;
+        for(Symbol symbol : program.symbolTable.lookup(1)) {
+            if(StringPoolPass.dataSize(symbol) == 0 || referenced.contains(symbol.lexeme))
+                continue;
+            if(program.symbolTable.remove(symbol)) {
+                globals++;
+                dataBytes += StringPoolPass.dataSize(symbol);
+            }
+        }
+
+        report.add(getName() + ": " + before + " -> " + program.size() + " TAC instructions, " + dead.size() + " of " +
+                procedures.size() + " procedures and " + globals + " globals removed, code " + codeBytes + " bytes and data " +
+                dataBytes + " bytes smaller");
+    }
+
+    // names of the procedures entry calls directly or through others, and entry itself
+    private static HashSet<String> reachable(String entry, List<TacProcedure> procedures) {
+        HashMap<String, TacProcedure> byName = new HashMap<>();
+        for(TacProcedure procedure : procedures)
+            byName.put(procedure.name, procedure);
+
+        HashSet<String> reachable = new HashSet<>();
+        ArrayDeque<String> worklist = new ArrayDeque<>();
+        reachable.add(entry);
+        worklist.add(entry);
+        while(!worklist.isEmpty()) {
+            TacProcedure procedure = byName.get(worklist.poll());
+            if(procedure == null)
+                continue;
+            for(TacInstruction instruction : procedure.body) {
+                if(instruction.opcode == ETacOpcode.call && reachable.add(instruction.operand1))
+                    worklist.add(instruction.operand1);
+            }
+        }
+        return reachable;
+    }
+
+    // the global an operand names, if it names one: @x uses x, _s0+6 uses _s0
+    private static void addReference(String operand, HashSet<String> referenced) {
+        if(operand == null || TacInstruction.isLiteral(operand))
+            return;
+        String name = TacInstruction.isReference(operand) ? operand.substring(1) : operand;
+        int offset = name.indexOf('+');
+        if(offset > 0 && !name.startsWith("_bp"))
+            name = name.substring(0, offset);
+        referenced.add(name);
+    }
+
+    // bytes of the code the templates generate for procedures
+    private static int codeBytes(TacProgram program, List<TacProcedure> procedures) {
+        if(procedures.isEmpty())
+            return 0;
+        TacProgram removed = new TacProgram(program.symbolTable);
+        removed.setProcedures(new ArrayList<>(procedures));
+        StringWriter assembly = new StringWriter();
+        new x86Translator(removed, new PrintWriter(assembly));
+
+        int bytes = 0;
+        for(String line : assembly.toString().split("\n"))
+            bytes += X86CostModel.bytes(AsmInstruction.parse(line));
+        return bytes;
+    }
+}
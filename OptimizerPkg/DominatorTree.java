@@ -0,0 +1,123 @@
+package OptimizerPkg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dominators and dominance frontiers of a control flow graph.
+ *
+ * Immediate dominators are computed with the algorithm of Cooper, Harvey and Kennedy ("A Simple, Fast Dominance
+ * Algorithm"): blocks are visited in reverse postorder and the dominators of the predecessors are intersected by
+ * walking up the tree in postorder numbers. Code without loops needs one pass plus one to see that nothing changed.
+ * Dominance frontiers are found by walking from every predecessor of a join block up to the block's immediate dominator.
+ * Blocks the entry can not reach have no immediate dominator and are in no frontier.
+ */
+public class DominatorTree {
+    private ControlFlowGraph graph;
+    // immediate dominator of every block by index, the entry is its own, null for unreachable blocks
+    private BasicBlock[] idom;
+    // position of every block in postorder, -1 if the block is unreachable
+    private int[] postorderNumber;
+    private List<BasicBlock> reversePostorder;
+    private ArrayList<ArrayList<BasicBlock>> children = new ArrayList<>();
+    private ArrayList<ArrayList<BasicBlock>> frontiers = new ArrayList<>();
+
+    public DominatorTree(ControlFlowGraph graph) {
+        this.graph = graph;
+        int size = graph.size();
+        idom = new BasicBlock[size];
+        postorderNumber = new int[size];
+        for(int i = 0; i < size; i++) {
+            postorderNumber[i] = -1;
+            children.add(new ArrayList<>());
+            frontiers.add(new ArrayList<>());
+        }
+
+        reversePostorder = graph.reversePostorder();
+        for(int i = 0; i < reversePostorder.size(); i++)
+            postorderNumber[reversePostorder.get(i).index] = reversePostorder.size() - 1 - i;
+
+        computeDominators();
+        for(BasicBlock block : reversePostorder) {
+            if(block != graph.entry)
+                children.get(idom[block.index].index).add(block);
+        }
+        computeFrontiers();
+    }
+
+    private void computeDominators() {
+        idom[graph.entry.index] = graph.entry;
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(BasicBlock block : reversePostorder) {
+                if(block == graph.entry)
+                    continue;
+                BasicBlock newIdom = null;
+                for(BasicBlock predecessor : block.predecessors) {
+                    if(idom[predecessor.index] == null)
+                        continue;
+                    newIdom = newIdom == null ? predecessor : intersect(predecessor, newIdom);
+                }
+                if(idom[block.index] != newIdom) {
+                    idom[block.index] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b) {
+        while(a != b) {
+            while(postorderNumber[a.index] < postorderNumber[b.index])
+                a = idom[a.index];
+            while(postorderNumber[b.index] < postorderNumber[a.index])
+                b = idom[b.index];
+        }
+        return a;
+    }
+
+    private void computeFrontiers() {
+        for(BasicBlock block : reversePostorder) {
+            if(block.predecessors.size() < 2)
+                continue;
+            for(BasicBlock predecessor : block.predecessors) {
+                if(idom[predecessor.index] == null)
+                    continue;
+                BasicBlock runner = predecessor;
+                while(runner != idom[block.index]) {
+                    ArrayList<BasicBlock> frontier = frontiers.get(runner.index);
+                    if(frontier.isEmpty() || frontier.get(frontier.size() - 1) != block)
+                        frontier.add(block);
+                    runner = idom[runner.index];
+                }
+            }
+        }
+    }
+
+    // immediate dominator of block, null for the entry and for unreachable blocks
+    public BasicBlock getImmediateDominator(BasicBlock block) {
+        return block == graph.entry ? null : idom[block.index];
+    }
+
+    public List<BasicBlock> getChildren(BasicBlock block) {
+        return children.get(block.index);
+    }
+
+    public List<BasicBlock> getFrontier(BasicBlock block) {
+        return frontiers.get(block.index);
+    }
+
+    // true if every path from the entry to b goes through a
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        if(idom[b.index] == null)
+            return false;
+        while(b != a && b != graph.entry)
+            b = idom[b.index];
+        return b == a;
+    }
+
+    public List<BasicBlock> getReversePostorder() {
+        return reversePostorder;
+    }
+}
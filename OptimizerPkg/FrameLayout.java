@@ -0,0 +1,103 @@
+package OptimizerPkg;
+
+import SymbolTablePkg.Symbol;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProcedure;
+import TACx86Pkg.TacProgram;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Helpers for passes that move the local variables and temporaries of a procedure to other places.
+ */
+public class FrameLayout {
+    private FrameLayout() {
+    }
+
+    /**
+     * Gives every frame slot the body still uses its own word, _bp-2, _bp-4 ..., in the order of the old offsets,
+     * and sets the local variable size of the procedure to the new frame.
+     * Slots the body no longer uses take no space, so the start procedure, whose variables are global, gets an empty frame.
+     * @return the new size of the local variables in bytes
+     */
+    public static int compact(TacProcedure procedure) {
+        TreeMap<Integer, String> slots = new TreeMap<>();
+        for(TacInstruction instruction : procedure.body) {
+            addSlot(instruction.result, slots);
+            addSlot(instruction.operand1, slots);
+            addSlot(instruction.operand2, slots);
+        }
+
+        TreeMap<String, String> renames = new TreeMap<>();
+        int offset = 0;
+        for(String slot : slots.values()) {
+            offset += 2;
+            renames.put(slot, "_bp-" + offset);
+        }
+        rename(procedure, renames);
+
+        if(procedure.function != null)
+            procedure.function.functionAttributes.sizeOfLocalVariable = offset;
+        return offset;
+    }
+
+    // replaces operands of the body, @x is renamed with x
+    public static void rename(TacProcedure procedure, Map<String, String> renames) {
+        for(TacInstruction instruction : procedure.body) {
+            instruction.result = rename(instruction.result, renames);
+            instruction.operand1 = rename(instruction.operand1, renames);
+            instruction.operand2 = rename(instruction.operand2, renames);
+        }
+    }
+
+    private static String rename(String operand, Map<String, String> renames) {
+        if(operand == null)
+            return null;
+        if(TacInstruction.isReference(operand)) {
+            String name = renames.get(operand.substring(1));
+            return name == null ? operand : "@" + name;
+        }
+        String name = renames.get(operand);
+        return name == null ? operand : name;
+    }
+
+    // a new word at the end of the frame of procedure
+    public static String newSlot(TacProcedure procedure) {
+        procedure.function.functionAttributes.sizeOfLocalVariable += 2;
+        return "_bp-" + procedure.function.functionAttributes.sizeOfLocalVariable;
+    }
+
+    // size of the local variables of a procedure, 0 if the procedure has no function symbol
+    public static int frameSize(TacProcedure procedure) {
+        return procedure.function == null ? 0 : procedure.function.functionAttributes.sizeOfLocalVariable;
+    }
+
+    /**
+     * Removes the global temporaries no instruction uses any more from the symbol table, so they take no space in the data segment.
+     * @return the number of removed temporaries
+     */
+    public static int removeUnusedTemporaries(TacProgram program) {
+        HashSet<String> used = new HashSet<>();
+        for(TacInstruction instruction : program.instructions) {
+            instruction.collectReads(used);
+            if(instruction.getDefinition() != null)
+                used.add(instruction.getDefinition());
+        }
+
+        int removed = 0;
+        for(Symbol symbol : program.symbolTable.lookup(1)) {
+            if(TacInstruction.isGlobalTemporary(symbol.lexeme) && !used.contains(symbol.lexeme) && program.symbolTable.remove(symbol))
+                removed++;
+        }
+        return removed;
+    }
+
+    private static void addSlot(String operand, TreeMap<Integer, String> slots) {
+        if(TacInstruction.isReference(operand))
+            operand = operand.substring(1);
+        if(TacInstruction.isFrameSlot(operand))
+            slots.put(Integer.parseInt(operand.substring(4)), operand);
+    }
+}
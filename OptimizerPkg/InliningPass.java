@@ -0,0 +1,242 @@
+package OptimizerPkg;
+
+import SymbolTablePkg.EParameterModeType;
+import SymbolTablePkg.EVariableType;
+import SymbolTablePkg.Symbol;
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProcedure;
+import TACx86Pkg.TacProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Replaces calls of small procedures by the body of the procedure.
+ *
+ * A call is the pushes of its arguments followed by call. The body is copied into the caller with
+ *  - an in parameter _bp+K replaced by the pushed value, through a new local variable if the procedure assigns
+ *    the parameter or the value is a variable a statement of the body could change,
+ *  - an out or inout parameter @_bp+K replaced by the variable whose address was pushed,
+ *  - the local variables and temporaries of the procedure moved to new slots at the end of the caller's frame.
+ * A procedure is inlined if its body has at most maxSize instructions, and only as long as the program grows
+ * by at most maxGrowth percent. Procedures that can call themselves, directly or through others, are never inlined.
+ * Callees are handled before their callers, so a procedure inlined into another one is already inlined itself.
+ */
+public class InliningPass implements TacPass {
+    private int maxSize;
+    private int maxGrowth;
+
+    public InliningPass(int maxSize, int maxGrowth) {
+        this.maxSize = maxSize;
+        this.maxGrowth = maxGrowth;
+    }
+
+    @Override
+    public String getName() {
+        return "inline";
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        int before = program.size();
+        int budget = before * maxGrowth / 100;
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        LinkedHashMap<String, TacProcedure> byName = new LinkedHashMap<>();
+        for(TacProcedure procedure : procedures)
+            byName.put(procedure.name, procedure);
+
+        HashMap<String, HashSet<String>> callees = callGraph(procedures);
+        HashSet<String> recursive = new HashSet<>();
+        for(String name : byName.keySet()) {
+            if(reaches(name, name, callees, new HashSet<>()))
+                recursive.add(name);
+        }
+
+        int inlined = 0;
+        int growth = 0;
+        int refusedSize = 0;
+        int refusedBudget = 0;
+        for(TacProcedure caller : bottomUp(procedures, callees)) {
+            ArrayList<TacInstruction> body = new ArrayList<>(caller.body.size());
+            for(TacInstruction instruction : caller.body) {
+                body.add(instruction);
+                if(instruction.opcode != ETacOpcode.call)
+                    continue;
+
+                TacProcedure callee = byName.get(instruction.operand1);
+                if(callee == null || recursive.contains(callee.name) || !canInline(callee, body))
+                    continue;
+                if(callee.body.size() > maxSize) {
+                    refusedSize++;
+                    continue;
+                }
+                int parameters = callee.function.functionAttributes.numberOfParameter;
+                int added = callee.body.size() - parameters - 1;
+                if(growth + added > budget) {
+                    refusedBudget++;
+                    continue;
+                }
+
+                body.remove(body.size() - 1);
+                List<TacInstruction> pushes = new ArrayList<>(body.subList(body.size() - parameters, body.size()));
+                body.subList(body.size() - parameters, body.size()).clear();
+                int size = body.size();
+                inline(caller, callee, pushes, body);
+                growth += body.size() - size - parameters - 1;
+                inlined++;
+            }
+            caller.body = body;
+        }
+        program.setProcedures(procedures);
+
+        report.add(getName() + ": " + before + " -> " + program.size() + " TAC instructions, " + inlined + " calls inlined, " +
+                recursive.size() + " recursive procedures, " + refusedSize + " calls over the size limit, " + refusedBudget + " over the growth budget");
+    }
+
+    // parameters of integer type passed in words, and a push for each of them right before the call
+    private static boolean canInline(TacProcedure callee, ArrayList<TacInstruction> body) {
+        if(callee.function == null)
+            return false;
+        Symbol.FunctionAttributes attributes = callee.function.functionAttributes;
+        int parameters = attributes.numberOfParameter;
+        if(attributes.sizeOfParameters != 2 * parameters || attributes.parameterModeList.size() != parameters)
+            return false;
+        for(EVariableType type : attributes.parameterTypeList) {
+            if(type != EVariableType.integerType)
+                return false;
+        }
+        if(body.size() < parameters + 1)
+            return false;
+        for(int i = 0; i < parameters; i++) {
+            TacInstruction push = body.get(body.size() - 1 - parameters + i);
+            if(push.opcode != ETacOpcode.push)
+                return false;
+            boolean byReference = attributes.parameterModeList.get(i) != EParameterModeType.in;
+            if(byReference != TacInstruction.isReference(push.operand1))
+                return false;
+        }
+
+        // a reference parameter can only be used to read or write the variable it points to
+        for(TacInstruction instruction : callee.body) {
+            for(String operand : new String[]{instruction.result, instruction.operand1, instruction.operand2}) {
+                if(operand != null && operand.startsWith("_bp+") && isReferenceParameter(attributes, operand))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isReferenceParameter(Symbol.FunctionAttributes attributes, String operand) {
+        int index = parameterIndex(attributes.numberOfParameter, Integer.parseInt(operand.substring(4)));
+        return index >= 0 && index < attributes.numberOfParameter && attributes.parameterModeList.get(index) != EParameterModeType.in;
+    }
+
+    // the last parameter is at bp+4, the first one at the highest offset
+    private static int parameterIndex(int parameters, int offset) {
+        return parameters - 1 - (offset - 4) / 2;
+    }
+
+    private void inline(TacProcedure caller, TacProcedure callee, List<TacInstruction> pushes, ArrayList<TacInstruction> body) {
+        Symbol.FunctionAttributes attributes = callee.function.functionAttributes;
+        int parameters = attributes.numberOfParameter;
+        HashMap<String, String> renames = new HashMap<>();
+
+        // operands the inlined body writes, a store through an out parameter writes the variable passed for it
+        HashSet<String> assigned = new HashSet<>();
+        boolean calls = false;
+        for(TacInstruction instruction : callee.body) {
+            String definition = instruction.getDefinition();
+            calls |= instruction.opcode == ETacOpcode.call;
+            if(definition == null)
+                continue;
+            if(TacInstruction.isReference(definition) && definition.startsWith("@_bp+"))
+                assigned.add(pushes.get(parameterIndex(parameters, Integer.parseInt(definition.substring(5)))).operand1.substring(1));
+            else
+                assigned.add(definition);
+        }
+
+        for(int i = 0; i < parameters; i++) {
+            String parameter = "_bp+" + (4 + 2 * (parameters - 1 - i));
+            String argument = pushes.get(i).operand1;
+            if(attributes.parameterModeList.get(i) != EParameterModeType.in) {
+                renames.put("@" + parameter, argument.substring(1));
+            } else if(assigned.contains(parameter) || assigned.contains(argument) ||
+                    (calls && !TacInstruction.isLiteral(argument) && !TacInstruction.isPrivate(argument) && !argument.startsWith("_bp+"))) {
+                String copy = FrameLayout.newSlot(caller);
+                body.add(TacInstruction.copy(copy, argument));
+                renames.put(parameter, copy);
+            } else {
+                renames.put(parameter, argument);
+            }
+        }
+
+        for(TacInstruction instruction : callee.body) {
+            TacInstruction copy = new TacInstruction(instruction.opcode, rename(instruction.result, renames, caller),
+                    rename(instruction.operand1, renames, caller), instruction.operator, rename(instruction.operand2, renames, caller));
+            body.add(copy);
+        }
+    }
+
+    private static String rename(String operand, HashMap<String, String> renames, TacProcedure caller) {
+        if(operand == null)
+            return null;
+        String name = renames.get(operand);
+        if(name != null)
+            return name;
+        if(TacInstruction.isReference(operand) && renames.containsKey(operand.substring(1)))
+            return "@" + renames.get(operand.substring(1));
+        if(TacInstruction.isPrivate(operand)) {
+            name = FrameLayout.newSlot(caller);
+            renames.put(operand, name);
+            return name;
+        }
+        return operand;
+    }
+
+    private static HashMap<String, HashSet<String>> callGraph(List<TacProcedure> procedures) {
+        HashMap<String, HashSet<String>> callees = new HashMap<>();
+        for(TacProcedure procedure : procedures) {
+            HashSet<String> called = new HashSet<>();
+            for(TacInstruction instruction : procedure.body) {
+                if(instruction.opcode == ETacOpcode.call)
+                    called.add(instruction.operand1);
+            }
+            callees.put(procedure.name, called);
+        }
+        return callees;
+    }
+
+    private static boolean reaches(String from, String to, HashMap<String, HashSet<String>> callees, HashSet<String> visited) {
+        for(String callee : callees.getOrDefault(from, new HashSet<>())) {
+            if(callee.equals(to))
+                return true;
+            if(visited.add(callee) && reaches(callee, to, callees, visited))
+                return true;
+        }
+        return false;
+    }
+
+    // procedures ordered so that every procedure comes after the procedures it calls, cycles in any order
+    private static List<TacProcedure> bottomUp(List<TacProcedure> procedures, HashMap<String, HashSet<String>> callees) {
+        LinkedHashMap<String, TacProcedure> byName = new LinkedHashMap<>();
+        for(TacProcedure procedure : procedures)
+            byName.put(procedure.name, procedure);
+        List<TacProcedure> order = new ArrayList<>();
+        HashSet<String> visited = new HashSet<>();
+        for(TacProcedure procedure : procedures)
+            visit(procedure.name, byName, callees, visited, order);
+        return order;
+    }
+
+    private static void visit(String name, LinkedHashMap<String, TacProcedure> byName, HashMap<String, HashSet<String>> callees, HashSet<String> visited, List<TacProcedure> order) {
+        if(!byName.containsKey(name) || !visited.add(name))
+            return;
+        for(String callee : callees.get(name))
+            visit(callee, byName, callees, visited, order);
+        order.add(byName.get(name));
+    }
+}
@@ -0,0 +1,258 @@
+package OptimizerPkg;
+
+import SymbolTablePkg.EParameterModeType;
+import SymbolTablePkg.ESymbolType;
+import SymbolTablePkg.EVariableType;
+import SymbolTablePkg.Symbol;
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProcedure;
+import TACx86Pkg.TacProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Interprocedural constant propagation of in parameters.
+ *
+ * Every call of a procedure is the pushes of its arguments followed by call. An in parameter the procedure never
+ * writes or takes the address of is a candidate. A CONSTANT argument counts as its value, constant folding before
+ * this pass turns more arguments into literals. If every call passes the same literal for it, the literal replaces
+ * the parameter in the body. The parameter is then removed: the calls no longer push it, and the parameters pushed
+ * before it move down by a word.
+ * Calls that pass different literals are grouped by their literals. If the body has at most maxCloneSize statements,
+ * each group that passes a literal gets its own copy of the procedure, _P_1, _P_2 ..., specialized for its literals.
+ * Calls that pass no literal keep calling the original. Only procedures that call no procedure are copied, the
+ * copies of their calls would miss the pushes this pass removes. Procedures with a call that does not fit this
+ * pattern are left alone. Constant folding afterwards folds the literals into the body.
+ */
+public class InterproceduralConstantPass implements TacPass {
+    private int maxCloneSize;
+
+    public InterproceduralConstantPass(int maxCloneSize) {
+        this.maxCloneSize = maxCloneSize;
+    }
+
+    @Override
+    public String getName() {
+        return "ipcp";
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        int before = program.size();
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        LinkedHashMap<String, TacProcedure> byName = new LinkedHashMap<>();
+        for(TacProcedure procedure : procedures)
+            byName.put(procedure.name, procedure);
+
+        // callee -> its calls, the pushes of the arguments and the call
+        HashMap<String, ArrayList<List<TacInstruction>>> calls = new HashMap<>();
+        // callees with a call that is not a push per parameter followed by call
+        HashSet<String> irregular = new HashSet<>();
+        for(TacProcedure caller : procedures) {
+            for(int i = 0; i < caller.body.size(); i++) {
+                TacInstruction instruction = caller.body.get(i);
+                TacProcedure callee = instruction.opcode == ETacOpcode.call ? byName.get(instruction.operand1) : null;
+                if(callee == null)
+                    continue;
+                List<TacInstruction> call = call(callee, caller.body, i);
+                if(call == null)
+                    irregular.add(callee.name);
+                else
+                    calls.computeIfAbsent(callee.name, k -> new ArrayList<>()).add(call);
+            }
+        }
+
+        int propagated = 0;
+        int clones = 0;
+        int removedPushes = 0;
+        HashSet<TacInstruction> removed = new HashSet<>();
+        ArrayList<TacProcedure> added = new ArrayList<>();
+        for(TacProcedure callee : procedures) {
+            ArrayList<List<TacInstruction>> calleeCalls = calls.get(callee.name);
+            if(calleeCalls == null || irregular.contains(callee.name))
+                continue;
+            List<Integer> candidates = candidates(callee);
+            if(candidates.isEmpty())
+                continue;
+
+            // calls grouped by the literals they pass to the candidates, null where a call passes something else
+            LinkedHashMap<List<String>, ArrayList<List<TacInstruction>>> groups = new LinkedHashMap<>();
+            for(List<TacInstruction> call : calleeCalls) {
+                ArrayList<String> key = new ArrayList<>();
+                for(int parameter : candidates)
+                    key.add(literal(program, call.get(parameter).operand1));
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(call);
+            }
+
+            if(groups.size() == 1) {
+                List<String> key = groups.keySet().iterator().next();
+                int count = specialize(callee, candidates, key, calleeCalls, removed);
+                propagated += count;
+                removedPushes += count * calleeCalls.size();
+                continue;
+            }
+            if(callee.body.size() > maxCloneSize || callsProcedure(callee))
+                continue;
+            for(List<String> key : groups.keySet()) {
+                if(key.stream().allMatch(value -> value == null))
+                    continue;
+                TacProcedure clone = clone(program, callee);
+                ArrayList<List<TacInstruction>> groupCalls = groups.get(key);
+                for(List<TacInstruction> call : groupCalls)
+                    call.get(call.size() - 1).operand1 = clone.name;
+                int count = specialize(clone, candidates, key, groupCalls, removed);
+                propagated += count;
+                removedPushes += count * groupCalls.size();
+                added.add(clone);
+                clones++;
+            }
+        }
+
+        for(TacProcedure procedure : procedures)
+            procedure.body.removeIf(removed::contains);
+        procedures.addAll(added);
+        program.setProcedures(procedures);
+
+        report.add(getName() + ": " + before + " -> " + program.size() + " TAC instructions, " + propagated + " parameters replaced by a constant, " +
+                clones + " specialized clones, " + removedPushes + " pushes removed");
+    }
+
+    /**
+     * The pushes of a call of callee followed by the call, or null if the call does not have a push for every
+     * parameter, with an address for exactly the reference parameters.
+     */
+    private static List<TacInstruction> call(TacProcedure callee, ArrayList<TacInstruction> body, int call) {
+        if(callee.function == null)
+            return null;
+        Symbol.FunctionAttributes attributes = callee.function.functionAttributes;
+        int parameters = attributes.numberOfParameter;
+        if(attributes.sizeOfParameters != 2 * parameters || attributes.parameterModeList.size() != parameters || call < parameters)
+            return null;
+        for(EVariableType type : attributes.parameterTypeList) {
+            if(type != EVariableType.integerType)
+                return null;
+        }
+        ArrayList<TacInstruction> instructions = new ArrayList<>(body.subList(call - parameters, call + 1));
+        for(int i = 0; i < parameters; i++) {
+            TacInstruction push = instructions.get(i);
+            boolean byReference = attributes.parameterModeList.get(i) != EParameterModeType.in;
+            if(push.opcode != ETacOpcode.push || byReference != TacInstruction.isReference(push.operand1))
+                return null;
+        }
+        return instructions;
+    }
+
+    // value of a literal or CONSTANT argument, null for any other argument
+    private static String literal(TacProgram program, String argument) {
+        if(TacInstruction.isLiteral(argument))
+            return argument;
+        Symbol constant = program.symbolTable.lookup(argument, ESymbolType.constant);
+        return constant == null || !TacInstruction.isLiteral(constant.getConstantValue()) ? null : constant.getConstantValue();
+    }
+
+    // in parameters the body only reads, by index
+    private static List<Integer> candidates(TacProcedure procedure) {
+        Symbol.FunctionAttributes attributes = procedure.function.functionAttributes;
+        HashSet<String> excluded = new HashSet<>();
+        for(TacInstruction instruction : procedure.body) {
+            if(instruction.getDefinition() != null)
+                excluded.add(instruction.getDefinition());
+            for(String operand : new String[]{instruction.result, instruction.operand1, instruction.operand2}) {
+                if(TacInstruction.isReference(operand))
+                    excluded.add(operand.substring(1));
+            }
+        }
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for(int i = 0; i < attributes.numberOfParameter; i++) {
+            if(attributes.parameterModeList.get(i) == EParameterModeType.in && !excluded.contains(parameter(attributes.numberOfParameter, i)))
+                candidates.add(i);
+        }
+        return candidates;
+    }
+
+    // operand of parameter index, the last parameter is at bp+4 and the first one at the highest offset
+    private static String parameter(int parameters, int index) {
+        return "_bp+" + (4 + 2 * (parameters - 1 - index));
+    }
+
+    /**
+     * Replaces the candidates with a literal in key by the literal and removes them from the parameters of procedure
+     * and from its calls.
+     * @return the number of parameters removed
+     */
+    private static int specialize(TacProcedure procedure, List<Integer> candidates, List<String> key,
+                                  List<List<TacInstruction>> calls, HashSet<TacInstruction> removed) {
+        Symbol.FunctionAttributes attributes = procedure.function.functionAttributes;
+        int parameters = attributes.numberOfParameter;
+        HashMap<String, String> renames = new HashMap<>();
+        boolean[] constant = new boolean[parameters];
+        for(int i = 0; i < candidates.size(); i++) {
+            if(key.get(i) != null) {
+                constant[candidates.get(i)] = true;
+                renames.put(parameter(parameters, candidates.get(i)), key.get(i));
+            }
+        }
+
+        int remaining = 0;
+        for(boolean isConstant : constant)
+            remaining += isConstant ? 0 : 1;
+        int index = 0;
+        for(int i = 0; i < parameters; i++) {
+            if(constant[i])
+                continue;
+            renames.put(parameter(parameters, i), parameter(remaining, index));
+            index++;
+        }
+        FrameLayout.rename(procedure, renames);
+
+        for(int i = parameters - 1; i >= 0; i--) {
+            if(!constant[i])
+                continue;
+            attributes.parameterModeList.remove(i);
+            attributes.parameterTypeList.remove(i);
+            for(List<TacInstruction> call : calls)
+                removed.add(call.get(i));
+        }
+        attributes.numberOfParameter = remaining;
+        attributes.sizeOfParameters = 2 * remaining;
+        return parameters - remaining;
+    }
+
+    // the pushes of the calls a procedure makes may lose arguments to this pass, so only procedures without calls are copied
+    private static boolean callsProcedure(TacProcedure procedure) {
+        for(TacInstruction instruction : procedure.body) {
+            if(instruction.opcode == ETacOpcode.call)
+                return true;
+        }
+        return false;
+    }
+
+    // copy of procedure under a new name, with its own function symbol
+    private static TacProcedure clone(TacProgram program, TacProcedure procedure) {
+        String name;
+        int number = 1;
+        do {
+            name = procedure.name + "_" + number++;
+        } while(program.symbolTable.lookup(name) != null);
+
+        Symbol function = program.symbolTable.insert(name, procedure.function.depth);
+        function.setSymbolType(ESymbolType.function);
+        Symbol.FunctionAttributes attributes = procedure.function.functionAttributes;
+        function.functionAttributes.sizeOfLocalVariable = attributes.sizeOfLocalVariable;
+        function.functionAttributes.sizeOfParameters = attributes.sizeOfParameters;
+        function.functionAttributes.numberOfParameter = attributes.numberOfParameter;
+        function.functionAttributes.parameterTypeList = new LinkedList<>(attributes.parameterTypeList);
+        function.functionAttributes.parameterModeList = new LinkedList<>(attributes.parameterModeList);
+
+        TacProcedure clone = new TacProcedure(name, function);
+        for(TacInstruction instruction : procedure.body)
+            clone.body.add(new TacInstruction(instruction.opcode, instruction.result, instruction.operand1, instruction.operator, instruction.operand2));
+        return clone;
+    }
+}
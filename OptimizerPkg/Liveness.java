@@ -0,0 +1,148 @@
+package OptimizerPkg;
+
+import TACx86Pkg.TacInstruction;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Live operands at the start and end of every block, as a backward union problem for DataflowSolver.
+ *
+ * Only the operands accepted by the filter are facts, usually the private operands of the procedure.
+ * The operands of a phi function are read at the end of the matching predecessor and its result is written at the
+ * start of its block, so the analysis is also right for a procedure in SSA form.
+ */
+public class Liveness implements DataflowProblem {
+    private HashMap<String, Integer> numbers = new HashMap<>();
+    private ArrayList<String> operands = new ArrayList<>();
+    private BitSet[] gen;
+    private BitSet[] kill;
+    // live operands at the start and the end of every block
+    public BitSet[] liveIn;
+    public BitSet[] liveOut;
+
+    public Liveness(ControlFlowGraph graph, Predicate<String> filter) {
+        ArrayList<String> reads = new ArrayList<>(4);
+        for(BasicBlock block : graph.blocks) {
+            for(PhiFunction phi : block.phis) {
+                number(phi.result, filter);
+                for(String operand : phi.operands)
+                    number(operand, filter);
+            }
+            for(TacInstruction instruction : block.instructions) {
+                reads.clear();
+                instruction.collectReads(reads);
+                for(String operand : reads)
+                    number(operand, filter);
+                number(instruction.getDefinition(), filter);
+            }
+        }
+
+        gen = new BitSet[graph.size()];
+        kill = new BitSet[graph.size()];
+        for(BasicBlock block : graph.blocks)
+            summarize(block);
+
+        DataflowSolver solver = new DataflowSolver(graph, this);
+        liveIn = solver.in;
+        liveOut = solver.out;
+    }
+
+    private void number(String operand, Predicate<String> filter) {
+        if(operand != null && !numbers.containsKey(operand) && filter.test(operand)) {
+            numbers.put(operand, operands.size());
+            operands.add(operand);
+        }
+    }
+
+    // gen is the set of operands read before the block writes them, kill the set the block writes
+    private void summarize(BasicBlock block) {
+        BitSet live = new BitSet(operands.size());
+        BitSet written = new BitSet(operands.size());
+        for(BasicBlock successor : block.successors) {
+            int position = successor.predecessors.indexOf(block);
+            for(PhiFunction phi : successor.phis)
+                set(live, phi.operands[position]);
+        }
+
+        ArrayList<String> reads = new ArrayList<>(4);
+        for(int i = block.instructions.size() - 1; i >= 0; i--) {
+            TacInstruction instruction = block.instructions.get(i);
+            Integer definition = number(instruction.getDefinition());
+            if(definition != null) {
+                live.clear(definition);
+                written.set(definition);
+            }
+            reads.clear();
+            instruction.collectReads(reads);
+            for(String operand : reads)
+                set(live, operand);
+        }
+        for(PhiFunction phi : block.phis) {
+            Integer result = number(phi.result);
+            if(result != null) {
+                live.clear(result);
+                written.set(result);
+            }
+        }
+        gen[block.index] = live;
+        kill[block.index] = written;
+    }
+
+    private void set(BitSet set, String operand) {
+        Integer number = number(operand);
+        if(number != null)
+            set.set(number);
+    }
+
+    // number of an operand, or null if it is not a fact of the problem
+    public Integer number(String operand) {
+        return operand == null ? null : numbers.get(operand);
+    }
+
+    public String operand(int number) {
+        return operands.get(number);
+    }
+
+    // operands live at the end of block, in the order of their numbers
+    public List<String> liveAtEnd(BasicBlock block) {
+        ArrayList<String> live = new ArrayList<>();
+        BitSet set = liveOut[block.index];
+        for(int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1))
+            live.add(operands.get(i));
+        return live;
+    }
+
+    @Override
+    public boolean isForward() {
+        return false;
+    }
+
+    @Override
+    public boolean isUnion() {
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return operands.size();
+    }
+
+    @Override
+    public BitSet boundary() {
+        return new BitSet(operands.size());
+    }
+
+    @Override
+    public BitSet gen(BasicBlock block) {
+        return gen[block.index];
+    }
+
+    @Override
+    public BitSet kill(BasicBlock block) {
+        return kill[block.index];
+    }
+}
@@ -0,0 +1,133 @@
+package OptimizerPkg;
+
+import SymbolTablePkg.ESymbolType;
+import SymbolTablePkg.Symbol;
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProcedure;
+import TACx86Pkg.TacProgram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the output put and putln know at compile time with one call.
+ *
+ * Every item of put and putln is its own wrs, wri or wrln, and each of them calls writestr, writeint or writeln.
+ * A run of items that are all known, strings, integer literals (CONSTANTs are literals after const-fold) and new
+ * lines, becomes one wrs of a new string with their characters: writeint prints the word as an unsigned number,
+ * so a literal below zero is written as writeint would print it, and a new line is 13, 10 like writeln.
+ * Statements without output and without a fault, copies and every operator but /, REM and MOD, may sit between
+ * the items, the string is written in place of the first one. A run is folded when it has more than one item or
+ * an integer literal, whose digits writeint would compute at run time. A string with a "$" ends the run, since
+ * writestr stops at the "$" and would drop whatever follows it.
+ * The strings that are no longer written are left to global-dce, string-pool shares the new ones with the others.
+ */
+public class OutputFoldingPass implements TacPass {
+
+    @Override
+    public String getName() {
+        return "output-fold";
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        int before = program.size();
+        int nextString = nextStringNumber(program);
+        int callsBefore = 0;
+        int callsAfter = 0;
+        int folded = 0;
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        for(TacProcedure procedure : procedures) {
+            ArrayList<TacInstruction> body = new ArrayList<>(procedure.body.size());
+            // positions in body of the items of the current run and their characters
+            ArrayList<Integer> items = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            boolean literal = false;
+            for(int i = 0; i <= procedure.body.size(); i++) {
+                TacInstruction instruction = i < procedure.body.size() ? procedure.body.get(i) : null;
+                String characters = instruction == null ? null : characters(instruction, program);
+                if(characters != null) {
+                    items.add(body.size());
+                    text.append(characters);
+                    literal |= instruction.opcode == ETacOpcode.wri;
+                } else if(instruction == null || isOutput(instruction) || !isPure(instruction)) {
+                    if(items.size() > 1 || literal) {
+                        String lexeme = "_s" + nextString++;
+                        Symbol string = program.symbolTable.insert(lexeme, 1);
+                        string.setSymbolType(ESymbolType.string);
+                        string.stringAttributes.setValue(text.toString());
+                        for(int item = items.size() - 1; item > 0; item--)
+                            body.remove((int) items.get(item));
+                        body.set(items.get(0), new TacInstruction(ETacOpcode.wrs, null, lexeme, null, null));
+                        callsBefore += items.size();
+                        callsAfter++;
+                        folded++;
+                    }
+                    items.clear();
+                    text.setLength(0);
+                    literal = false;
+                }
+                if(instruction != null)
+                    body.add(instruction);
+            }
+            procedure.body = body;
+        }
+        program.setProcedures(procedures);
+
+        report.add(getName() + ": " + before + " -> " + program.size() + " TAC instructions, " + folded +
+                " runs of known output written as one string, output calls " + callsBefore + " -> " + callsAfter);
+    }
+
+    // characters instruction writes if they are known at compile time, otherwise null
+    private static String characters(TacInstruction instruction, TacProgram program) {
+        switch (instruction.opcode) {
+            case wrln:
+                return "\r\n";
+            case wri:
+                if(!TacInstruction.isLiteral(instruction.operand1))
+                    return null;
+                return Integer.toString(TacInstruction.literalValue(instruction.operand1) & 0xFFFF);
+            case wrs: {
+                Symbol symbol = program.symbolTable.lookup(instruction.operand1, ESymbolType.string);
+                if(symbol == null || symbol.stringAttributes.value == null || symbol.stringAttributes.value.indexOf('$') >= 0)
+                    return null;
+                return symbol.stringAttributes.value;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isOutput(TacInstruction instruction) {
+        return instruction.opcode == ETacOpcode.wrs || instruction.opcode == ETacOpcode.wri || instruction.opcode == ETacOpcode.wrln;
+    }
+
+    // true if instruction writes nothing, reads no input and can not fault
+    private static boolean isPure(TacInstruction instruction) {
+        switch (instruction.opcode) {
+            case copy:
+            case neg:
+                return true;
+            case binary:
+                return !instruction.operator.equals("/") && !instruction.operator.equals("MOD") && !instruction.operator.equals("REM");
+            default:
+                return false;
+        }
+    }
+
+    // the N of the next _sN, after every string of the parser and of earlier passes
+    private static int nextStringNumber(TacProgram program) {
+        int next = 0;
+        for(Symbol symbol : program.symbolTable.lookup(1)) {
+            if(symbol.getSymbolType() != ESymbolType.string || !symbol.lexeme.startsWith("_s"))
+                continue;
+            try {
+                next = Math.max(next, Integer.parseInt(symbol.lexeme.substring(2)) + 1);
+            } catch (NumberFormatException e) {
+                // not a string of the parser
+            }
+        }
+        return next;
+    }
+}
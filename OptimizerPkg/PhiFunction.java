@@ -0,0 +1,25 @@
+package OptimizerPkg;
+
+/**
+ * result = phi(operands) at the start of a basic block of a procedure in SSA form.
+ * operands[i] is the value that arrives from the i-th predecessor of the block.
+ */
+public class PhiFunction {
+    // the operand of the TAC that result is a version of
+    public String base;
+    public String result;
+    public String[] operands;
+
+    public PhiFunction(String base, int predecessors) {
+        this.base = base;
+        this.result = base;
+        this.operands = new String[predecessors];
+        for(int i = 0; i < predecessors; i++)
+            operands[i] = base;
+    }
+
+    @Override
+    public String toString() {
+        return result + " = phi(" + String.join(", ", operands) + ")";
+    }
+}
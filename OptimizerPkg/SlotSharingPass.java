@@ -0,0 +1,100 @@
+package OptimizerPkg;
+
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.LiveInterval;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProcedure;
+import TACx86Pkg.TacProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Lets local variables and temporaries whose values are never needed at the same time share one word.
+ *
+ * The body of a procedure has no jumps, so the live range of an operand is an interval (see LiveInterval).
+ * The intervals are coloured with a linear scan: an operand takes over the word of an operand whose last read
+ * is at or before its own first assignment, the templates read every operand before they store the result.
+ * Frame slots share frame slots and global temporaries of the start procedure share global temporaries,
+ * then the frame is compacted and the global temporaries that are no longer used are removed.
+ * Copies that became x = x are removed.
+ */
+public class SlotSharingPass implements TacPass {
+
+    @Override
+    public String getName() {
+        return "slot-share";
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        int frameBefore = 0;
+        int frameAfter = 0;
+        int temporariesBefore = 0;
+        int temporariesAfter = 0;
+
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        for(TacProcedure procedure : procedures) {
+            frameBefore += FrameLayout.frameSize(procedure);
+
+            ArrayList<LiveInterval> slots = new ArrayList<>();
+            ArrayList<LiveInterval> temporaries = new ArrayList<>();
+            for(LiveInterval interval : LiveInterval.compute(procedure.body).values()) {
+                if(TacInstruction.isFrameSlot(interval.operand))
+                    slots.add(interval);
+                else
+                    temporaries.add(interval);
+            }
+            temporariesBefore += temporaries.size();
+
+            HashMap<String, String> renames = new HashMap<>();
+            share(slots, renames);
+            temporariesAfter += share(temporaries, renames);
+            FrameLayout.rename(procedure, renames);
+            // a copy between two operands that now share a word does nothing
+            procedure.body.removeIf(instruction -> instruction.opcode == ETacOpcode.copy && instruction.result.equals(instruction.operand1));
+
+            frameAfter += FrameLayout.compact(procedure);
+        }
+        program.setProcedures(procedures);
+        FrameLayout.removeUnusedTemporaries(program);
+
+        report.add(getName() + ": frames " + frameBefore + " -> " + frameAfter + " bytes, global temporaries " +
+                temporariesBefore + " -> " + temporariesAfter);
+    }
+
+    /**
+     * Linear scan over the intervals sorted by start. Every interval takes the word of an interval that already ended,
+     * or a new word if none has, and is renamed to the first operand that used that word.
+     * @return the number of words used
+     */
+    private static int share(ArrayList<LiveInterval> intervals, HashMap<String, String> renames) {
+        intervals.sort((a, b) -> a.start != b.start ? Integer.compare(a.start, b.start) : Integer.compare(a.end, b.end));
+
+        // intervals holding a word, the one that ends first on top
+        PriorityQueue<LiveInterval> active = new PriorityQueue<>((a, b) -> Integer.compare(a.end, b.end));
+        ArrayList<String> free = new ArrayList<>();
+        HashMap<LiveInterval, String> word = new HashMap<>();
+        int words = 0;
+
+        for(LiveInterval interval : intervals) {
+            while(!active.isEmpty() && active.peek().end <= interval.start && interval.start >= 0)
+                free.add(word.get(active.poll()));
+
+            String name;
+            if(free.isEmpty()) {
+                name = interval.operand;
+                words++;
+            } else {
+                name = free.remove(free.size() - 1);
+            }
+            word.put(interval, name);
+            active.add(interval);
+            if(!name.equals(interval.operand))
+                renames.put(interval.operand, name);
+        }
+        return words;
+    }
+}
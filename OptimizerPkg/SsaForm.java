@@ -0,0 +1,313 @@
+package OptimizerPkg;
+
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static single assignment form of the private operands of one procedure.
+ *
+ * construct places phi functions at the iterated dominance frontiers of the blocks that assign an operand, but only
+ * where the operand is live (pruned SSA), and renames every assignment to a new version, _bp-2#1, _bp-2#2 ...,
+ * in a walk over the dominator tree. A read before any assignment keeps the plain name, it is the value the
+ * procedure starts with. Operands whose address is passed to a procedure (push @x) stay as they are.
+ *
+ * destroy replaces every phi function by copies at the end of its predecessors, as parallel copies that are
+ * ordered so no copy overwrites a value another one still reads. Versions of an operand that are never live at the
+ * same time get the operand's name back. If two versions interfere, because a pass moved code, every version
+ * except the plain name gets a new frame slot.
+ * The TAC has no branches, so no edge is critical and copies at the end of a predecessor only run on the edge
+ * to the phi's block.
+ */
+public class SsaForm {
+    private static final char VERSION = '#';
+
+    private ControlFlowGraph graph;
+    private DominatorTree dominators;
+    // operands in SSA form
+    private HashSet<String> bases = new HashSet<>();
+    private HashMap<String, Integer> versions = new HashMap<>();
+    public int phiCount;
+    public int versionCount;
+    // number of operands destroy had to give new frame slots
+    public int splitOperands;
+
+    private SsaForm(ControlFlowGraph graph) {
+        this.graph = graph;
+    }
+
+    public static SsaForm construct(ControlFlowGraph graph) {
+        SsaForm ssa = new SsaForm(graph);
+        ssa.dominators = new DominatorTree(graph);
+        ssa.findBases();
+        ssa.placePhis();
+        ssa.rename();
+        return ssa;
+    }
+
+    public DominatorTree getDominators() {
+        return dominators;
+    }
+
+    // name of the operand version is a version of, the name itself for any other operand
+    public static String baseOf(String operand) {
+        if(operand == null)
+            return null;
+        int version = operand.indexOf(VERSION);
+        return version < 0 ? operand : operand.substring(0, version);
+    }
+
+    private void findBases() {
+        HashSet<String> addressTaken = new HashSet<>();
+        for(BasicBlock block : graph.blocks) {
+            for(TacInstruction instruction : block.instructions) {
+                String definition = instruction.getDefinition();
+                if(TacInstruction.isPrivate(definition))
+                    bases.add(definition);
+                if(instruction.opcode == ETacOpcode.push && TacInstruction.isReference(instruction.operand1))
+                    addressTaken.add(instruction.operand1.substring(1));
+            }
+        }
+        bases.removeAll(addressTaken);
+    }
+
+    private void placePhis() {
+        Liveness liveness = new Liveness(graph, bases::contains);
+        HashMap<String, ArrayList<BasicBlock>> definitions = new HashMap<>();
+        for(BasicBlock block : graph.blocks) {
+            for(TacInstruction instruction : block.instructions) {
+                String definition = instruction.getDefinition();
+                if(bases.contains(definition)) {
+                    ArrayList<BasicBlock> blocks = definitions.computeIfAbsent(definition, k -> new ArrayList<>());
+                    if(blocks.isEmpty() || blocks.get(blocks.size() - 1) != block)
+                        blocks.add(block);
+                }
+            }
+        }
+
+        int[] hasPhi = new int[graph.size()];
+        int[] inWorklist = new int[graph.size()];
+        int round = 0;
+        for(Map.Entry<String, ArrayList<BasicBlock>> entry : definitions.entrySet()) {
+            // round numbers the operands, so the marks need no clearing between them
+            round++;
+            String base = entry.getKey();
+            Integer number = liveness.number(base);
+            ArrayDeque<BasicBlock> worklist = new ArrayDeque<>(entry.getValue());
+            for(BasicBlock block : worklist)
+                inWorklist[block.index] = round;
+            while(!worklist.isEmpty()) {
+                BasicBlock block = worklist.poll();
+                for(BasicBlock frontier : dominators.getFrontier(block)) {
+                    if(hasPhi[frontier.index] == round || number == null || !liveness.liveIn[frontier.index].get(number))
+                        continue;
+                    hasPhi[frontier.index] = round;
+                    frontier.phis.add(new PhiFunction(base, frontier.predecessors.size()));
+                    phiCount++;
+                    if(inWorklist[frontier.index] != round) {
+                        inWorklist[frontier.index] = round;
+                        worklist.add(frontier);
+                    }
+                }
+            }
+        }
+    }
+
+    // walks the dominator tree with an explicit stack, so a procedure with many calls does not overflow the Java stack
+    private void rename() {
+        HashMap<String, ArrayDeque<String>> current = new HashMap<>();
+        for(String base : bases)
+            current.put(base, new ArrayDeque<>());
+
+        // a block is pushed once to be renamed and once more to pop the versions it created
+        ArrayDeque<BasicBlock> stack = new ArrayDeque<>();
+        ArrayDeque<ArrayList<String>> created = new ArrayDeque<>();
+        stack.push(graph.entry);
+        HashSet<BasicBlock> renamed = new HashSet<>();
+        while(!stack.isEmpty()) {
+            BasicBlock block = stack.pop();
+            if(renamed.contains(block)) {
+                for(String base : created.pop())
+                    current.get(base).pop();
+                continue;
+            }
+            renamed.add(block);
+
+            ArrayList<String> pushed = new ArrayList<>();
+            for(PhiFunction phi : block.phis) {
+                phi.result = newVersion(phi.base);
+                current.get(phi.base).push(phi.result);
+                pushed.add(phi.base);
+            }
+            for(TacInstruction instruction : block.instructions) {
+                if(instruction.opcode != ETacOpcode.push || !TacInstruction.isReference(instruction.operand1))
+                    instruction.operand1 = renameRead(instruction.operand1, current);
+                instruction.operand2 = renameRead(instruction.operand2, current);
+                if(TacInstruction.isReference(instruction.result)) {
+                    instruction.result = renameRead(instruction.result, current);
+                } else if(bases.contains(instruction.getDefinition())) {
+                    String base = instruction.result;
+                    instruction.result = newVersion(base);
+                    current.get(base).push(instruction.result);
+                    pushed.add(base);
+                }
+            }
+            for(BasicBlock successor : block.successors) {
+                int position = successor.predecessors.indexOf(block);
+                for(PhiFunction phi : successor.phis)
+                    phi.operands[position] = top(phi.base, current);
+            }
+
+            stack.push(block);
+            created.push(pushed);
+            List<BasicBlock> children = dominators.getChildren(block);
+            for(int i = children.size() - 1; i >= 0; i--)
+                stack.push(children.get(i));
+        }
+    }
+
+    private String renameRead(String operand, HashMap<String, ArrayDeque<String>> current) {
+        if(operand == null)
+            return null;
+        if(TacInstruction.isReference(operand)) {
+            String pointer = operand.substring(1);
+            return bases.contains(pointer) ? "@" + top(pointer, current) : operand;
+        }
+        return bases.contains(operand) ? top(operand, current) : operand;
+    }
+
+    private static String top(String base, HashMap<String, ArrayDeque<String>> current) {
+        String version = current.get(base).peek();
+        return version == null ? base : version;
+    }
+
+    private String newVersion(String base) {
+        int version = versions.merge(base, 1, Integer::sum);
+        versionCount++;
+        return base + VERSION + version;
+    }
+
+    public void destroy() {
+        for(BasicBlock block : graph.blocks) {
+            if(block.phis.isEmpty())
+                continue;
+            for(int i = 0; i < block.predecessors.size(); i++) {
+                BasicBlock predecessor = block.predecessors.get(i);
+                if(predecessor.successors.size() > 1)
+                    throw new IllegalStateException("Critical edge " + predecessor + " -> " + block + " in SSA form of " + graph.procedure.name);
+                ArrayList<String[]> copies = new ArrayList<>();
+                for(PhiFunction phi : block.phis)
+                    copies.add(new String[]{phi.result, phi.operands[i]});
+                predecessor.instructions.addAll(sequentialize(copies));
+            }
+            block.phis.clear();
+        }
+
+        HashSet<String> interfering = findInterference();
+        HashMap<String, String> renames = new HashMap<>();
+        int frameSize = FrameLayout.frameSize(graph.procedure);
+        for(BasicBlock block : graph.blocks) {
+            for(TacInstruction instruction : block.instructions) {
+                for(String operand : new String[]{instruction.result, instruction.operand1, instruction.operand2}) {
+                    String name = operand != null && TacInstruction.isReference(operand) ? operand.substring(1) : operand;
+                    if(name == null || name.indexOf(VERSION) < 0 || renames.containsKey(name))
+                        continue;
+                    String base = baseOf(name);
+                    if(interfering.contains(base)) {
+                        frameSize += 2;
+                        renames.put(name, "_bp-" + frameSize);
+                    } else {
+                        renames.put(name, base);
+                    }
+                }
+            }
+        }
+        splitOperands = interfering.size();
+        if(graph.procedure.function != null)
+            graph.procedure.function.functionAttributes.sizeOfLocalVariable = frameSize;
+
+        graph.writeBack();
+        FrameLayout.rename(graph.procedure, renames);
+        graph.procedure.body.removeIf(instruction -> instruction.opcode == ETacOpcode.copy && instruction.result.equals(instruction.operand1));
+        for(BasicBlock block : graph.blocks)
+            block.instructions.removeIf(instruction -> instruction.opcode == ETacOpcode.copy && instruction.result.equals(instruction.operand1));
+    }
+
+    /**
+     * Orders the parallel copies destination = source so that every source is read before it is overwritten.
+     * A cycle such as a = b, b = a is broken with a new version that holds one of the values.
+     */
+    private List<TacInstruction> sequentialize(ArrayList<String[]> copies) {
+        ArrayList<TacInstruction> sequence = new ArrayList<>();
+        copies.removeIf(copy -> copy[0].equals(copy[1]));
+        while(!copies.isEmpty()) {
+            boolean emitted = false;
+            for(Iterator<String[]> iterator = copies.iterator(); iterator.hasNext(); ) {
+                String[] copy = iterator.next();
+                if(!isSource(copy[0], copies)) {
+                    sequence.add(TacInstruction.copy(copy[0], copy[1]));
+                    iterator.remove();
+                    emitted = true;
+                }
+            }
+            if(!emitted) {
+                String destination = copies.get(0)[0];
+                String saved = newVersion(baseOf(destination));
+                sequence.add(TacInstruction.copy(saved, destination));
+                for(String[] copy : copies) {
+                    if(copy[1].equals(destination))
+                        copy[1] = saved;
+                }
+            }
+        }
+        return sequence;
+    }
+
+    private static boolean isSource(String operand, List<String[]> copies) {
+        for(String[] copy : copies) {
+            if(copy[1].equals(operand))
+                return true;
+        }
+        return false;
+    }
+
+    // operands with two versions that are live at the same time, found at the assignments of the versions
+    private HashSet<String> findInterference() {
+        Liveness liveness = new Liveness(graph, operand -> bases.contains(baseOf(operand)));
+        HashSet<String> interfering = new HashSet<>();
+        ArrayList<String> reads = new ArrayList<>(4);
+        for(BasicBlock block : graph.blocks) {
+            BitSet live = (BitSet) liveness.liveOut[block.index].clone();
+            for(int i = block.instructions.size() - 1; i >= 0; i--) {
+                TacInstruction instruction = block.instructions.get(i);
+                Integer definition = liveness.number(instruction.getDefinition());
+                if(definition != null) {
+                    String base = baseOf(liveness.operand(definition));
+                    for(int other = live.nextSetBit(0); other >= 0; other = live.nextSetBit(other + 1)) {
+                        // the source of a copy may share the destination's place, its value is the same
+                        boolean copySource = instruction.opcode == ETacOpcode.copy && liveness.operand(other).equals(instruction.operand1);
+                        if(other != definition && !copySource && baseOf(liveness.operand(other)).equals(base))
+                            interfering.add(base);
+                    }
+                    live.clear(definition);
+                }
+                reads.clear();
+                instruction.collectReads(reads);
+                for(String operand : reads) {
+                    Integer number = liveness.number(operand);
+                    if(number != null)
+                        live.set(number);
+                }
+            }
+        }
+        return interfering;
+    }
+}
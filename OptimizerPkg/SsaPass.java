@@ -0,0 +1,45 @@
+package OptimizerPkg;
+
+import TACx86Pkg.TacProcedure;
+import TACx86Pkg.TacProgram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the control flow graph, the dominator tree and the SSA form of every procedure and translates the
+ * procedure back, so the infrastructure runs on every program it is enabled for.
+ * Passes that work on SSA form go between SsaForm.construct and SsaForm.destroy.
+ */
+public class SsaPass implements TacPass {
+
+    @Override
+    public String getName() {
+        return "ssa";
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        long start = System.nanoTime();
+        int blocks = 0;
+        int phis = 0;
+        int versions = 0;
+        int split = 0;
+
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        for(TacProcedure procedure : procedures) {
+            ControlFlowGraph graph = ControlFlowGraph.build(procedure);
+            SsaForm ssa = SsaForm.construct(graph);
+            ssa.destroy();
+
+            blocks += graph.size();
+            phis += ssa.phiCount;
+            versions += ssa.versionCount;
+            split += ssa.splitOperands;
+        }
+        program.setProcedures(procedures);
+
+        report.add(getName() + ": " + procedures.size() + " procedures, " + blocks + " basic blocks, " + phis + " phi functions, " +
+                versions + " versions, " + split + " operands split, " + (System.nanoTime() - start) / 1000 + " us");
+    }
+}
@@ -0,0 +1,109 @@
+package OptimizerPkg;
+
+import SymbolTablePkg.ESymbolType;
+import SymbolTablePkg.Symbol;
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Stores every distinct string of the program once.
+ *
+ * Strings with the same characters share one db directive. A string that is the end of a longer one,
+ * such as "World" of "Hello World", points into the longer string: writestr prints up to the "$" both share.
+ * wrs operands are rewritten to the string that stays, plus an offset for a suffix (wrs _s0+6),
+ * and the strings that are no longer used are removed from the symbol table.
+ */
+public class StringPoolPass implements TacPass {
+
+    @Override
+    public String getName() {
+        return "string-pool";
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        ArrayList<Symbol> strings = new ArrayList<>();
+        int dataBefore = 0;
+        for(Symbol symbol : program.symbolTable.lookup(1)) {
+            dataBefore += dataSize(symbol);
+            if(symbol.getSymbolType() == ESymbolType.string && symbol.stringAttributes.value != null)
+                strings.add(symbol);
+        }
+        // the first string of the program keeps its name, longer strings are placed first so suffixes find them
+        strings.sort((a, b) -> Integer.compare(number(a), number(b)));
+        ArrayList<Symbol> byLength = new ArrayList<>(strings);
+        byLength.sort((a, b) -> Integer.compare(b.stringAttributes.value.length(), a.stringAttributes.value.length()));
+
+        HashMap<String, String> locations = new HashMap<>(); // string symbol -> operand of its characters
+        ArrayList<Symbol> placed = new ArrayList<>();
+        HashMap<String, Symbol> byValue = new HashMap<>();
+        for(Symbol symbol : strings)
+            byValue.putIfAbsent(symbol.stringAttributes.value, symbol);
+
+        int duplicates = 0;
+        int suffixes = 0;
+        for(Symbol symbol : byLength) {
+            String value = symbol.stringAttributes.value;
+            Symbol first = byValue.get(value);
+            if(first != symbol) {
+                duplicates++;
+                continue;
+            }
+            Symbol host = null;
+            for(Symbol candidate : placed) {
+                if(candidate.stringAttributes.value.endsWith(value)) {
+                    host = candidate;
+                    break;
+                }
+            }
+            if(host == null) {
+                placed.add(symbol);
+                locations.put(symbol.lexeme, symbol.lexeme);
+            } else {
+                suffixes++;
+                int offset = host.stringAttributes.value.length() - value.length();
+                locations.put(symbol.lexeme, host.lexeme + "+" + offset);
+            }
+        }
+        for(Symbol symbol : strings)
+            locations.put(symbol.lexeme, locations.get(byValue.get(symbol.stringAttributes.value).lexeme));
+
+        for(TacInstruction instruction : program.instructions) {
+            if(instruction.opcode == ETacOpcode.wrs && locations.containsKey(instruction.operand1))
+                instruction.operand1 = locations.get(instruction.operand1);
+        }
+        for(Symbol symbol : strings) {
+            if(!placed.contains(symbol))
+                program.symbolTable.remove(symbol);
+        }
+
+        int dataAfter = 0;
+        for(Symbol symbol : program.symbolTable.lookup(1))
+            dataAfter += dataSize(symbol);
+        report.add(getName() + ": " + strings.size() + " -> " + placed.size() + " strings, " + duplicates + " duplicates, " +
+                suffixes + " suffixes of other strings, data segment " + dataBefore + " -> " + dataAfter + " bytes");
+    }
+
+    // bytes the translator reserves for a global symbol, every variable and constant is a word
+    static int dataSize(Symbol symbol) {
+        if(symbol.getSymbolType() == ESymbolType.function)
+            return 0;
+        if(symbol.getSymbolType() == ESymbolType.string)
+            return symbol.stringAttributes.value == null ? 0 : symbol.stringAttributes.value.length() + 1;
+        return 2;
+    }
+
+    // N of _sN, strings made by passes come after the ones of the parser
+    private static int number(Symbol symbol) {
+        try {
+            return Integer.parseInt(symbol.lexeme.substring(2));
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+}
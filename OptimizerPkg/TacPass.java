@@ -0,0 +1,17 @@
+package OptimizerPkg;
+
+import TACx86Pkg.TacProgram;
+
+import java.util.List;
+
+/**
+ * An optimization pass over the Three Address Code of a whole program.
+ * A new instance is created for every compilation, so a pass may keep state in fields.
+ */
+public interface TacPass {
+    // name of the pass in CompilerOptions and in the -f<name> option of adac
+    String getName();
+
+    // changes the program in place, and adds a summary of what it did to report
+    void run(TacProgram program, List<String> report);
+}
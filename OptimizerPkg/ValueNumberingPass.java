@@ -0,0 +1,188 @@
+package OptimizerPkg;
+
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProcedure;
+import TACx86Pkg.TacProgram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Local value numbering.
+ *
+ * The body of a procedure is one basic block. Every operand gets the number of the value it holds, equal numbers
+ * mean equal values. An expression is identified by its operator and the numbers of its operands, with the operands
+ * of + and * in a fixed order. When an expression was computed before and an operand still holds its value,
+ * the instruction becomes a copy of that operand.
+ * A store through an out parameter, an rdi into one and a call can change any global variable, so they give new
+ * numbers to globals and to @ operands; a store to a global gives new numbers to @ operands. A call also gives new
+ * numbers to the locals whose address the procedure pushes.
+ */
+public class ValueNumberingPass implements TacPass {
+    // operand -> value number
+    private HashMap<String, Integer> numbers = new HashMap<>();
+    // literal -> value number
+    private HashMap<Integer, Integer> literals = new HashMap<>();
+    // expression -> value number
+    private HashMap<String, Integer> expressions = new HashMap<>();
+    // value number -> operands that were assigned the value
+    private HashMap<Integer, ArrayList<String>> holders = new HashMap<>();
+    // locals whose address the procedure passes to a callee
+    private HashSet<String> passed = new HashSet<>();
+    private int nextNumber;
+
+    @Override
+    public String getName() {
+        return "lvn";
+    }
+
+    @Override
+    public void run(TacProgram program, List<String> report) {
+        int before = program.size();
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        StringBuilder perProcedure = new StringBuilder();
+        int total = 0;
+
+        for(TacProcedure procedure : procedures) {
+            int eliminated = numberValues(procedure.body);
+            total += eliminated;
+            perProcedure.append(perProcedure.length() == 0 ? "" : ", ").append(procedure.name).append(" ").append(eliminated);
+        }
+        program.setProcedures(procedures);
+
+        report.add(getName() + ": " + before + " -> " + program.size() + " TAC instructions, " + total + " redundant expressions eliminated");
+        report.add(getName() + ": " + perProcedure);
+    }
+
+    private int numberValues(ArrayList<TacInstruction> body) {
+        numbers.clear();
+        literals.clear();
+        expressions.clear();
+        holders.clear();
+        passed = TacInstruction.addressesPassed(body);
+        int eliminated = 0;
+
+        Iterator<TacInstruction> iterator = body.iterator();
+        while(iterator.hasNext()) {
+            TacInstruction instruction = iterator.next();
+            switch (instruction.opcode) {
+                case call:
+                    forgetGlobals();
+                    numbers.keySet().removeAll(passed);
+                    break;
+                case rdi:
+                    define(instruction.result, newNumber());
+                    break;
+                case copy:
+                    define(instruction.result, number(instruction.operand1));
+                    break;
+                case neg:
+                case binary: {
+                    String expression = expression(instruction);
+                    Integer value = expressions.get(expression);
+                    String holder = value == null ? null : holder(value);
+                    if(holder == null) {
+                        value = newNumber();
+                        expressions.put(expression, value);
+                        define(instruction.result, value);
+                        break;
+                    }
+
+                    eliminated++;
+                    if(holder.equals(instruction.result)) {
+                        iterator.remove();
+                        break;
+                    }
+                    instruction.opcode = ETacOpcode.copy;
+                    instruction.operand1 = holder;
+                    instruction.operator = null;
+                    instruction.operand2 = null;
+                    define(instruction.result, value);
+                    break;
+                }
+            }
+        }
+        return eliminated;
+    }
+
+    private String expression(TacInstruction instruction) {
+        int x = number(instruction.operand1);
+        if(instruction.opcode == ETacOpcode.neg)
+            return "neg " + x;
+        int y = number(instruction.operand2);
+        if((instruction.operator.equals("+") || instruction.operator.equals("*")) && y < x) {
+            int swap = x;
+            x = y;
+            y = swap;
+        }
+        return x + " " + instruction.operator + " " + y;
+    }
+
+    private int number(String operand) {
+        if(TacInstruction.isLiteral(operand)) {
+            Integer value = literals.get(TacInstruction.literalValue(operand));
+            if(value == null) {
+                value = newNumber();
+                literals.put(TacInstruction.literalValue(operand), value);
+            }
+            return value;
+        }
+        Integer value = numbers.get(operand);
+        if(value == null) {
+            value = newNumber();
+            numbers.put(operand, value);
+            holders.computeIfAbsent(value, number -> new ArrayList<>()).add(operand);
+        }
+        return value;
+    }
+
+    // an operand that still holds value, direct operands are preferred over @ operands
+    private String holder(int value) {
+        ArrayList<String> operands = holders.get(value);
+        if(operands == null)
+            return null;
+        String reference = null;
+        for(String operand : operands) {
+            if(numbers.get(operand) == null || numbers.get(operand) != value)
+                continue;
+            if(!TacInstruction.isReference(operand))
+                return operand;
+            reference = operand;
+        }
+        return reference;
+    }
+
+    private void define(String result, int value) {
+        if(TacInstruction.isReference(result)) {
+            forgetGlobals();
+        } else {
+            numbers.remove("@" + result);
+            if(!isLocal(result))
+                forgetReferences();
+        }
+        numbers.put(result, value);
+        holders.computeIfAbsent(value, number -> new ArrayList<>()).add(result);
+    }
+
+    private int newNumber() {
+        return nextNumber++;
+    }
+
+    // a callee or a store through a reference can change globals and what references point to
+    private void forgetGlobals() {
+        numbers.keySet().removeIf(operand -> !isLocal(operand));
+    }
+
+    private void forgetReferences() {
+        numbers.keySet().removeIf(TacInstruction::isReference);
+    }
+
+    // private operands and parameters passed by value, nothing outside the procedure can change them
+    private static boolean isLocal(String operand) {
+        return TacInstruction.isPrivate(operand) || operand.startsWith("_bp+");
+    }
+}
@@ -0,0 +1,209 @@
+package ParserPkg;
+
+import SymbolTablePkg.EVariableType;
+import SymbolTablePkg.Symbol;
+
+import java.util.Arrays;
+
+/**
+ * Typed abstract syntax tree of a whole program, built by the Parser when it is asked to.
+ *
+ * Nodes are not objects, they are indexes into parallel arrays that grow when the arena is full.
+ * Index 0 is never given to a node, so 0 means "no node" in every link.
+ *
+ * Meaning of the links for each node type,
+ *  procedure       left = first statement, right = last statement, reference = function symbol
+ *  assign          left = expression, reference = assigned symbol
+ *  call            left = first argument, reference = function symbol
+ *  argument        left = variable or literal, value = 1 when passed by reference
+ *  writeInt        left = variable
+ *  writeString     reference = lexeme of the string placeholder
+ *  readInt         left = variable
+ *  variable        reference = symbol
+ *  literal         value = integer value, reference = lexeme
+ *  negate          left = operand
+ *  binary          left, right = operands, reference = operator lexeme
+ * Statements of a procedure, arguments of a call and procedures of the program are chained with next.
+ */
+public class AstArena {
+    private EAstNodeType[] nodeType;
+    private EVariableType[] valueType;
+    private int[] left;
+    private int[] right;
+    private int[] next;
+    private int[] value;
+    private int[] need; // Sethi-Ullman number of temporaries needed to evaluate an expression
+    private Object[] reference;
+    private int size = 1;
+
+    private int firstProcedure;
+    private int lastProcedure;
+
+    public AstArena() {
+        this(256);
+    }
+
+    public AstArena(int capacity) {
+        capacity = Math.max(capacity, 2);
+        nodeType = new EAstNodeType[capacity];
+        valueType = new EVariableType[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        next = new int[capacity];
+        value = new int[capacity];
+        need = new int[capacity];
+        reference = new Object[capacity];
+    }
+
+    private int newNode(EAstNodeType type, EVariableType valueType_, int left_, int right_, int value_, Object reference_) {
+        if(size == nodeType.length) {
+            int capacity = size * 2;
+            nodeType = Arrays.copyOf(nodeType, capacity);
+            valueType = Arrays.copyOf(valueType, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            next = Arrays.copyOf(next, capacity);
+            value = Arrays.copyOf(value, capacity);
+            need = Arrays.copyOf(need, capacity);
+            reference = Arrays.copyOf(reference, capacity);
+        }
+
+        int node = size++;
+        nodeType[node] = type;
+        valueType[node] = valueType_;
+        left[node] = left_;
+        right[node] = right_;
+        value[node] = value_;
+        reference[node] = reference_;
+        return node;
+    }
+
+    // procedures are chained in the order their body starts, which is the order of PROC statements in the TAC
+    public int procedure(Symbol function) {
+        int node = newNode(EAstNodeType.procedure, null, 0, 0, 0, function);
+        if(lastProcedure == 0)
+            firstProcedure = node;
+        else
+            next[lastProcedure] = node;
+        lastProcedure = node;
+        return node;
+    }
+
+    public void addStatement(int procedure, int statement) {
+        if(left[procedure] == 0)
+            left[procedure] = statement;
+        else
+            next[right[procedure]] = statement;
+        right[procedure] = statement;
+    }
+
+    public int assign(Symbol symbol, int expression) {
+        return newNode(EAstNodeType.assign, null, expression, 0, 0, symbol);
+    }
+
+    public int call(Symbol function, int firstArgument) {
+        return newNode(EAstNodeType.call, null, firstArgument, 0, 0, function);
+    }
+
+    // previousArgument is 0 for the first argument of a call
+    public int argument(int previousArgument, int operand, boolean byReference) {
+        int node = newNode(EAstNodeType.argument, valueType[operand], operand, 0, byReference ? 1 : 0, null);
+        if(previousArgument != 0)
+            next[previousArgument] = node;
+        return node;
+    }
+
+    public int writeInt(int operand) {
+        return newNode(EAstNodeType.writeInt, null, operand, 0, 0, null);
+    }
+
+    public int writeString(String lexeme) {
+        return newNode(EAstNodeType.writeString, null, 0, 0, 0, lexeme);
+    }
+
+    public int writeLine() {
+        return newNode(EAstNodeType.writeLine, null, 0, 0, 0, null);
+    }
+
+    public int readInt(int operand) {
+        return newNode(EAstNodeType.readInt, null, operand, 0, 0, null);
+    }
+
+    public int variable(Symbol symbol) {
+        EVariableType type;
+        if(symbol.variableAttributes != null)
+            type = symbol.variableAttributes.typeOfVariable;
+        else if(symbol.constantAttributes != null)
+            type = symbol.constantAttributes.typeOfConstant;
+        else
+            type = EVariableType.integerType;
+        return newNode(EAstNodeType.variable, type, 0, 0, 0, symbol);
+    }
+
+    public int literal(String lexeme, int value_) {
+        EVariableType type = lexeme.indexOf('.') == -1 ? EVariableType.integerType : EVariableType.floatType;
+        return newNode(EAstNodeType.literal, type, 0, 0, value_, lexeme);
+    }
+
+    public int negate(int operand) {
+        int node = newNode(EAstNodeType.negate, valueType[operand], operand, 0, 0, null);
+        need[node] = Math.max(1, need[operand]);
+        return node;
+    }
+
+    public int binary(String operator, int leftOperand, int rightOperand) {
+        EVariableType type = valueType[leftOperand] == EVariableType.floatType || valueType[rightOperand] == EVariableType.floatType ?
+                EVariableType.floatType : EVariableType.integerType;
+        int node = newNode(EAstNodeType.binary, type, leftOperand, rightOperand, 0, operator);
+
+        // variables and literals are used directly as operands, so they need no temporary
+        int leftNeed = need[leftOperand];
+        int rightNeed = need[rightOperand];
+        need[node] = leftNeed == rightNeed ? leftNeed + 1 : Math.max(leftNeed, rightNeed);
+        return node;
+    }
+
+    public int getFirstProcedure() {
+        return firstProcedure;
+    }
+
+    public int size() {
+        return size - 1;
+    }
+
+    public EAstNodeType getNodeType(int node) {
+        return nodeType[node];
+    }
+
+    public EVariableType getValueType(int node) {
+        return valueType[node];
+    }
+
+    public int getLeft(int node) {
+        return left[node];
+    }
+
+    public int getRight(int node) {
+        return right[node];
+    }
+
+    public int getNext(int node) {
+        return next[node];
+    }
+
+    public int getValue(int node) {
+        return value[node];
+    }
+
+    public int getNeed(int node) {
+        return need[node];
+    }
+
+    public Symbol getSymbol(int node) {
+        return (Symbol) reference[node];
+    }
+
+    public String getLexeme(int node) {
+        return (String) reference[node];
+    }
+}
@@ -0,0 +1,173 @@
+package ParserPkg;
+
+import SymbolTablePkg.ESymbolType;
+import SymbolTablePkg.EVariableType;
+import SymbolTablePkg.Symbol;
+import SymbolTablePkg.SymbolTable;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Second pass of the AST front end, it writes the TAC of a whole AstArena.
+ *
+ * Expressions are evaluated in Sethi-Ullman order, the operand that needs more temporaries is evaluated first.
+ * A temporary goes back to a free list as soon as its value is used, so the number of temporaries
+ * of a procedure is the largest need of its expressions instead of the number of operators.
+ * The last operator of an assignment writes the assigned variable directly.
+ */
+class AstLowering {
+    private AstArena ast;
+    private SymbolTable symbolTable;
+    private PrintWriter tacWriter;
+    private int tempVariableID;
+
+    private Symbol function;
+    private int nextTempOffset;
+    private ArrayDeque<String> freeTemporaries = new ArrayDeque<>();
+    private HashMap<String, Symbol> temporaries = new HashMap<>();
+
+    AstLowering(AstArena ast, SymbolTable symbolTable, PrintWriter tacWriter, int tempVariableID) {
+        this.ast = ast;
+        this.symbolTable = symbolTable;
+        this.tacWriter = tacWriter;
+        this.tempVariableID = tempVariableID;
+    }
+
+    // writes every procedure of the arena, and returns the next free temporary id
+    int lower() {
+        for(int procedure = ast.getFirstProcedure(); procedure != 0; procedure = ast.getNext(procedure)) {
+            lowerProcedure(procedure);
+        }
+        return tempVariableID;
+    }
+
+    private void lowerProcedure(int procedure) {
+        function = ast.getSymbol(procedure);
+        freeTemporaries.clear();
+        temporaries.clear();
+        // temporaries of a nested procedure are placed right after its declared local variables
+        nextTempOffset = function.functionAttributes.sizeOfLocalVariable + 2;
+
+        tacWriter.println(Parser.formattedString(new String[]{"PROC", function.lexeme}));
+        for(int statement = ast.getLeft(procedure); statement != 0; statement = ast.getNext(statement)) {
+            lowerStatement(statement);
+        }
+        tacWriter.println(Parser.formattedString(new String[]{"ENDP", function.lexeme}));
+    }
+
+    private void lowerStatement(int statement) {
+        switch (ast.getNodeType(statement)) {
+            case assign: {
+                String variable1 = Parser.getSymbolLexemeOrOffset(ast.getSymbol(statement));
+                int expression = ast.getLeft(statement);
+                if(ast.getNodeType(expression) == EAstNodeType.binary) {
+                    lowerBinary(expression, variable1);
+                } else {
+                    String operand = lowerExpression(expression);
+                    release(operand);
+                    tacWriter.println(Parser.formattedString(new String[]{variable1, "=", operand}));
+                }
+                break;
+            }
+            case call: {
+                // arguments are pushed with their lexeme, the same way the direct TAC emission does
+                for(int argument = ast.getLeft(statement); argument != 0; argument = ast.getNext(argument)) {
+                    int operand = ast.getLeft(argument);
+                    String lexeme = ast.getNodeType(operand) == EAstNodeType.variable ? ast.getSymbol(operand).lexeme : ast.getLexeme(operand);
+                    tacWriter.println(Parser.formattedString(new String[]{"push", ast.getValue(argument) == 1 ? "@".concat(lexeme) : lexeme}));
+                }
+                tacWriter.println(Parser.formattedString(new String[]{"call", ast.getSymbol(statement).lexeme}));
+                break;
+            }
+            case writeInt:
+                tacWriter.println(Parser.formattedString(new String[]{"wri", lowerExpression(ast.getLeft(statement))}));
+                break;
+            case writeString:
+                tacWriter.println(Parser.formattedString(new String[]{"wrs", ast.getLexeme(statement)}));
+                break;
+            case writeLine:
+                tacWriter.println(Parser.formattedString(new String[]{"wrln"}));
+                break;
+            case readInt:
+                tacWriter.println(Parser.formattedString(new String[]{"rdi", lowerExpression(ast.getLeft(statement))}));
+                break;
+            default:
+                throw new IllegalStateException("Unexpected " + ast.getNodeType(statement) + " node in statement list");
+        }
+    }
+
+    // returns the TAC operand that holds the value of the expression
+    private String lowerExpression(int expression) {
+        switch (ast.getNodeType(expression)) {
+            case variable:
+                return Parser.getSymbolLexemeOrOffset(ast.getSymbol(expression));
+            case literal:
+                return ast.getLexeme(expression);
+            case negate: {
+                String operand = lowerExpression(ast.getLeft(expression));
+                release(operand);
+                String variable1 = allocate();
+                tacWriter.println(Parser.formattedString(new String[]{variable1, "=", "-".concat(operand)}));
+                return variable1;
+            }
+            case binary:
+                return lowerBinary(expression, null);
+            default:
+                throw new IllegalStateException("Unexpected " + ast.getNodeType(expression) + " node in expression");
+        }
+    }
+
+    // target is the variable the result is written to, or null to write it to a temporary
+    private String lowerBinary(int expression, String target) {
+        int leftOperand = ast.getLeft(expression);
+        int rightOperand = ast.getRight(expression);
+
+        // operators have no side effects, so the operand that needs more temporaries can be evaluated first
+        String variable2, variable3;
+        if(ast.getNeed(rightOperand) > ast.getNeed(leftOperand)) {
+            variable3 = lowerExpression(rightOperand);
+            variable2 = lowerExpression(leftOperand);
+        } else {
+            variable2 = lowerExpression(leftOperand);
+            variable3 = lowerExpression(rightOperand);
+        }
+        release(variable2);
+        release(variable3);
+
+        String variable1 = target != null ? target : allocate();
+        tacWriter.println(Parser.formattedString(new String[]{variable1, "=", variable2, ast.getLexeme(expression), variable3}));
+        return variable1;
+    }
+
+    private String allocate() {
+        if(!freeTemporaries.isEmpty())
+            return freeTemporaries.pop();
+
+        Symbol tempSymbol;
+        String tempVariableName = "_t".concat(Integer.toString(tempVariableID++));
+        if(function.depth == 0) {
+            // temporaries of the start procedure are global variables, like its other variables
+            tempSymbol = symbolTable.insert(tempVariableName, 1);
+            tempSymbol.setSymbolType(ESymbolType.variable);
+        } else {
+            tempSymbol = new Symbol(tempVariableName, function.depth + 1);
+            tempSymbol.setSymbolType(ESymbolType.variable);
+            tempSymbol.setOffset(nextTempOffset);
+            nextTempOffset += 2;
+            function.functionAttributes.sizeOfLocalVariable += 2;
+        }
+        tempSymbol.variableAttributes.typeOfVariable = EVariableType.integerType;
+        tempSymbol.variableAttributes.size = 2;
+
+        String operand = Parser.getSymbolLexemeOrOffset(tempSymbol);
+        temporaries.put(operand, tempSymbol);
+        return operand;
+    }
+
+    private void release(String operand) {
+        if(temporaries.containsKey(operand))
+            freeTemporaries.push(operand);
+    }
+}
@@ -0,0 +1,7 @@
+package ParserPkg;
+
+// type of the nodes in the AstArena
+public enum EAstNodeType {
+    procedure, assign, call, argument, writeInt, writeString, writeLine, readInt,
+    variable, literal, negate, binary;
+}
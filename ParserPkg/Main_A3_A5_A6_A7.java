@@ -1,5 +1,7 @@
 package ParserPkg;
 
+import CompilerPkg.CompilationException;
+
 /**
  * Quazi Irfan
  * Compiler
@@ -17,9 +19,14 @@ public class Main_A3_A5_A6_A7 {
             return;
         }
 
-        Parser parser = new Parser(args[0]);
-        if(parser.isParsingSuccessful())
-            System.out.println("Parsing successful.");
+        try {
+            Parser parser = new Parser(args[0]);
+            if(parser.isParsingSuccessful())
+                System.out.println("Parsing successful.");
+        } catch (CompilationException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
 
     }
 }
@@ -1,10 +1,14 @@
 package ParserPkg;
 
+import CompilerPkg.SemanticException;
+import CompilerPkg.SyntaxException;
 import SymbolTablePkg.*;
 import TokenizerPkg.*;
 
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.util.LinkedList;
 
 /* Our grammar
@@ -62,55 +66,85 @@ public class Parser {
     private int _identifierOffset = 2;
     private int _tempVariableID = 0;
     private int _tempStringID = 0;
-    private static int _currentIndexOfFunctionParameter = 0;
+    private int _currentIndexOfFunctionParameter = 0;
     private PrintWriter tacWriter = null;
     private String _currentProcedureName;
     private String _startProcedure;
+    private AstArena _ast; // null when TAC is emitted directly from the semantic actions
+    private int _astProcedure;
+    private int _astFirstArgument;
+    private int _astLastArgument;
 
     public Parser(String fileName) throws IOException {
-        String tacFileName = fileName.substring(0, fileName.length()-4).concat(".tac");
-        tacWriter = new PrintWriter(tacFileName);
+        this(new FileReader(fileName), new PrintWriter(fileName.substring(0, fileName.length()-4).concat(".tac")));
 //        System.out.println("Writing output to " + tacFileName);
+    }
+
+    /**
+     * Parses the source program and writes the Three Address Code to tacWriter.
+     * Syntax errors are reported with SyntaxException, undefined or duplicate identifiers with SemanticException.
+     * @param source Ada source program
+     * @param tacWriter destination of the TAC, it is closed when parsing finishes
+     */
+    public Parser(Reader source, PrintWriter tacWriter) throws IOException {
+        this(source, tacWriter, false);
+    }
+
+    /**
+     * Parses the source program and writes the Three Address Code to tacWriter.
+     * When buildAst is true the semantic actions build an AstArena instead of writing TAC,
+     * and the TAC is written by AstLowering after the whole program has been parsed.
+     * @param source Ada source program
+     * @param tacWriter destination of the TAC, it is closed when parsing finishes
+     * @param buildAst build the AST and lower it in a separate pass
+     */
+    public Parser(Reader source, PrintWriter tacWriter, boolean buildAst) throws IOException {
+        this.tacWriter = tacWriter;
+        if(buildAst)
+            _ast = new AstArena();
 
         // initialize symbol table before parsing
         _symbolTable = new SymbolTable();
 
-        tokenizer = new Tokenizer(fileName);
+        tokenizer = new Tokenizer(source);
 
         // Add all string tokens to global space
         for(Token token : tokenizer.getTokenList()){
             if(token.getTokenType() == TokenType.string){
                 String stringPlaceholder = "_s".concat(Integer.toString(_tempStringID++));
-                Symbol stringSymbol = _symbolTable.insert(stringPlaceholder, 1); //todo Optimization : I do not check if old string can be reused.
+                Symbol stringSymbol = _symbolTable.insert(stringPlaceholder, 1); // the string-pool pass merges equal strings
                 stringSymbol.setSymbolType(ESymbolType.string);
 
-                String stringX86Lexeme =  "\"".concat((String)token.getAttribute()).concat("\"").concat(",\"$\"");
-                stringSymbol.stringAttributes.attribute = stringX86Lexeme;
+                stringSymbol.stringAttributes.setValue((String)token.getAttribute()); // "text","$"
 
                 token.setLexeme(stringPlaceholder);
             }
         }
 
-        // initialize CurrentToken variable
-        currentToken = tokenizer.getNextToken();
+        // the TAC writer is closed even when a SyntaxException or SemanticException stops the parsing
+        try {
+            // initialize CurrentToken variable
+            currentToken = tokenizer.getNextToken();
 
-        // initialize parsing
-        Prog();
-//        System.out.println(formattedString(new String[]{"START", "PROC" , _startProcedure}));
-        tacWriter.println(formattedString(new String[]{"START", "PROC" , _startProcedure}));
+            // initialize parsing
+            Prog();
+            if(_ast != null)
+                _tempVariableID = new AstLowering(_ast, _symbolTable, tacWriter, _tempVariableID).lower();
+//            System.out.println(formattedString(new String[]{"START", "PROC" , _startProcedure}));
+            tacWriter.println(formattedString(new String[]{"START", "PROC" , _startProcedure}));
 
-        // print the symbol table of global space
-//        _symbolTable.printDepth(_symbolTable.CurrentDepth);
+            // print the symbol table of global space
+//            _symbolTable.printDepth(_symbolTable.CurrentDepth);
 
-        if(currentToken.getTokenType() != TokenType.eof) {
-            System.out.println("Error: At line number " + currentToken.getLineNumber() + " unused token(" + currentToken.getTokenType() + ", " + currentToken.getLexeme() + ") found. Expecting End of File token.");
-            System.exit(1);
-        }
-        else {
-            isParsingSuccessful = true;
+            if(currentToken.getTokenType() != TokenType.eof) {
+                throw new SyntaxException("At line number " + currentToken.getLineNumber() + " unused token(" + currentToken.getTokenType() + ", " + currentToken.getLexeme() + ") found. Expecting End of File token.", currentToken.getLineNumber());
+            }
+            else {
+                isParsingSuccessful = true;
+            }
+        } finally {
+            tacWriter.close();
         }
-
-        tacWriter.close();
     }
 
     // This function implements Prog	->	procedure idt Args is DeclarativePart Procedures begin SeqOfStatements end idt;
@@ -137,15 +171,18 @@ public class Parser {
         Procedures();
         match(currentToken, TokenType.BEGIN);
 //        System.out.println(formattedString(new String[]{"PROC", _currentProcedureName}));
-        tacWriter.println(formattedString(new String[]{"PROC", _currentProcedureName}));
+        if(_ast != null)
+            _astProcedure = _ast.procedure(_symbolTable.lookup(_currentProcedureName, ESymbolType.function));
+        else
+            tacWriter.println(formattedString(new String[]{"PROC", _currentProcedureName}));
         SeqOfStatements();
 //        System.out.println(formattedString(new String[]{"ENDP" , _currentProcedureName}));
-        tacWriter.println(formattedString(new String[]{"ENDP" , _currentProcedureName}));
+        if(_ast == null)
+            tacWriter.println(formattedString(new String[]{"ENDP" , _currentProcedureName}));
 
         match(currentToken, TokenType.END);
         if(!_currentProcedureName.equalsIgnoreCase(currentToken.getLexeme())){
-            System.out.println("Error: Missing statement \"END " + _currentProcedureName+";\"");
-            System.exit(1);
+            throw new SyntaxException("Missing statement \"END " + _currentProcedureName+";\"", currentToken.getLineNumber());
         }
 
         // match the start id
@@ -326,8 +363,7 @@ public class Parser {
 
         // looking for TypeMark but didn't find any, stop parsing and report error
         else {
-            System.out.println("Error: At line number " + currentToken.getLineNumber() + ", expecting integer/float/char/const , but found " + currentToken.getTokenType() + " token with lexeme " + currentToken.getLexeme());
-            System.exit(1);
+            throw new SyntaxException("At line number " + currentToken.getLineNumber() + ", expecting integer/float/char/const , but found " + currentToken.getTokenType() + " token with lexeme " + currentToken.getLexeme(), currentToken.getLineNumber());
         }
     }
 
@@ -453,8 +489,14 @@ public class Parser {
         if(currentToken.getTokenType() == TokenType.assignop) {
 
             Symbol symbol = _symbolTable.lookup(identifier_);
-            String variable1 = getSymbolLexemeOrOffset(symbol);
+            checkAssignable(symbol);
             match(currentToken, TokenType.assignop);
+            if(_ast != null) {
+                _ast.addStatement(_astProcedure, _ast.assign(symbol, ExprNode()));
+                return;
+            }
+
+            String variable1 = getSymbolLexemeOrOffset(symbol);
             String synthesizedAttributeofExpe = Expr();
 
 //            System.out.println(formattedString(new String[]{variable1, "=", synthesizedAttributeofExpe}));
@@ -468,12 +510,20 @@ public class Parser {
     // ProcCall			->	idt ( Params )
     private void ProcCall(String procedureName_) {
         // current token has already been fowarded inside Statement grammar
+        if(_symbolTable.lookup(procedureName_, ESymbolType.function) == null){
+            throw new SemanticException("Identifier " + procedureName_ + " is not a procedure at line number " + currentToken.getLineNumber(), currentToken.getLineNumber());
+        }
         match(currentToken, TokenType.lparen);
+        _astFirstArgument = 0;
+        _astLastArgument = 0;
         Params(procedureName_);
         match(currentToken, TokenType.rparen);
 
 //        System.out.println(formattedString(new String[]{"call" , procedureName_}));
-        tacWriter.println(formattedString(new String[]{"call" , procedureName_}));
+        if(_ast != null)
+            _ast.addStatement(_astProcedure, _ast.call(_symbolTable.lookup(procedureName_, ESymbolType.function), _astFirstArgument));
+        else
+            tacWriter.println(formattedString(new String[]{"call" , procedureName_}));
         _currentIndexOfFunctionParameter = 0;
     }
 
@@ -486,10 +536,10 @@ public class Parser {
                 Symbol functionSymbol = _symbolTable.lookup(procedureName_, ESymbolType.function);
                 if(functionSymbol.functionAttributes.parameterModeList.get(_currentIndexOfFunctionParameter) != EParameterModeType.in){
 //                    System.out.println(formattedString(new String[]{"push" , "@".concat(currentToken.getLexeme())}));
-                    tacWriter.println(formattedString(new String[]{"push" , "@".concat(currentToken.getLexeme())}));
+                    pushArgument(true);
                 } else {
 //                    System.out.println(formattedString(new String[]{"push" , currentToken.getLexeme()}));
-                    tacWriter.println(formattedString(new String[]{"push" , currentToken.getLexeme()}));
+                    pushArgument(false);
                 }
 
                 match(currentToken, TokenType.id);
@@ -498,7 +548,7 @@ public class Parser {
 
             } else if (currentToken.getTokenType() == TokenType.num) {
 //                System.out.println(formattedString(new String[]{"push" , currentToken.getLexeme()}));
-                tacWriter.println(formattedString(new String[]{"push" , currentToken.getLexeme()}));
+                pushArgument(false);
                 match(currentToken, TokenType.id);
                 _currentIndexOfFunctionParameter++;
                 ParamsTail(procedureName_);
@@ -521,10 +571,10 @@ public class Parser {
                     Symbol functionSymbol = _symbolTable.lookup(procedureName_, ESymbolType.function);
                     if(functionSymbol.functionAttributes.parameterModeList.get(_currentIndexOfFunctionParameter) != EParameterModeType.in){
 //                        System.out.println(formattedString(new String[]{"push" , "@".concat(currentToken.getLexeme())}));
-                        tacWriter.println(formattedString(new String[]{"push" , "@".concat(currentToken.getLexeme())}));
+                        pushArgument(true);
                     } else {
 //                        System.out.println(formattedString(new String[]{"push" , currentToken.getLexeme()}));
-                        tacWriter.println(formattedString(new String[]{"push" , currentToken.getLexeme()}));
+                        pushArgument(false);
                     }
 
                     match(currentToken, TokenType.id);
@@ -533,7 +583,7 @@ public class Parser {
 
                 } else if(currentToken.getTokenType() == TokenType.num) {
 //                    System.out.println(formattedString(new String[]{"push" , currentToken.getLexeme()}));
-                    tacWriter.println(formattedString(new String[]{"push" , currentToken.getLexeme()}));
+                    pushArgument(false);
 
                     match(currentToken, TokenType.num);
                     _currentIndexOfFunctionParameter++;
@@ -541,13 +591,27 @@ public class Parser {
                 }
             }
             else {
-                System.out.println("Error: Expecting identifier or number token but found " + currentToken.getLexeme() + " at line number " + currentToken.getLineNumber());
-                System.exit(1);
+                throw new SyntaxException("Expecting identifier or number token but found " + currentToken.getLexeme() + " at line number " + currentToken.getLineNumber(), currentToken.getLineNumber());
             }
         }
         // ParamsTail -> ε
     }
 
+    // Writes the push statement of the current id or num token, or adds it to the arguments of the call node
+    private void pushArgument(boolean byReference_) {
+        if(_ast != null) {
+            int operand = currentToken.getTokenType() == TokenType.id ?
+                    _ast.variable(_symbolTable.lookup(currentToken.getLexeme())) :
+                    _ast.literal(currentToken.getLexeme(), currentToken.getValue());
+            _astLastArgument = _ast.argument(_astLastArgument, operand, byReference_);
+            if(_astFirstArgument == 0)
+                _astFirstArgument = _astLastArgument;
+        } else {
+            String lexeme = currentToken.getLexeme();
+            tacWriter.println(formattedString(new String[]{"push", byReference_ ? "@".concat(lexeme) : lexeme}));
+        }
+    }
+
     // IOStat	->	InStat | OutStat
     private void IOStat() {
         if(currentToken.getTokenType() == TokenType.GET){
@@ -572,7 +636,10 @@ public class Parser {
 
             // putln prints a new line at the end
 //            System.out.println(formattedString(new String[]{"wrln"}));
-            tacWriter.println(formattedString(new String[]{"wrln"}));
+            if(_ast != null)
+                _ast.addStatement(_astProcedure, _ast.writeLine());
+            else
+                tacWriter.println(formattedString(new String[]{"wrln"}));
         }
     }
 
@@ -598,16 +665,26 @@ public class Parser {
             if(currentToken.getTokenType() == TokenType.id){
                 Symbol tempSymbol = _symbolTable.lookup(currentToken.getLexeme());
 //                System.out.println(formattedString(new String[]{"wri", getSymbolLexemeOrOffset(tempSymbol)}));
-                tacWriter.println(formattedString(new String[]{"wri", getSymbolLexemeOrOffset(tempSymbol)}));
+                if(_ast != null)
+                    _ast.addStatement(_astProcedure, _ast.writeInt(_ast.variable(tempSymbol)));
+                else
+                    tacWriter.println(formattedString(new String[]{"wri", getSymbolLexemeOrOffset(tempSymbol)}));
             } else if(currentToken.getTokenType() == TokenType.string){
                 Symbol tempSymbol = _symbolTable.lookup(currentToken.getLexeme());
 //                System.out.println(formattedString(new String[]{"wrs", tempSymbol.lexeme}));
-                tacWriter.println(formattedString(new String[]{"wrs", tempSymbol.lexeme}));
+                if(_ast != null)
+                    _ast.addStatement(_astProcedure, _ast.writeString(tempSymbol.lexeme));
+                else
+                    tacWriter.println(formattedString(new String[]{"wrs", tempSymbol.lexeme}));
+            } else {
+                if(_ast != null)
+                    _ast.addStatement(_astProcedure, _ast.writeInt(_ast.literal(currentToken.getLexeme(), currentToken.getValue())));
+                else
+                    tacWriter.println(formattedString(new String[]{"wri", currentToken.getLexeme()}));
             }
             currentToken = tokenizer.getNextToken();
         } else {
-            System.out.println("Error: Expecting identifier, number or string literal, but found " + currentToken.getTokenType() + " with lexeme " + currentToken.getLexeme() + " at line " + currentToken.getLineNumber());
-            System.exit(1);
+            throw new SyntaxException("Expecting identifier, number or string literal, but found " + currentToken.getTokenType() + " with lexeme " + currentToken.getLexeme() + " at line " + currentToken.getLineNumber(), currentToken.getLineNumber());
         }
     }
 
@@ -626,13 +703,12 @@ public class Parser {
         if(currentToken.getTokenType() == TokenType.id){
             Symbol tempSymbol = isDefinedIdentifier(currentToken.getLexeme());
 //            System.out.println(formattedString(new String[]{"rdi", getSymbolLexemeOrOffset(tempSymbol)}));
-            tacWriter.println(formattedString(new String[]{"rdi", getSymbolLexemeOrOffset(tempSymbol)}));
+            readInt(tempSymbol);
 
             match(currentToken, TokenType.id);
             IdListTail();
         } else {
-            System.out.println("Error: Expecting identifier token, but found " + currentToken.getTokenType() + " with lexeme " + currentToken.getLexeme() + " at line " + currentToken.getLineNumber());
-            System.exit(1);
+            throw new SyntaxException("Expecting identifier token, but found " + currentToken.getTokenType() + " with lexeme " + currentToken.getLexeme() + " at line " + currentToken.getLineNumber(), currentToken.getLineNumber());
         }
     }
 
@@ -644,7 +720,7 @@ public class Parser {
 
             Symbol tempSymbol = isDefinedIdentifier(currentToken.getLexeme());
 //            System.out.println(formattedString(new String[]{"rdi", getSymbolLexemeOrOffset(tempSymbol)}));
-            tacWriter.println(formattedString(new String[]{"rdi", getSymbolLexemeOrOffset(tempSymbol)}));
+            readInt(tempSymbol);
 
             match(currentToken, TokenType.id);
             IdListTail();
@@ -652,6 +728,14 @@ public class Parser {
         // IdListTail	->	ε
     }
 
+    private void readInt(Symbol symbol_) {
+        checkAssignable(symbol_);
+        if(_ast != null)
+            _ast.addStatement(_astProcedure, _ast.readInt(_ast.variable(symbol_)));
+        else
+            tacWriter.println(formattedString(new String[]{"rdi", getSymbolLexemeOrOffset(symbol_)}));
+    }
+
     // Expr			->	Relation
     private String Expr() {
         return Relation();
@@ -742,26 +826,87 @@ public class Parser {
         }
     }
 
+    // The following functions implement the same expression grammar as Expr, but return an AstArena node instead of writing TAC
+
+    // Expr			->	Relation
+    private int ExprNode() {
+        return RelationNode();
+    }
+
+    // Relation		->	SimpleExpr
+    private int RelationNode() {
+        return SimpleExprNode();
+    }
+
+    // SimpleExpr		->	Term MoreTerm
+    private int SimpleExprNode() {
+        return MoreTermNode(TermNode());
+    }
+
+    // MoreTerm		->	Addop Term MoreTerm | ε
+    private int MoreTermNode(int _inheritedNode) {
+        if(currentToken.getTokenType() == TokenType.addop){
+            String operator = currentToken.getLexeme();
+            match(currentToken, TokenType.addop);
+            return MoreTermNode(_ast.binary(operator, _inheritedNode, TermNode()));
+        }
+        return _inheritedNode;
+    }
+
+    // Term			->	Factor  MoreFactor
+    private int TermNode() {
+        return MoreFactorNode(FactorNode());
+    }
+
+    // MoreFactor		->  Mulop Factor MoreFactor| ε
+    private int MoreFactorNode(int _inheritedNode) {
+        if(currentToken.getTokenType() == TokenType.mulop){
+            String operator = currentToken.getLexeme();
+            match(currentToken, TokenType.mulop);
+            return MoreFactorNode(_ast.binary(operator, _inheritedNode, FactorNode()));
+        }
+        return _inheritedNode;
+    }
+
+    // Factor			->	id | num | ( Expr ) | not Factor | SignOp Factor
+    private int FactorNode() {
+        if(currentToken.getTokenType() == TokenType.id){
+            Symbol tempSymbol = isDefinedIdentifier(currentToken.getLexeme());
+            currentToken = tokenizer.getNextToken();
+            return _ast.variable(tempSymbol);
+        } else if(currentToken.getTokenType() == TokenType.num){
+            int literal = _ast.literal(currentToken.getLexeme(), currentToken.getValue());
+            match(currentToken, TokenType.num);
+            return literal;
+        } else if(currentToken.getTokenType() == TokenType.lparen){
+            match(currentToken, TokenType.lparen);
+            int expression = ExprNode();
+            match(currentToken, TokenType.rparen);
+            return expression;
+        } else {
+            SignOp();
+            return _ast.negate(FactorNode());
+        }
+    }
+
     // SignOp		    ->	-
     private void SignOp() {
         if(currentToken.getLexeme().charAt(0) == '-'){
             currentToken = tokenizer.getNextToken();
         } else {
-            System.out.println("Error: Expecting SignOp '-' but found " + currentToken.getLexeme() + " at line number " + currentToken.getLineNumber());
-            System.exit(1);
+            throw new SyntaxException("Expecting SignOp '-' but found " + currentToken.getLexeme() + " at line number " + currentToken.getLineNumber(), currentToken.getLineNumber());
         }
     }
 
     /**
      * Matches if the currentToken is same as the desired token type.
-     * If we do not get the desired token it is a fatal error, and we print the error and exit the program.
+     * If we do not get the desired token it is a fatal error, and we throw a SyntaxException.
      * @param localCurrentToken Current token
      * @param desiredToken The token type we are looking for
      */
     private void match(Token localCurrentToken, TokenType desiredToken) {
         if(localCurrentToken.getTokenType() != desiredToken){
-            System.out.println("Error: At line number " + currentToken.getLineNumber() + ", expecting " + desiredToken + " token, but found " + currentToken.getTokenType() + " token with lexeme " + currentToken.getLexeme());
-            System.exit(1);
+            throw new SyntaxException("At line number " + currentToken.getLineNumber() + ", expecting " + desiredToken + " token, but found " + currentToken.getTokenType() + " token with lexeme " + currentToken.getLexeme(), currentToken.getLineNumber());
         } else {
             currentToken = tokenizer.getNextToken();
         }
@@ -783,11 +928,16 @@ public class Parser {
         return tempSymbol;
     }
 
+    private void checkAssignable(Symbol symbol_) {
+        if(symbol_.getSymbolType() != ESymbolType.variable){
+            throw new SemanticException("Can not assign a value to " + symbol_.getSymbolType() + " " + symbol_.lexeme + " at line number " + currentToken.getLineNumber(), currentToken.getLineNumber());
+        }
+    }
+
     private void checkForDuplicateEntry() {
         Symbol symbol = _symbolTable.lookup(currentToken.getLexeme());
         if(symbol != null && symbol.depth == _symbolTable.CurrentDepth){
-            System.out.println("Error: Duplicate symbol: '" +currentToken.getLexeme() + "' at line number " + currentToken.getLineNumber());
-            System.exit(1);
+            throw new SemanticException("Duplicate symbol: '" +currentToken.getLexeme() + "' at line number " + currentToken.getLineNumber(), currentToken.getLineNumber());
         }
     }
 
@@ -795,7 +945,11 @@ public class Parser {
         return isParsingSuccessful;
     }
 
-    private String getSymbolLexemeOrOffset(Symbol symbol_){
+    static String getSymbolLexemeOrOffset(Symbol symbol_){
+        // constants of nested procedures are never stored in their frame, their value is used instead
+        if(symbol_.depth > 1 && symbol_.constantAttributes != null && symbol_.constantAttributes.typeOfConstant == EVariableType.integerType)
+            return symbol_.getConstantValue();
+
         if(symbol_.depth > 1){
             if(symbol_.isParameter()){
                 EParameterModeType mode = symbol_.getParameterMode();
@@ -817,14 +971,11 @@ public class Parser {
         if (symbol != null && symbol.depth <= _symbolTable.CurrentDepth) {
             return symbol;
         } else {
-            System.out.println("Error: Undefined identifier " + currentToken.getLexeme() + " at line number " + currentToken.getLineNumber());
-            System.exit(1);
+            throw new SemanticException("Undefined identifier " + currentToken.getLexeme() + " at line number " + currentToken.getLineNumber(), currentToken.getLineNumber());
         }
-
-        return null;
     }
 
-    private String formattedString(String[] values_){
+    static String formattedString(String[] values_){
         if(values_.length == 1){
             return String.format("%-8s", values_[0]);
         }
@@ -846,5 +997,10 @@ public class Parser {
     public SymbolTable getSymbolTable() {
         return _symbolTable;
     }
+
+    // the typed AST of the program, or null when the parser emitted TAC directly
+    public AstArena getAst() {
+        return _ast;
+    }
 }
 
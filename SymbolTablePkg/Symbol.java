@@ -80,6 +80,30 @@ public class Symbol {
 
     public class StringAttributes implements SymbolAttributes{
         public String attribute;
+        // the characters of the string, attribute is the operand list of its db directive
+        public String value;
+
+        // sets value and the db operands of the string, characters below space are written as numbers
+        public void setValue(String value_){
+            value = value_;
+            StringBuilder builder = new StringBuilder();
+            int i = 0;
+            while(i < value_.length()){
+                if(builder.length() > 0)
+                    builder.append(",");
+                if(value_.charAt(i) < ' ' || value_.charAt(i) == '"'){
+                    builder.append((int) value_.charAt(i++));
+                } else {
+                    int start = i;
+                    while(i < value_.length() && value_.charAt(i) >= ' ' && value_.charAt(i) != '"')
+                        i++;
+                    builder.append("\"").append(value_, start, i).append("\"");
+                }
+            }
+            if(builder.length() == 0)
+                builder.append("\"\"");
+            attribute = builder.append(",\"$\"").toString();
+        }
 
         @Override
         public String toString(){
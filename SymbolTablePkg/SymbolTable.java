@@ -9,7 +9,7 @@ import java.util.LinkedList;
  * All function except hash is public.
  */
 public class SymbolTable {
-    public static int CurrentDepth = 0; // depth starts from 0
+    public int CurrentDepth = 0; // depth starts from 0, every symbol table tracks its own depth
     public static int TableSize = 211;
     private ArrayList<LinkedList<Symbol>> _hashTable = new ArrayList<>(); // array of 'linked list of symbols'
 
@@ -64,8 +64,7 @@ public class SymbolTable {
      */
     public Symbol insert(String lexeme_, int depth_){
         if(depth_ < CurrentDepth){
-            System.out.println("Error inserting '" + lexeme_ + "' ,only allowed to insert at depth " + CurrentDepth);
-            System.exit(0);
+            throw new IllegalStateException("Error inserting '" + lexeme_ + "' ,only allowed to insert at depth " + CurrentDepth);
         }
 
         // generate the symbol
@@ -126,8 +125,7 @@ public class SymbolTable {
      */
     public void deleteDepth(int depth_){
         if(depth_ < CurrentDepth){
-            System.out.println("Can not delete lower depth.");
-            System.exit(0);
+            throw new IllegalStateException("Can not delete lower depth.");
         }else{
             for(int i = 0; i< TableSize; i++){
                 LinkedList<Symbol> linkedList = _hashTable.get(i);
@@ -143,6 +141,16 @@ public class SymbolTable {
 
     }
 
+    /**
+     * Removes one symbol from the symbol table, for example a variable an optimization made unused.
+     * @param symbol_ the symbol returned by insert or lookup
+     * @return true if the symbol was in the symbol table
+     */
+    public boolean remove(Symbol symbol_){
+        LinkedList<Symbol> linkedList = _hashTable.get(hash(symbol_.lexeme));
+        return linkedList != null && linkedList.remove(symbol_);
+    }
+
     /**
      * Java implement of hashpjw from P. J. Weinberger.
      * For internal use only.
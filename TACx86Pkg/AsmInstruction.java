@@ -0,0 +1,296 @@
+package TACx86Pkg;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * One line of the generated assembly.
+ * The templates produce text, parse splits a line into mnemonic and operands so the backend passes can work on
+ * instructions instead of strings. A line that no pass changed is printed exactly as the template wrote it.
+ *
+ *  type            example
+ *  instruction     mov ax, [bp+4]
+ *  comment         ;_bp-2   =       _bp+4   +       1
+ *  label           _CALC		proc        (procedure start and end, always in column 0)
+ *  directive       .data, _A dw ?, include io.asm
+ *  blank
+ */
+public class AsmInstruction {
+    public static final String[] generalRegisters = {"ax", "bx", "cx", "dx", "si", "di"};
+
+    public EAsmLineType type;
+    public String mnemonic;
+    public String[] operands = new String[0];
+    // the original line, null once a pass changed the instruction
+    private String text;
+
+    private AsmInstruction(EAsmLineType type, String text) {
+        this.type = type;
+        this.text = text;
+    }
+
+    public AsmInstruction(String mnemonic, String... operands) {
+        this.type = EAsmLineType.instruction;
+        this.mnemonic = mnemonic;
+        this.operands = operands;
+    }
+
+    public static AsmInstruction parse(String line) {
+        String trimmed = line.trim();
+        if(trimmed.isEmpty())
+            return new AsmInstruction(EAsmLineType.blank, line);
+        if(trimmed.charAt(0) == ';')
+            return new AsmInstruction(EAsmLineType.comment, line);
+        if(!Character.isWhitespace(line.charAt(0)))
+            return new AsmInstruction(line.contains(" dw ") || line.contains(" db ") || line.contains("\tdw") || line.contains("\tdb") || line.contains(" equ ") ? EAsmLineType.directive : EAsmLineType.label, line);
+        if(trimmed.charAt(0) == '.' || trimmed.startsWith("include") || trimmed.startsWith("END"))
+            return new AsmInstruction(EAsmLineType.directive, line);
+
+        AsmInstruction instruction = new AsmInstruction(EAsmLineType.instruction, line);
+        int space = indexOfWhitespace(trimmed);
+        if(space < 0) {
+            instruction.mnemonic = trimmed.toLowerCase();
+        } else {
+            instruction.mnemonic = trimmed.substring(0, space).toLowerCase();
+            String[] operands = trimmed.substring(space + 1).split(",");
+            for(int i = 0; i < operands.length; i++)
+                operands[i] = operands[i].trim();
+            instruction.operands = operands;
+        }
+        return instruction;
+    }
+
+    private static int indexOfWhitespace(String text) {
+        for(int i = 0; i < text.length(); i++) {
+            if(Character.isWhitespace(text.charAt(i)))
+                return i;
+        }
+        return -1;
+    }
+
+    public boolean isInstruction() {
+        return type == EAsmLineType.instruction;
+    }
+
+    public boolean is(String mnemonic) {
+        return isInstruction() && this.mnemonic.equals(mnemonic);
+    }
+
+    public String operand(int index) {
+        return index < operands.length ? operands[index] : null;
+    }
+
+    // replaces the operands, the line is printed from mnemonic and operands afterwards
+    public void setOperands(String... operands) {
+        this.operands = operands;
+        this.text = null;
+    }
+
+    public void setMnemonic(String mnemonic) {
+        this.mnemonic = mnemonic;
+        this.text = null;
+    }
+
+    public static boolean isRegister(String operand) {
+        return operand != null && Arrays.asList(generalRegisters).contains(register(operand));
+    }
+
+    // ax for al and ah, the 16 bit register an 8 bit register is part of, otherwise the operand itself
+    public static String register(String operand) {
+        if(operand.length() == 2 && (operand.charAt(1) == 'l' || operand.charAt(1) == 'h') && "abcd".indexOf(operand.charAt(0)) >= 0)
+            return operand.charAt(0) + "x";
+        return operand;
+    }
+
+    // integer literal, offset of a variable or segment address
+    public static boolean isImmediate(String operand) {
+        if(operand == null || operand.isEmpty())
+            return false;
+        if(operand.startsWith("offset ") || operand.startsWith("@") || TacInstruction.isLiteral(operand))
+            return true;
+        // character literal or hexadecimal number such as 4ch
+        return operand.charAt(0) == '\'' || (Character.isDigit(operand.charAt(0)) && operand.endsWith("h"));
+    }
+
+    public static boolean isMemory(String operand) {
+        return operand != null && !isRegister(operand) && !isImmediate(operand) && !isSegmentRegister(operand) && !isStackRegister(operand);
+    }
+
+    private static boolean isSegmentRegister(String operand) {
+        return operand.equals("ds") || operand.equals("es") || operand.equals("ss") || operand.equals("cs");
+    }
+
+    private static boolean isStackRegister(String operand) {
+        return operand.equals("sp") || operand.equals("bp");
+    }
+
+    // registers used to form the address of a memory operand, [bx+si+2] uses bx and si
+    public static Set<String> addressRegisters(String operand) {
+        HashSet<String> registers = new HashSet<>();
+        int open = operand == null ? -1 : operand.indexOf('[');
+        if(open < 0)
+            return registers;
+        for(String part : operand.substring(open + 1, operand.indexOf(']')).split("[+-]")) {
+            String name = part.trim();
+            if(isRegister(name) || isStackRegister(name))
+                registers.add(name);
+        }
+        return registers;
+    }
+
+    // the procedure a call instruction calls, null for any other instruction
+    public String callTarget() {
+        return is("call") ? operand(0) : null;
+    }
+
+    /**
+     * Registers whose value the instruction reads, including registers that form memory addresses,
+     * implicit operands and the arguments of the io.asm routines. A call of a procedure reads the registers a
+     * procedure can take its parameters in, see RegisterCalls. Unknown instructions read every register.
+     */
+    public Set<String> registersRead() {
+        HashSet<String> read = new HashSet<>();
+        if(!isInstruction())
+            return read;
+        for(String operand : operands)
+            read.addAll(addressRegisters(operand));
+
+        String destination = operand(0);
+        switch (mnemonic) {
+            case "mov":
+            case "lea":
+                addRegister(operand(1), read);
+                break;
+            case "add": case "sub": case "and": case "or": case "xor": case "adc": case "sbb": case "cmp": case "test": case "xchg":
+            case "shl": case "sal": case "shr": case "sar": case "rol": case "ror":
+                // xor ax, ax and sub ax, ax set ax to 0 whatever it held
+                if((mnemonic.equals("xor") || mnemonic.equals("sub")) && destination.equals(operand(1)))
+                    break;
+                addRegister(destination, read);
+                addRegister(operand(1), read);
+                if("cl".equals(operand(1)))
+                    read.add("cx");
+                break;
+            case "neg": case "not": case "inc": case "dec": case "push":
+                addRegister(destination, read);
+                break;
+            case "pop":
+                break;
+            case "imul": case "mul": case "idiv": case "div":
+                if(operands.length == 1) {
+                    read.add("ax");
+                    if(!mnemonic.endsWith("mul"))
+                        read.add("dx");
+                    addRegister(destination, read);
+                } else {
+                    for(int i = operands.length == 3 ? 1 : 0; i < operands.length; i++)
+                        addRegister(operand(i), read);
+                }
+                break;
+            case "cwd":
+                read.add("ax");
+                break;
+            case "call":
+                if(destination.equals("writeint"))
+                    read.add("ax");
+                else if(destination.equals("writestr"))
+                    read.add("dx");
+                else if(!destination.equals("writeln") && !destination.equals("readint"))
+                    read.addAll(Arrays.asList("bx", "cx", "dx", "si", "di"));
+                break;
+            case "ret": case "leave": case "enter": case "nop":
+                break;
+            default:
+                read.addAll(Arrays.asList(generalRegisters));
+        }
+        return read;
+    }
+
+    /**
+     * Registers the instruction changes. A call of an io.asm routine or of a procedure changes ax, bx, cx and dx,
+     * procedures save si and di. Unknown instructions change every register.
+     */
+    public Set<String> registersWritten() {
+        HashSet<String> written = new HashSet<>();
+        if(!isInstruction())
+            return written;
+
+        String destination = operand(0);
+        switch (mnemonic) {
+            case "mov": case "lea": case "add": case "sub": case "and": case "or": case "xor": case "adc": case "sbb":
+            case "neg": case "not": case "inc": case "dec": case "pop":
+            case "shl": case "sal": case "shr": case "sar": case "rol": case "ror":
+                addRegister(destination, written);
+                break;
+            case "xchg":
+                addRegister(destination, written);
+                addRegister(operand(1), written);
+                break;
+            case "imul": case "mul": case "idiv": case "div":
+                if(operands.length == 1) {
+                    written.add("ax");
+                    written.add("dx");
+                } else {
+                    addRegister(destination, written);
+                }
+                break;
+            case "cwd":
+                written.add("dx");
+                break;
+            case "call":
+                if(!destination.equals("writeln") && !destination.equals("writestr"))
+                    written.addAll(Arrays.asList("ax", "bx", "cx", "dx"));
+                break;
+            case "cmp": case "test": case "push": case "ret": case "leave": case "enter": case "nop":
+                break;
+            default:
+                written.addAll(Arrays.asList(generalRegisters));
+        }
+        return written;
+    }
+
+    // true if the instruction stores to a memory operand, calls a procedure or does something unknown
+    public boolean writesMemory() {
+        if(!isInstruction())
+            return false;
+        switch (mnemonic) {
+            case "mov": case "add": case "sub": case "and": case "or": case "xor": case "adc": case "sbb":
+            case "neg": case "not": case "inc": case "dec": case "pop": case "xchg":
+            case "shl": case "sal": case "shr": case "sar": case "rol": case "ror":
+                return isMemory(operand(0)) || (mnemonic.equals("xchg") && isMemory(operand(1)));
+            case "imul": case "mul": case "idiv": case "div": case "cwd": case "lea": case "cmp": case "test":
+            case "push": case "ret": case "leave": case "enter": case "nop":
+                return false;
+            case "call":
+                return !isIoRoutine(operand(0));
+            default:
+                return true;
+        }
+    }
+
+    // instructions after which the following code is not reached by falling through, or whose effect is unknown
+    public boolean endsBlock() {
+        return !isInstruction() && type != EAsmLineType.comment && type != EAsmLineType.blank
+                || is("ret") || is("jmp") || is("int") || (is("call") && !isIoRoutine(operand(0)));
+    }
+
+    public static boolean isIoRoutine(String name) {
+        return name.equals("writeint") || name.equals("writestr") || name.equals("writeln") || name.equals("readint") || name.equals("writech") || name.equals("readch");
+    }
+
+    private static void addRegister(String operand, Set<String> registers) {
+        if(operand == null)
+            return;
+        String register = register(operand);
+        if(isRegister(register) || isStackRegister(register))
+            registers.add(register);
+    }
+
+    @Override
+    public String toString() {
+        if(text != null)
+            return text;
+        return "\t\t" + mnemonic + (operands.length == 0 ? "" : " " + String.join(", ", operands));
+    }
+}
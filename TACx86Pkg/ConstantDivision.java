@@ -0,0 +1,186 @@
+package TACx86Pkg;
+
+/**
+ * Division, rem and mod by a constant without idiv.
+ *
+ * / truncates toward zero like idiv. A divisor of 2^k shifts: a negative dividend is first raised by 2^k - 1, which
+ * cwd and an and compute without a branch. Any other divisor multiplies by a magic number M, roughly 2^(16+s) / d,
+ * with the one operand imul and keeps the high word in dx (Hacker's Delight, chapter 10): dx is corrected by the
+ * dividend when M does not fit the sign of d, shifted right by s, and raised by one when it is negative.
+ * rem is x - q * d, with q * d from the shift sequence of StrengthReduction or from imul, whichever is cheaper. mod
+ * takes the sign of the divisor: x and 2^k - 1 for a positive power of two, else rem plus d when rem is non zero and
+ * its sign differs from d, which cwd turns into a mask since the sign of d is known.
+ * The sequences match idiv for every 16 bit dividend, except that -32768 / -1 gives -32768 where idiv faults.
+ * A divisor of 0 keeps idiv, so the division still faults at run time. Both sequences are priced with X86CostModel
+ * and the cheaper one is emitted.
+ */
+public class ConstantDivision {
+    public int divisions;
+    public int reduced;
+    public int cyclesBefore;
+    public int cyclesAfter;
+    private ETargetCpu target;
+    private StrengthReduction multiplier;
+
+    public ConstantDivision(ETargetCpu target) {
+        this.target = target;
+        this.multiplier = new StrengthReduction(target);
+    }
+
+    /**
+     * Code for var1 = x operator constant, operator is /, REM or MOD, in the operand format of x86Templates.
+     */
+    public String division(String var1, String x, String operator, int constant) {
+        String idiv = x86Templates.divisionTemplate(var1, x, Integer.toString(constant), operator);
+        int idivCycles = cycles(idiv);
+        divisions++;
+        cyclesBefore += idivCycles;
+        if(constant == 0) {
+            cyclesAfter += idivCycles;
+            return idiv;
+        }
+
+        // the dividend is read again after ax changes, an @ operand from a copy in cx
+        StringBuilder code = new StringBuilder(x86Templates.load("ax", x));
+        String dividend = x;
+        if(x.charAt(0) == '@') {
+            code.append("\t\tmov cx, ax\n");
+            dividend = "cx";
+        }
+        if(operator.equals("MOD") && constant > 0 && Integer.bitCount(constant) == 1) {
+            code.append("\t\tand ax, ").append(constant - 1).append("\n");
+        } else {
+            code.append(quotient(dividend, constant));
+            if(!operator.equals("/"))
+                code.append(remainder(dividend, constant));
+            if(operator.equals("MOD"))
+                code.append(floor(constant));
+        }
+        code.append(x86Templates.store(var1, "ax"));
+
+        String sequence = code.toString();
+        int sequenceCycles = cycles(sequence);
+        if(sequenceCycles < idivCycles) {
+            reduced++;
+            cyclesAfter += sequenceCycles;
+            return sequence;
+        }
+        cyclesAfter += idivCycles;
+        return idiv;
+    }
+
+    // instructions that divide ax, which holds the dividend, by constant
+    private String quotient(String dividend, int constant) {
+        int divisor = Math.abs(constant);
+        StringBuilder code = new StringBuilder();
+        if(divisor == 1) {
+            // nothing to divide
+        } else if(Integer.bitCount(divisor) == 1) {
+            int k = Integer.numberOfTrailingZeros(divisor);
+            code.append("\t\tcwd\n");
+            if(k == 1) {
+                code.append("\t\tsub ax, dx\n");
+            } else {
+                code.append("\t\tand dx, ").append(divisor - 1).append("\n");
+                code.append("\t\tadd ax, dx\n");
+            }
+            code.append(shift("sar", "ax", k));
+        } else {
+            int[] magic = magic(constant);
+            code.append("\t\tmov bx, ").append(magic[0]).append("\n");
+            code.append("\t\timul bx\n");
+            if(constant > 0 && magic[0] < 0)
+                code.append("\t\tadd dx, ").append(dividend).append("\n");
+            else if(constant < 0 && magic[0] > 0)
+                code.append("\t\tsub dx, ").append(dividend).append("\n");
+            code.append(shift("sar", "dx", magic[1]));
+            code.append("\t\tmov ax, dx\n");
+            code.append("\t\tcwd\n");
+            code.append("\t\tsub ax, dx\n");
+            return code.toString();
+        }
+        if(constant < 0)
+            code.append("\t\tneg ax\n");
+        return code.toString();
+    }
+
+    // instructions that turn the quotient in ax into dividend - quotient * constant
+    private String remainder(String dividend, int constant) {
+        String shifts = "\t\tmov dx, ax\n" + multiplier.shiftSequence("dx", constant);
+        String imul = "\t\tmov bx, " + constant + "\n" +
+                      "\t\timul bx\n";
+        return (cycles(shifts) < cycles(imul) ? shifts : imul) +
+                "\t\tneg ax\n" +
+                "\t\tadd ax, " + dividend + "\n";
+    }
+
+    // instructions that add constant to the remainder in ax if it is non zero and its sign differs from constant
+    private static String floor(int constant) {
+        if(constant > 0)
+            return "\t\tcwd\n" +
+                   "\t\tand dx, " + constant + "\n" +
+                   "\t\tadd ax, dx\n";
+        // dx is all ones if the remainder is above zero
+        return "\t\tneg ax\n" +
+               "\t\tcwd\n" +
+               "\t\tneg ax\n" +
+               "\t\tand dx, " + constant + "\n" +
+               "\t\tadd ax, dx\n";
+    }
+
+    /**
+     * Magic number and shift of a signed 16 bit division by constant, 2 <= |constant| < 2^15 and not a power of two.
+     * @return the magic number as a signed 16 bit value and the shift
+     */
+    static int[] magic(int constant) {
+        final long two15 = 1L << 15;
+        long divisor = Math.abs(constant);
+        long t = two15 + (constant < 0 ? 1 : 0);
+        long anc = t - 1 - t % divisor;
+        int p = 15;
+        long q1 = two15 / anc;
+        long r1 = two15 - q1 * anc;
+        long q2 = two15 / divisor;
+        long r2 = two15 - q2 * divisor;
+        long delta;
+        do {
+            p++;
+            q1 = 2 * q1;
+            r1 = 2 * r1;
+            if(r1 >= anc) {
+                q1++;
+                r1 -= anc;
+            }
+            q2 = 2 * q2;
+            r2 = 2 * r2;
+            if(r2 >= divisor) {
+                q2++;
+                r2 -= divisor;
+            }
+            delta = divisor - r2;
+        } while(q1 < delta || (q1 == delta && r1 == 0));
+
+        int magic = (short) (q2 + 1);
+        if(constant < 0)
+            magic = (short) -magic;
+        return new int[]{magic, p - 16};
+    }
+
+    private String shift(String mnemonic, String register, int count) {
+        if(count == 0)
+            return "";
+        if(target != ETargetCpu.i8086)
+            return "\t\t" + mnemonic + " " + register + ", " + count + "\n";
+        StringBuilder code = new StringBuilder();
+        for(int i = 0; i < count; i++)
+            code.append("\t\t").append(mnemonic).append(" ").append(register).append(", 1\n");
+        return code.toString();
+    }
+
+    private int cycles(String code) {
+        int cycles = 0;
+        for(String line : code.split("\n"))
+            cycles += X86CostModel.cycles(AsmInstruction.parse(line), target);
+        return cycles;
+    }
+}
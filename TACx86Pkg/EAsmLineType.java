@@ -0,0 +1,5 @@
+package TACx86Pkg;
+
+public enum EAsmLineType {
+    instruction, comment, label, directive, blank
+}
@@ -0,0 +1,6 @@
+package TACx86Pkg;
+
+// kind of a Three Address Code statement
+public enum ETacOpcode {
+    proc, endp, start, push, call, wrs, wri, wrln, rdi, copy, neg, binary;
+}
@@ -0,0 +1,10 @@
+package TACx86Pkg;
+
+/**
+ * Processor the backend estimates costs for. The generated code is 16 bit real mode code for both.
+ * i8086 code must not use instructions that came with the 80186 (shift by an immediate other than 1,
+ * push of an immediate, imul with an immediate, enter and leave).
+ */
+public enum ETargetCpu {
+    i8086, pentium
+}
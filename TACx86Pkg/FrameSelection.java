@@ -0,0 +1,215 @@
+package TACx86Pkg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Chooses the prologue and epilogue of every procedure once its body has been generated.
+ *
+ *  frame       prologue                                epilogue
+ *  full        push bp / mov bp, sp / sub sp, N        add sp, N / pop bp / ret M
+ *  mov-sp      push bp / mov bp, sp / sub sp, N        mov sp, bp / pop bp / ret M
+ *  leave       push bp / mov bp, sp / sub sp, N        leave / ret M               (80186 and later)
+ *  enter       enter N, 0                              leave / ret M               (80186 and later)
+ *  none                                                ret M
+ *
+ * sub sp and add sp are left out when N is 0. A body that never uses bp reads no parameter and no local variable,
+ * so it needs no frame at all and its local variables take no space. 16 bit code can not address memory relative
+ * to sp ([sp+2] is not an addressing mode), so a body that reads its parameters or locals always keeps bp.
+ * Of the sequences the target can run, the one with the fewest X86CostModel cycles wins, then the smallest one.
+ * When optimizing for size the smallest one wins, then the fastest one.
+ * Registers the allocator saves are pushed after the prologue and popped before the epilogue, so every epilogue
+ * finds sp where the prologue left it.
+ */
+public class FrameSelection {
+    private static final String[] frames = {"full", "mov-sp", "leave", "enter", "none"};
+
+    private ETargetCpu target;
+    // compare bytes before cycles
+    private boolean size;
+    // frame name -> number of procedures that got it
+    private LinkedHashMap<String, Integer> chosen = new LinkedHashMap<>();
+    public int cyclesBefore;
+    public int cyclesAfter;
+    public int bytesBefore;
+    public int bytesAfter;
+
+    public FrameSelection(ETargetCpu target) {
+        this(target, false);
+    }
+
+    public FrameSelection(ETargetCpu target, boolean size) {
+        this.target = target;
+        this.size = size;
+        for(String frame : frames)
+            chosen.put(frame, 0);
+    }
+
+    public void run(List<AsmInstruction> code) {
+        for(int i = 0; i < code.size(); i++) {
+            if(code.get(i).type == EAsmLineType.label && isPrologue(code, i))
+                selectFrame(code, i);
+        }
+    }
+
+    public LinkedHashMap<String, Integer> getChosen() {
+        return chosen;
+    }
+
+    // label followed by push bp and mov bp, sp
+    private static boolean isPrologue(List<AsmInstruction> code, int label) {
+        int push = PeepholeOptimizer.nextInstruction(code, label);
+        int move = push < 0 ? -1 : PeepholeOptimizer.nextInstruction(code, push);
+        return move >= 0 && code.get(push).is("push") && "bp".equals(code.get(push).operand(0))
+                && code.get(move).is("mov") && "bp".equals(code.get(move).operand(0)) && "sp".equals(code.get(move).operand(1));
+    }
+
+    private void selectFrame(List<AsmInstruction> code, int label) {
+        // prologue: push bp, mov bp, sp and sub sp, N unless the peephole optimizer removed sub sp, 0
+        ArrayList<Integer> prologue = new ArrayList<>();
+        prologue.add(PeepholeOptimizer.nextInstruction(code, label));
+        prologue.add(PeepholeOptimizer.nextInstruction(code, prologue.get(0)));
+        int frameSize = 0;
+        int sub = PeepholeOptimizer.nextInstruction(code, prologue.get(1));
+        if(sub >= 0 && code.get(sub).is("sub") && "sp".equals(code.get(sub).operand(0)) && TacInstruction.isLiteral(code.get(sub).operand(1))) {
+            prologue.add(sub);
+            frameSize = Integer.parseInt(code.get(sub).operand(1));
+        }
+
+        // epilogue: add sp, N, pop bp and ret M right before the ENDP label
+        int end = label + 1;
+        while(end < code.size() && code.get(end).type != EAsmLineType.label)
+            end++;
+        ArrayList<Integer> epilogue = new ArrayList<>();
+        int i = end - 1;
+        while(i > prologue.get(prologue.size() - 1) && epilogue.size() < 3) {
+            AsmInstruction line = code.get(i);
+            if(line.isInstruction()) {
+                boolean part = (epilogue.isEmpty() && line.is("ret")) || (epilogue.size() == 1 && line.is("pop") && "bp".equals(line.operand(0)))
+                        || (epilogue.size() == 2 && line.is("add") && "sp".equals(line.operand(0)));
+                if(!part)
+                    break;
+                epilogue.add(0, i);
+            }
+            i--;
+        }
+        if(epilogue.size() < 2)
+            return;
+        String returnSize = code.get(epilogue.get(epilogue.size() - 1)).operand(0);
+
+        boolean usesBp = false;
+        for(int j = prologue.get(prologue.size() - 1) + 1; j < epilogue.get(0) && !usesBp; j++)
+            usesBp = usesBp(code.get(j));
+
+        List<AsmInstruction> old = new ArrayList<>();
+        for(int index : prologue)
+            old.add(code.get(index));
+        for(int index : epilogue)
+            old.add(code.get(index));
+
+        String best = null;
+        List<AsmInstruction> bestPrologue = null;
+        List<AsmInstruction> bestEpilogue = null;
+        for(String frame : frames) {
+            if(!isAllowed(frame, usesBp))
+                continue;
+            List<AsmInstruction> newPrologue = prologue(frame, frameSize);
+            List<AsmInstruction> newEpilogue = epilogue(frame, frameSize, returnSize);
+            if(best == null || isCheaper(newPrologue, newEpilogue, bestPrologue, bestEpilogue)) {
+                best = frame;
+                bestPrologue = newPrologue;
+                bestEpilogue = newEpilogue;
+            }
+        }
+
+        cyclesBefore += X86CostModel.cycles(old, target);
+        bytesBefore += X86CostModel.bytes(old);
+        cyclesAfter += X86CostModel.cycles(bestPrologue, target) + X86CostModel.cycles(bestEpilogue, target);
+        bytesAfter += X86CostModel.bytes(bestPrologue) + X86CostModel.bytes(bestEpilogue);
+        chosen.put(best, chosen.get(best) + 1);
+
+        // the epilogue comes later in the code, replacing it first keeps the indices of the prologue
+        replace(code, epilogue, bestEpilogue);
+        replace(code, prologue, bestPrologue);
+    }
+
+    private boolean isAllowed(String frame, boolean usesBp) {
+        if(frame.equals("none"))
+            return !usesBp;
+        if(frame.equals("leave") || frame.equals("enter"))
+            return target != ETargetCpu.i8086;
+        return true;
+    }
+
+    private static List<AsmInstruction> prologue(String frame, int frameSize) {
+        switch (frame) {
+            case "none":
+                return new ArrayList<>();
+            case "enter":
+                return instructions(new AsmInstruction("enter", Integer.toString(frameSize), "0"));
+            default:
+                if(frameSize == 0)
+                    return instructions(new AsmInstruction("push", "bp"), new AsmInstruction("mov", "bp", "sp"));
+                return instructions(new AsmInstruction("push", "bp"), new AsmInstruction("mov", "bp", "sp"),
+                        new AsmInstruction("sub", "sp", Integer.toString(frameSize)));
+        }
+    }
+
+    private static List<AsmInstruction> epilogue(String frame, int frameSize, String returnSize) {
+        AsmInstruction ret = new AsmInstruction("ret", returnSize);
+        switch (frame) {
+            case "none":
+                return instructions(ret);
+            case "leave":
+            case "enter":
+                return instructions(new AsmInstruction("leave"), ret);
+            case "mov-sp":
+                if(frameSize == 0)
+                    return instructions(new AsmInstruction("pop", "bp"), ret);
+                return instructions(new AsmInstruction("mov", "sp", "bp"), new AsmInstruction("pop", "bp"), ret);
+            default:
+                if(frameSize == 0)
+                    return instructions(new AsmInstruction("pop", "bp"), ret);
+                return instructions(new AsmInstruction("add", "sp", Integer.toString(frameSize)), new AsmInstruction("pop", "bp"), ret);
+        }
+    }
+
+    private boolean isCheaper(List<AsmInstruction> prologue, List<AsmInstruction> epilogue, List<AsmInstruction> bestPrologue, List<AsmInstruction> bestEpilogue) {
+        int cycles = X86CostModel.cycles(prologue, target) + X86CostModel.cycles(epilogue, target);
+        int bestCycles = X86CostModel.cycles(bestPrologue, target) + X86CostModel.cycles(bestEpilogue, target);
+        int bytes = X86CostModel.bytes(prologue) + X86CostModel.bytes(epilogue);
+        int bestBytes = X86CostModel.bytes(bestPrologue) + X86CostModel.bytes(bestEpilogue);
+        if(size && bytes != bestBytes)
+            return bytes < bestBytes;
+        if(cycles != bestCycles)
+            return cycles < bestCycles;
+        return bytes < bestBytes;
+    }
+
+    // true if the instruction reads or writes bp or addresses memory through it
+    private static boolean usesBp(AsmInstruction line) {
+        if(!line.isInstruction())
+            return false;
+        if(line.registersRead().contains("bp") || line.registersWritten().contains("bp"))
+            return true;
+        for(String operand : line.operands) {
+            if(operand.equals("bp") || AsmInstruction.addressRegisters(operand).contains("bp"))
+                return true;
+        }
+        return false;
+    }
+
+    // removes the lines at indices, which are in ascending order, and inserts replacement where the first one was
+    private static void replace(List<AsmInstruction> code, List<Integer> indices, List<AsmInstruction> replacement) {
+        int position = indices.get(0);
+        for(int i = indices.size() - 1; i >= 0; i--)
+            code.remove((int) indices.get(i));
+        code.addAll(position, replacement);
+    }
+
+    private static List<AsmInstruction> instructions(AsmInstruction... instructions) {
+        return new ArrayList<>(Arrays.asList(instructions));
+    }
+}
@@ -0,0 +1,109 @@
+package TACx86Pkg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Folds procedures whose final code is identical into one.
+ *
+ * The key of a procedure is its instructions from its proc label to its ENDP label, with the comments left out and
+ * the name of the procedure itself (recursive calls and tail jumps) replaced by one placeholder. Frame offsets are
+ * part of the instructions, procedures with the same key also have the same frame layout, parameters and ret.
+ * The first procedure with a key is kept, the code of every later one is replaced by an equ that makes its name an
+ * alias of the kept one, and every call and jump to it calls the kept one. Callers that only differed in the names
+ * they called can be identical then, so folding repeats until no key is new. main, the entry point, is never folded.
+ */
+public class IdenticalCodeFolding {
+    private static final String self = "$self";
+
+    // folded procedure -> procedure it is an alias of
+    private LinkedHashMap<String, String> aliases = new LinkedHashMap<>();
+    public int procedures;
+    public int bytesBefore;
+    public int bytesAfter;
+
+    public void run(List<AsmInstruction> code) {
+        bytesBefore = X86CostModel.bytes(code);
+        procedures = bounds(code).size();
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            HashMap<String, String> keys = new HashMap<>();
+            LinkedHashMap<String, String> folded = new LinkedHashMap<>();
+            ArrayList<int[]> removed = new ArrayList<>();
+            for(int[] procedure : bounds(code)) {
+                String name = name(code.get(procedure[0]));
+                String kept = keys.putIfAbsent(key(code, procedure, name), name);
+                if(kept != null) {
+                    folded.put(name, kept);
+                    removed.add(procedure);
+                }
+            }
+            if(folded.isEmpty())
+                break;
+
+            // later procedures first, so the bounds of the earlier ones stay valid
+            for(int i = removed.size() - 1; i >= 0; i--) {
+                int[] procedure = removed.get(i);
+                String name = name(code.get(procedure[0]));
+                code.subList(procedure[0], procedure[1] + 1).clear();
+                code.add(procedure[0], AsmInstruction.parse(String.format("%-8s equ %s", name, folded.get(name))));
+            }
+            for(AsmInstruction line : code) {
+                if((line.is("call") || line.is("jmp")) && folded.containsKey(line.operand(0)))
+                    line.setOperands(folded.get(line.operand(0)));
+            }
+            aliases.putAll(folded);
+            changed = true;
+        }
+        bytesAfter = X86CostModel.bytes(code);
+    }
+
+    // folded procedure -> procedure whose code it uses, in the order they were folded
+    public LinkedHashMap<String, String> getAliases() {
+        return aliases;
+    }
+
+    // index of the proc label and of the ENDP label of every procedure except main
+    private static List<int[]> bounds(List<AsmInstruction> code) {
+        ArrayList<int[]> bounds = new ArrayList<>();
+        for(int i = 0; i < code.size(); i++) {
+            String name = name(code.get(i));
+            if(name == null || name.equals("main") || !code.get(i).toString().trim().endsWith("proc"))
+                continue;
+            for(int end = i + 1; end < code.size(); end++) {
+                if(name.equals(name(code.get(end)))) {
+                    bounds.add(new int[]{i, end});
+                    i = end;
+                    break;
+                }
+            }
+        }
+        return bounds;
+    }
+
+    // name of a proc or ENDP label, null for any other line
+    private static String name(AsmInstruction line) {
+        if(line.type != EAsmLineType.label)
+            return null;
+        String[] parts = line.toString().trim().split("\\s+");
+        return parts.length == 2 && (parts[1].equalsIgnoreCase("proc") || parts[1].equalsIgnoreCase("endp")) ? parts[0] : null;
+    }
+
+    // the instructions of a procedure, one per line, with its own name replaced by a placeholder
+    private static String key(List<AsmInstruction> code, int[] procedure, String name) {
+        StringBuilder key = new StringBuilder();
+        for(int i = procedure[0] + 1; i < procedure[1]; i++) {
+            AsmInstruction line = code.get(i);
+            if(!line.isInstruction())
+                continue;
+            key.append(line.mnemonic);
+            for(String operand : line.operands)
+                key.append(' ').append(operand.equals(name) ? self : operand);
+            key.append('\n');
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,504 @@
+package TACx86Pkg;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Instruction selection by tree tiling.
+ *
+ * Every TAC statement becomes a small tree, x = y + 5 is move(+(y, 5), x), and the rules of a table cover it
+ * with tiles. A rule has a pattern, the nonterminal it produces and the instructions it emits:
+ *
+ *  nonterminal     the value is
+ *  STMT            a whole statement, the root of every tree
+ *  AX              in ax
+ *  IMM             an integer literal
+ *  MEM             a variable or a frame slot such as [bp-2]
+ *  REG             a register the register allocator gave to the operand
+ *  BXMEM           the word at [bx], the pointer of an @ operand is in bx
+ *
+ * Patterns are written as operators with their operands: +(AX,IMM) adds a literal to a value in ax, =0 is the same
+ * operand as the first position of the pattern, so move(+(MEM,IMM),=0) is add word ptr [bp-2], 5.
+ * Leaves are imm, mem, reg, ind (an @ operand) and read (the value readint returns in bx).
+ * Every rule is priced by X86CostModel from the instructions it emits, in cycles on the target and then in bytes
+ * (bytes first when optimizing for size), and a dynamic program over the tree picks the cheapest covering. Rules that need an 80186 are only used on newer targets.
+ *
+ * The rules only use the scratch registers of the templates (ax, bx for @ operands and for imul, dx for imul),
+ * so the register allocator can rely on the clobbers it expects from the templates.
+ */
+public class InstructionSelector {
+    enum ENonterminal {
+        STMT, AX, IMM, MEM, REG, BXMEM
+    }
+
+    private static final List<Rule> rules = new ArrayList<>();
+
+    static {
+        // loads into ax
+        rule("load-imm", ENonterminal.AX, "IMM", "mov ax, $0");
+        rule("zero", ENonterminal.AX, "IMM", "xor ax, ax", ops -> isValue(ops[0], 0));
+        rule("load-mem", ENonterminal.AX, "MEM", "mov ax, $0");
+        rule("load-reg", ENonterminal.AX, "REG", "mov ax, $0");
+        rule("load-ind", ENonterminal.AX, "BXMEM", "mov ax, [bx]");
+        rule("pointer", ENonterminal.BXMEM, "ind", "mov bx, $0");
+        rule("read", ENonterminal.AX, "read", "call readint\nmov ax, bx");
+
+        // addition, both operand orders, an @ operand only as the second one because loading ax may change bx
+        for(String source : new String[]{"IMM", "MEM", "REG"}) {
+            rule("add", ENonterminal.AX, "+(AX," + source + ")", "add ax, $1");
+            rule("add", ENonterminal.AX, "+(" + source + ",AX)", "add ax, $0");
+        }
+        rule("add", ENonterminal.AX, "+(AX,BXMEM)", "add ax, [bx]");
+        rule("inc", ENonterminal.AX, "+(AX,IMM)", "inc ax", ops -> isValue(ops[1], 1));
+        rule("inc", ENonterminal.AX, "+(IMM,AX)", "inc ax", ops -> isValue(ops[0], 1));
+        rule("dec", ENonterminal.AX, "+(AX,IMM)", "dec ax", ops -> isValue(ops[1], -1));
+        rule("dec", ENonterminal.AX, "+(IMM,AX)", "dec ax", ops -> isValue(ops[0], -1));
+
+        // subtraction, the second operand is the one subtracted
+        for(String source : new String[]{"IMM", "MEM", "REG"})
+            rule("sub", ENonterminal.AX, "-(AX," + source + ")", "sub ax, $1");
+        rule("sub", ENonterminal.AX, "-(AX,BXMEM)", "sub ax, [bx]");
+        rule("dec", ENonterminal.AX, "-(AX,IMM)", "dec ax", ops -> isValue(ops[1], 1));
+        rule("inc", ENonterminal.AX, "-(AX,IMM)", "inc ax", ops -> isValue(ops[1], -1));
+
+        // multiplication, one operand imul writes dx:ax
+        rule("imul", ENonterminal.AX, "*(AX,REG)", "imul $1");
+        rule("imul", ENonterminal.AX, "*(REG,AX)", "imul $0");
+        rule("imul", ENonterminal.AX, "*(AX,MEM)", "imul $w1");
+        rule("imul", ENonterminal.AX, "*(MEM,AX)", "imul $w0");
+        rule("imul", ENonterminal.AX, "*(AX,BXMEM)", "imul word ptr [bx]");
+        rule("imul-imm", ENonterminal.AX, "*(AX,IMM)", "mov bx, $1\nimul bx");
+        rule("imul-imm", ENonterminal.AX, "*(IMM,AX)", "mov bx, $0\nimul bx");
+        rule186("imul-imm", ENonterminal.AX, "*(AX,IMM)", "imul ax, ax, $1");
+        rule186("imul-imm", ENonterminal.AX, "*(IMM,AX)", "imul ax, ax, $0");
+        rule186("imul-imm", ENonterminal.AX, "*(MEM,IMM)", "imul ax, $w0, $1");
+        rule186("imul-imm", ENonterminal.AX, "*(IMM,MEM)", "imul ax, $w1, $0");
+        rule186("imul-imm", ENonterminal.AX, "*(REG,IMM)", "imul ax, $0, $1");
+        rule186("imul-imm", ENonterminal.AX, "*(IMM,REG)", "imul ax, $1, $0");
+
+        rule("neg", ENonterminal.AX, "neg(AX)", "neg ax");
+
+        // stores
+        rule("store", ENonterminal.STMT, "move(AX,MEM)", "mov $1, ax");
+        rule("store", ENonterminal.STMT, "move(AX,REG)", "mov $1, ax");
+        rule("store", ENonterminal.STMT, "move(AX,BXMEM)", "mov [bx], ax");
+        rule("move", ENonterminal.STMT, "move(IMM,MEM)", "mov $w1, $0");
+        rule("move", ENonterminal.STMT, "move(IMM,BXMEM)", "mov word ptr [bx], $0");
+        rule("move", ENonterminal.STMT, "move(IMM,REG)", "mov $1, $0");
+        rule("move", ENonterminal.STMT, "move(MEM,REG)", "mov $1, $0");
+        rule("move", ENonterminal.STMT, "move(REG,REG)", "mov $1, $0");
+        rule("move", ENonterminal.STMT, "move(REG,MEM)", "mov $1, $0");
+        rule("move", ENonterminal.STMT, "move(REG,BXMEM)", "mov [bx], $0");
+        rule("move", ENonterminal.STMT, "move(BXMEM,REG)", "mov $1, [bx]");
+        rule("zero", ENonterminal.STMT, "move(IMM,REG)", "xor $1, $1", ops -> isValue(ops[0], 0));
+        rule("read", ENonterminal.STMT, "move(read,MEM)", "call readint\nmov $1, bx");
+        rule("read", ENonterminal.STMT, "move(read,REG)", "call readint\nmov $1, bx");
+
+        // x = x + y and x = -x change x in place
+        for(String place : new String[]{"MEM", "REG", "BXMEM"}) {
+            String x = place.equals("BXMEM") ? "word ptr [bx]" : "$w0";
+            rule("add-in-place", ENonterminal.STMT, "move(+(" + place + ",IMM),=0)", "add " + x + ", $1");
+            rule("inc-in-place", ENonterminal.STMT, "move(+(" + place + ",IMM),=0)", "inc " + x, ops -> isValue(ops[1], 1));
+            rule("dec-in-place", ENonterminal.STMT, "move(+(" + place + ",IMM),=0)", "dec " + x, ops -> isValue(ops[1], -1));
+            rule("add-in-place", ENonterminal.STMT, "move(+(" + place + ",REG),=0)", "add " + (place.equals("BXMEM") ? "[bx]" : "$0") + ", $1");
+            rule("neg-in-place", ENonterminal.STMT, "move(neg(" + place + "),=0)", "neg " + x);
+            rule("sub-in-place", ENonterminal.STMT, "move(-(" + place + ",IMM),=0)", "sub " + x + ", $1");
+            rule("dec-in-place", ENonterminal.STMT, "move(-(" + place + ",IMM),=0)", "dec " + x, ops -> isValue(ops[1], 1));
+            rule("inc-in-place", ENonterminal.STMT, "move(-(" + place + ",IMM),=0)", "inc " + x, ops -> isValue(ops[1], -1));
+            rule("sub-in-place", ENonterminal.STMT, "move(-(" + place + ",REG),=0)", "sub " + (place.equals("BXMEM") ? "[bx]" : "$0") + ", $1");
+        }
+        for(String place : new String[]{"MEM", "REG"}) {
+            rule("add-in-place", ENonterminal.STMT, "move(+(IMM," + place + "),=1)", "add " + (place.equals("MEM") ? "$w1" : "$1") + ", $0");
+            rule("inc-in-place", ENonterminal.STMT, "move(+(IMM," + place + "),=1)", "inc " + (place.equals("MEM") ? "$w1" : "$1"), ops -> isValue(ops[0], 1));
+            rule("dec-in-place", ENonterminal.STMT, "move(+(IMM," + place + "),=1)", "dec " + (place.equals("MEM") ? "$w1" : "$1"), ops -> isValue(ops[0], -1));
+            rule("add-in-place", ENonterminal.STMT, "move(+(REG," + place + "),=1)", "add $1, $0");
+        }
+        rule("add-in-place", ENonterminal.STMT, "move(+(REG,MEM),=0)", "add $0, $1");
+        rule("add-in-place", ENonterminal.STMT, "move(+(MEM,REG),=1)", "add $1, $0");
+
+        // results computed in the register of x, the second operand must not be that register
+        for(String first : new String[]{"IMM", "MEM", "REG"}) {
+            for(String second : new String[]{"IMM", "MEM", "REG"}) {
+                if(!first.equals("IMM") || !second.equals("IMM"))
+                    rule("add-to-reg", ENonterminal.STMT, "move(+(" + first + "," + second + "),REG)", "mov $2, $0\nadd $2, $1", ops -> !ops[1].equals(ops[2]));
+                if(!first.equals("IMM") || !second.equals("IMM"))
+                    rule("sub-to-reg", ENonterminal.STMT, "move(-(" + first + "," + second + "),REG)", "mov $2, $0\nsub $2, $1", ops -> !ops[1].equals(ops[2]));
+            }
+        }
+        for(String first : new String[]{"MEM", "REG"}) {
+            rule("inc-to-reg", ENonterminal.STMT, "move(+(" + first + ",IMM),REG)", "mov $2, $0\ninc $2", ops -> isValue(ops[1], 1));
+            rule("dec-to-reg", ENonterminal.STMT, "move(+(" + first + ",IMM),REG)", "mov $2, $0\ndec $2", ops -> isValue(ops[1], -1));
+        }
+        rule("neg-to-reg", ENonterminal.STMT, "move(neg(MEM),REG)", "mov $1, $0\nneg $1");
+        rule("neg-to-reg", ENonterminal.STMT, "move(neg(REG),REG)", "mov $1, $0\nneg $1");
+
+        // arguments and output
+        rule("push", ENonterminal.STMT, "push(AX)", "push ax");
+        rule("push", ENonterminal.STMT, "push(REG)", "push $0");
+        rule("push", ENonterminal.STMT, "push(MEM)", "push $w0");
+        rule("push", ENonterminal.STMT, "push(BXMEM)", "push word ptr [bx]");
+        rule186("push-imm", ENonterminal.STMT, "push(IMM)", "push $0");
+        rule("write", ENonterminal.STMT, "wri(AX)", "call writeint");
+    }
+
+    private ETargetCpu target;
+    // compare costs in bytes before cycles
+    private boolean size;
+    // rule name -> number of times it was used
+    private LinkedHashMap<String, Integer> used = new LinkedHashMap<>();
+    public int statements;
+    public int instructionsBefore;
+    public int instructionsAfter;
+    public int cyclesBefore;
+    public int cyclesAfter;
+    public int bytesBefore;
+    public int bytesAfter;
+
+    public InstructionSelector(ETargetCpu target) {
+        this(target, false);
+    }
+
+    public InstructionSelector(ETargetCpu target, boolean size) {
+        this.target = target;
+        this.size = size;
+        for(Rule rule : rules)
+            used.put(rule.name, 0);
+    }
+
+    public Map<String, Integer> getUsed() {
+        return used;
+    }
+
+    /**
+     * Selects the instructions of a statement, in the text format of x86Templates.
+     * @param tree statement, see move, push and write
+     * @param template the code of the templates for the statement, returned if the rules do not cover the tree
+     *                 or are not cheaper, and counted in the before figures
+     */
+    public String select(Node tree, String template) {
+        label(tree);
+        List<AsmInstruction> templateCode = parse(template);
+        Cost templateCost = cost(templateCode);
+        Cost best = tree.costs.get(ENonterminal.STMT);
+
+        String code = template;
+        if(best != null && compare(best, templateCost) <= 0) {
+            StringBuilder builder = new StringBuilder();
+            reduce(tree, ENonterminal.STMT, builder);
+            code = builder.substring(0, builder.length() - 1);
+        }
+        List<AsmInstruction> selected = parse(code);
+        statements++;
+        instructionsBefore += X86CostModel.countInstructions(templateCode);
+        instructionsAfter += X86CostModel.countInstructions(selected);
+        cyclesBefore += templateCost.cycles;
+        bytesBefore += templateCost.bytes;
+        cyclesAfter += X86CostModel.cycles(selected, target);
+        bytesAfter += X86CostModel.bytes(selected);
+        return code;
+    }
+
+    // operand in the format of x86Templates: literal, variable, [bp-2], register or @ operand
+    public static Node operand(String var) {
+        if(var.charAt(0) == '@')
+            return new Node("ind", var.substring(1));
+        if(x86Templates.isRegister(var))
+            return new Node("reg", var);
+        if(TacInstruction.isLiteral(var))
+            return new Node("imm", var);
+        return new Node("mem", var);
+    }
+
+    public static Node read() {
+        return new Node("read", null);
+    }
+
+    public static Node binary(String operator, Node left, Node right) {
+        return new Node(operator, null, left, right);
+    }
+
+    public static Node neg(Node value) {
+        return new Node("neg", null, value);
+    }
+
+    // value is stored in destination
+    public static Node move(Node value, Node destination) {
+        return new Node("move", null, value, destination);
+    }
+
+    public static Node push(Node value) {
+        return new Node("push", null, value);
+    }
+
+    public static Node write(Node value) {
+        return new Node("wri", null, value);
+    }
+
+    // finds the cheapest rule for every nonterminal of every node, children first
+    private void label(Node node) {
+        for(Node child : node.children)
+            label(child);
+        if(node.op.equals("imm"))
+            node.costs.put(ENonterminal.IMM, new Cost(0, 0));
+        else if(node.op.equals("mem"))
+            node.costs.put(ENonterminal.MEM, new Cost(0, 0));
+        else if(node.op.equals("reg"))
+            node.costs.put(ENonterminal.REG, new Cost(0, 0));
+
+        for(Rule rule : rules) {
+            if(rule.pattern.nonterminal == null)
+                tryRule(rule, node);
+        }
+        // chain rules such as AX <- MEM, until none of them makes a nonterminal cheaper
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(Rule rule : rules) {
+                if(rule.pattern.nonterminal != null)
+                    changed |= tryRule(rule, node);
+            }
+        }
+    }
+
+    // true if the rule covers node more cheaply than the rules tried before
+    private boolean tryRule(Rule rule, Node node) {
+        if(rule.needs186 && target == ETargetCpu.i8086)
+            return false;
+        ArrayList<Position> positions = new ArrayList<>();
+        if(!match(rule.pattern, node, positions))
+            return false;
+        String[] texts = texts(positions);
+        if(rule.guard != null && !rule.guard.test(texts))
+            return false;
+
+        Cost cost = cost(parse(rule.instantiate(texts)));
+        for(Position position : positions) {
+            if(!position.repeated && position.nonterminal != null)
+                cost = cost.plus(position.node.costs.get(position.nonterminal));
+        }
+        Cost old = node.costs.get(rule.result);
+        if(old != null && compare(old, cost) <= 0)
+            return false;
+        node.costs.put(rule.result, cost);
+        node.rules.put(rule.result, rule);
+        return true;
+    }
+
+    // emits the code of node as nonterminal, the operands of a tile in pattern order and then the tile itself
+    private void reduce(Node node, ENonterminal nonterminal, StringBuilder code) {
+        Rule rule = node.rules.get(nonterminal);
+        if(rule == null)
+            return;
+        ArrayList<Position> positions = new ArrayList<>();
+        match(rule.pattern, node, positions);
+        for(Position position : positions) {
+            if(!position.repeated && position.nonterminal != null)
+                reduce(position.node, position.nonterminal, code);
+        }
+        code.append(rule.instantiate(texts(positions)));
+        used.put(rule.name, used.get(rule.name) + 1);
+    }
+
+    private static boolean match(Pattern pattern, Node node, List<Position> positions) {
+        if(pattern.same >= 0) {
+            Position first = positions.get(pattern.same);
+            if(!first.node.isSameLeaf(node))
+                return false;
+            positions.add(new Position(node, first.nonterminal, true));
+            return true;
+        }
+        if(pattern.nonterminal != null) {
+            if(!node.costs.containsKey(pattern.nonterminal))
+                return false;
+            positions.add(new Position(node, pattern.nonterminal, false));
+            return true;
+        }
+        if(!pattern.op.equals(node.op) || pattern.children.length != node.children.length)
+            return false;
+        if(pattern.children.length == 0) {
+            positions.add(new Position(node, null, false));
+            return true;
+        }
+        for(int i = 0; i < pattern.children.length; i++) {
+            if(!match(pattern.children[i], node.children[i], positions))
+                return false;
+        }
+        return true;
+    }
+
+    private static String[] texts(List<Position> positions) {
+        String[] texts = new String[positions.size()];
+        for(int i = 0; i < texts.length; i++) {
+            Position position = positions.get(i);
+            if(position.nonterminal == ENonterminal.AX)
+                texts[i] = "ax";
+            else if(position.nonterminal == ENonterminal.BXMEM)
+                texts[i] = "[bx]";
+            else
+                texts[i] = position.node.operand;
+        }
+        return texts;
+    }
+
+    private Cost cost(List<AsmInstruction> code) {
+        return new Cost(X86CostModel.cycles(code, target), X86CostModel.bytes(code));
+    }
+
+    private static List<AsmInstruction> parse(String code) {
+        List<AsmInstruction> instructions = new ArrayList<>();
+        for(String line : code.split("\n"))
+            instructions.add(AsmInstruction.parse(line));
+        return instructions;
+    }
+
+    private static boolean isValue(String operand, int value) {
+        return TacInstruction.isLiteral(operand) && TacInstruction.literalValue(operand) == value;
+    }
+
+    private static void rule(String name, ENonterminal result, String pattern, String instructions) {
+        rules.add(new Rule(name, result, pattern, instructions, null, false));
+    }
+
+    private static void rule(String name, ENonterminal result, String pattern, String instructions, Predicate<String[]> guard) {
+        rules.add(new Rule(name, result, pattern, instructions, guard, false));
+    }
+
+    private static void rule186(String name, ENonterminal result, String pattern, String instructions) {
+        rules.add(new Rule(name, result, pattern, instructions, null, true));
+    }
+
+    // a node of a statement tree, with the cheapest known cost and rule for every nonterminal
+    public static class Node {
+        String op;
+        String operand;
+        Node[] children;
+        EnumMap<ENonterminal, Cost> costs = new EnumMap<>(ENonterminal.class);
+        EnumMap<ENonterminal, Rule> rules = new EnumMap<>(ENonterminal.class);
+
+        Node(String op, String operand, Node... children) {
+            this.op = op;
+            this.operand = operand;
+            this.children = children;
+        }
+
+        boolean isSameLeaf(Node other) {
+            return children.length == 0 && op.equals(other.op) && operand != null && operand.equals(other.operand);
+        }
+    }
+
+    static class Rule {
+        String name;
+        ENonterminal result;
+        Pattern pattern;
+        // lines of the tile, $k is the operand at position k of the pattern, $wk the same with word ptr if it needs a size
+        String[] instructions;
+        Predicate<String[]> guard;
+        boolean needs186;
+
+        Rule(String name, ENonterminal result, String pattern, String instructions, Predicate<String[]> guard, boolean needs186) {
+            this.name = name;
+            this.result = result;
+            this.pattern = new Pattern(pattern);
+            this.instructions = instructions.split("\n");
+            this.guard = guard;
+            this.needs186 = needs186;
+        }
+
+        String instantiate(String[] texts) {
+            StringBuilder code = new StringBuilder();
+            for(String line : instructions) {
+                StringBuilder instruction = new StringBuilder("\t\t");
+                for(int i = 0; i < line.length(); i++) {
+                    char c = line.charAt(i);
+                    if(c == '$' && line.charAt(i + 1) == 'w') {
+                        instruction.append(PeepholeOptimizer.sized(texts[line.charAt(i + 2) - '0']));
+                        i += 2;
+                    } else if(c == '$') {
+                        instruction.append(texts[line.charAt(i + 1) - '0']);
+                        i++;
+                    } else {
+                        instruction.append(c);
+                    }
+                }
+                code.append(instruction).append("\n");
+            }
+            return code.toString();
+        }
+    }
+
+    // an operator with operand patterns, a leaf opcode, a nonterminal or =k
+    static class Pattern {
+        String op;
+        ENonterminal nonterminal;
+        int same = -1;
+        Pattern[] children = new Pattern[0];
+        private int end;
+
+        Pattern(String text) {
+            this(text, 0);
+        }
+
+        private Pattern(String text, int start) {
+            int i = start;
+            while(i < text.length() && "(),".indexOf(text.charAt(i)) < 0)
+                i++;
+            String name = text.substring(start, i);
+            if(name.startsWith("="))
+                same = Integer.parseInt(name.substring(1));
+            else if(Character.isUpperCase(name.charAt(0)))
+                nonterminal = ENonterminal.valueOf(name);
+            else
+                op = name;
+
+            if(i < text.length() && text.charAt(i) == '(') {
+                ArrayList<Pattern> operands = new ArrayList<>();
+                do {
+                    Pattern operand = new Pattern(text, i + 1);
+                    operands.add(operand);
+                    i = operand.end;
+                } while(text.charAt(i) == ',');
+                i++; // )
+                children = operands.toArray(new Pattern[0]);
+            }
+            end = i;
+        }
+    }
+
+    // a part of the tree a pattern position matched, repeated for =k
+    private static class Position {
+        Node node;
+        ENonterminal nonterminal;
+        boolean repeated;
+
+        Position(Node node, ENonterminal nonterminal, boolean repeated) {
+            this.node = node;
+            this.nonterminal = nonterminal;
+            this.repeated = repeated;
+        }
+    }
+
+    // cycles on the target, then bytes, or bytes first when optimizing for size
+    private int compare(Cost a, Cost b) {
+        if(size && a.bytes != b.bytes)
+            return Integer.compare(a.bytes, b.bytes);
+        return a.cycles != b.cycles ? Integer.compare(a.cycles, b.cycles) : Integer.compare(a.bytes, b.bytes);
+    }
+
+    static class Cost {
+        int cycles;
+        int bytes;
+
+        Cost(int cycles, int bytes) {
+            this.cycles = cycles;
+            this.bytes = bytes;
+        }
+
+        Cost plus(Cost other) {
+            return new Cost(cycles + other.cycles, bytes + other.bytes);
+        }
+    }
+}
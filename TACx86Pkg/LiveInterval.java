@@ -0,0 +1,63 @@
+package TACx86Pkg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Live range of a private operand in the body of one procedure.
+ * The TAC has no jumps, so the range is an interval of instruction positions, from the first assignment
+ * to the last read. start is -1 if the operand is read before the procedure assigns it.
+ */
+public class LiveInterval {
+    public String operand;
+    public int start;
+    public int end;
+
+    public LiveInterval(String operand, int start) {
+        this.operand = operand;
+        this.start = start;
+        this.end = start;
+    }
+
+    // intervals of every private operand of the body, in the order of their first use
+    public static LinkedHashMap<String, LiveInterval> compute(List<TacInstruction> body) {
+        return compute(body, Collections.emptySet());
+    }
+
+    // intervals of every private operand and of the given parameters, a parameter the body reads first starts at -1
+    public static LinkedHashMap<String, LiveInterval> compute(List<TacInstruction> body, Set<String> parameters) {
+        LinkedHashMap<String, LiveInterval> intervals = new LinkedHashMap<>();
+        ArrayList<String> reads = new ArrayList<>(4);
+        for(int position = 0; position < body.size(); position++) {
+            TacInstruction instruction = body.get(position);
+            reads.clear();
+            instruction.collectReads(reads);
+            for(String operand : reads)
+                extend(intervals, operand, position, -1, parameters);
+
+            String definition = instruction.getDefinition();
+            if(definition != null && !TacInstruction.isReference(definition))
+                extend(intervals, definition, position, position, parameters);
+        }
+        return intervals;
+    }
+
+    private static void extend(LinkedHashMap<String, LiveInterval> intervals, String operand, int position, int start, Set<String> parameters) {
+        if(!TacInstruction.isPrivate(operand) && !parameters.contains(operand))
+            return;
+        LiveInterval interval = intervals.get(operand);
+        if(interval == null) {
+            interval = new LiveInterval(operand, start);
+            intervals.put(operand, interval);
+        }
+        interval.end = Math.max(interval.end, position);
+    }
+
+    @Override
+    public String toString() {
+        return operand + " [" + start + ", " + end + "]";
+    }
+}
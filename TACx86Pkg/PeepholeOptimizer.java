@@ -0,0 +1,157 @@
+package TACx86Pkg;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs rewrite rules over the generated assembly until none of them applies any more.
+ * Rules see the code as AsmInstruction objects, comments and blank lines between two instructions are skipped,
+ * procedure labels and directives stop every pattern.
+ * When no rule applies any more, the saves of si and di that no other instruction of their procedure uses are removed.
+ */
+public class PeepholeOptimizer {
+    private List<PeepholeRule> rules;
+    // rule name -> number of rewrites
+    private LinkedHashMap<String, Integer> fired = new LinkedHashMap<>();
+
+    public PeepholeOptimizer(List<PeepholeRule> rules) {
+        this.rules = rules;
+        for(PeepholeRule rule : rules)
+            fired.put(rule.getName(), 0);
+        fired.put("unused-save", 0);
+    }
+
+    public void run(List<AsmInstruction> code) {
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(int i = 0; i < code.size(); i++) {
+                for(PeepholeRule rule : rules) {
+                    if(i < code.size() && code.get(i).isInstruction() && rule.apply(code, i)) {
+                        fired.put(rule.getName(), fired.get(rule.getName()) + 1);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        fired.put("unused-save", fired.get("unused-save") + removeUnusedSaves(code));
+    }
+
+    /**
+     * The register allocator saves si and di in every procedure it allocates them in, before the rules can replace
+     * every use of the register, so a procedure can end up pushing and popping a register it no longer changes.
+     * Procedures are the code between two labels, they are walked from the last one so removals keep the indices.
+     * @return number of registers whose push and pops were removed
+     */
+    private static int removeUnusedSaves(List<AsmInstruction> code) {
+        int removed = 0;
+        int end = code.size();
+        for(int start = code.size() - 1; start >= -1; start--) {
+            if(start >= 0 && code.get(start).type != EAsmLineType.label)
+                continue;
+            for(String register : new String[]{"si", "di"}) {
+                int saves = removeUnusedSave(code, start + 1, end, register);
+                if(saves > 0)
+                    removed++;
+                end -= saves;
+            }
+            end = start;
+        }
+        return removed;
+    }
+
+    // removes push register and pop register from code[from, to) if nothing else there uses register, returns how many
+    private static int removeUnusedSave(List<AsmInstruction> code, int from, int to, String register) {
+        ArrayList<Integer> saves = new ArrayList<>();
+        for(int i = from; i < to; i++) {
+            AsmInstruction line = code.get(i);
+            if(!line.isInstruction())
+                continue;
+            if((line.is("push") || line.is("pop")) && register.equals(line.operand(0)))
+                saves.add(i);
+            else if(line.registersRead().contains(register) || line.registersWritten().contains(register))
+                return 0;
+        }
+        for(int i = saves.size() - 1; i >= 0; i--)
+            code.remove((int) saves.get(i));
+        return saves.size();
+    }
+
+    public Map<String, Integer> getFired() {
+        return fired;
+    }
+
+    // index of the first instruction after index, or -1 if a label, a directive or the end of the code comes first
+    static int nextInstruction(List<AsmInstruction> code, int index) {
+        for(int i = index + 1; i < code.size(); i++) {
+            AsmInstruction line = code.get(i);
+            if(line.isInstruction())
+                return i;
+            if(line.type != EAsmLineType.comment && line.type != EAsmLineType.blank)
+                return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * True if no instruction after index reads register before writing it.
+     * Registers do not carry values out of a procedure, so ret and the end of the procedure end the search.
+     * A jump or an interrupt keeps the register alive.
+     */
+    static boolean isDeadAfter(List<AsmInstruction> code, int index, String register) {
+        for(int i = index + 1; i < code.size(); i++) {
+            AsmInstruction line = code.get(i);
+            if(line.type == EAsmLineType.label || line.type == EAsmLineType.directive)
+                return true;
+            if(!line.isInstruction())
+                continue;
+            if(line.registersRead().contains(register))
+                return false;
+            if(line.registersWritten().contains(register) || line.is("ret"))
+                return true;
+            if(line.is("jmp") || line.is("int"))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * True if the memory operands a and b can be the same word.
+     * Variables are distinct from each other and from the frame, frame slots are distinct if their offsets are
+     * at least a word apart, anything addressed through bx, si or di can be anything.
+     */
+    static boolean mayAlias(String a, String b) {
+        a = stripPtr(a);
+        b = stripPtr(b);
+        if(a.equals(b))
+            return true;
+        boolean aFrame = isFrameOperand(a);
+        boolean bFrame = isFrameOperand(b);
+        boolean aVariable = !a.contains("[");
+        boolean bVariable = !b.contains("[");
+        if(aFrame && bFrame)
+            return Math.abs(frameOffset(a) - frameOffset(b)) < 2;
+        if((aFrame || aVariable) && (bFrame || bVariable))
+            return false;
+        return true;
+    }
+
+    static String stripPtr(String operand) {
+        return operand.startsWith("word ptr ") ? operand.substring(9) : operand;
+    }
+
+    private static boolean isFrameOperand(String operand) {
+        return operand.matches("\\[bp[+-]\\d+\\]");
+    }
+
+    private static int frameOffset(String operand) {
+        return Integer.parseInt(operand.substring(3, operand.length() - 1).replace("+", ""));
+    }
+
+    // memory operand with an immediate source needs its size spelled out unless it is a declared variable
+    static String sized(String memory) {
+        return memory.contains("[") && !memory.startsWith("word ptr ") ? "word ptr " + memory : memory;
+    }
+}
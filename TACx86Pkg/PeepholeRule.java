@@ -0,0 +1,16 @@
+package TACx86Pkg;
+
+import java.util.List;
+
+/**
+ * A rewrite of a short sequence of instructions, see PeepholeOptimizer.
+ */
+public interface PeepholeRule {
+    String getName();
+
+    /**
+     * Tries to rewrite the instructions starting at code.get(index), which is an instruction.
+     * @return true if the rule changed code
+     */
+    boolean apply(List<AsmInstruction> code, int index);
+}
@@ -0,0 +1,291 @@
+package TACx86Pkg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static TACx86Pkg.PeepholeOptimizer.isDeadAfter;
+import static TACx86Pkg.PeepholeOptimizer.mayAlias;
+import static TACx86Pkg.PeepholeOptimizer.nextInstruction;
+import static TACx86Pkg.PeepholeOptimizer.sized;
+
+/**
+ * The rules of the peephole optimizer. A rule that replaces instructions by others checks with X86CostModel
+ * that the replacement is not slower on the target.
+ */
+public class PeepholeRules {
+    private PeepholeRules() {
+    }
+
+    public static List<PeepholeRule> all(ETargetCpu target) {
+        List<PeepholeRule> rules = new ArrayList<>();
+        rules.add(new ZeroFrame());
+        rules.add(new SelfMove());
+        rules.add(new StoreLoad());
+        rules.add(new RedundantLoad());
+        rules.add(new DeadMove());
+        rules.add(new PushDirect(target));
+        rules.add(new MoveThrough());
+        rules.add(new InPlace(target));
+        return rules;
+    }
+
+    // sub sp, 0 and add sp, 0 in procedures without local variables
+    static class ZeroFrame implements PeepholeRule {
+        public String getName() {
+            return "zero-frame";
+        }
+
+        public boolean apply(List<AsmInstruction> code, int index) {
+            AsmInstruction instruction = code.get(index);
+            if((instruction.is("sub") || instruction.is("add")) && "sp".equals(instruction.operand(0)) && "0".equals(instruction.operand(1))) {
+                code.remove(index);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // mov cx, cx
+    static class SelfMove implements PeepholeRule {
+        public String getName() {
+            return "self-move";
+        }
+
+        public boolean apply(List<AsmInstruction> code, int index) {
+            AsmInstruction instruction = code.get(index);
+            if(instruction.is("mov") && instruction.operand(0).equals(instruction.operand(1))) {
+                code.remove(index);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // mov x, ax followed by mov ax, x drops the load, mov x, ax followed by mov bx, x loads bx from ax
+    static class StoreLoad implements PeepholeRule {
+        public String getName() {
+            return "store-load";
+        }
+
+        public boolean apply(List<AsmInstruction> code, int index) {
+            AsmInstruction store = code.get(index);
+            int next = nextInstruction(code, index);
+            if(!store.is("mov") || next < 0 || !code.get(next).is("mov"))
+                return false;
+            AsmInstruction load = code.get(next);
+            String place = store.operand(0);
+            String value = store.operand(1);
+            if(!load.operand(1).equals(place) || place.equals(value))
+                return false;
+
+            if(load.operand(0).equals(value)) {
+                code.remove(next);
+                return true;
+            }
+            // a register source can go anywhere, an immediate only to a register
+            if(AsmInstruction.isRegister(value) || (AsmInstruction.isImmediate(value) && AsmInstruction.isRegister(load.operand(0)))) {
+                load.setOperands(load.operand(0), value);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * mov bx, x when an earlier mov bx, x or mov x, bx of the same block left x in bx and nothing changed
+     * bx, x or the registers that address x since.
+     */
+    static class RedundantLoad implements PeepholeRule {
+        public String getName() {
+            return "redundant-load";
+        }
+
+        public boolean apply(List<AsmInstruction> code, int index) {
+            AsmInstruction load = code.get(index);
+            if(!load.is("mov") || !AsmInstruction.isRegister(load.operand(0)))
+                return false;
+            String register = load.operand(0);
+            String value = load.operand(1);
+            if(AsmInstruction.addressRegisters(value).contains(register) || register.equals(value))
+                return false;
+
+            for(int i = index - 1; i >= 0; i--) {
+                AsmInstruction line = code.get(i);
+                if(line.endsBlock())
+                    return false;
+                if(!line.isInstruction())
+                    continue;
+
+                if(line.is("mov") && ((line.operand(0).equals(register) && line.operand(1).equals(value)) ||
+                        (line.operand(0).equals(value) && line.operand(1).equals(register)))) {
+                    code.remove(index);
+                    return true;
+                }
+                if(line.registersWritten().contains(register) || changes(line, value))
+                    return false;
+            }
+            return false;
+        }
+
+        // true if line can change the value of operand
+        private static boolean changes(AsmInstruction line, String operand) {
+            if(AsmInstruction.isRegister(operand))
+                return line.registersWritten().contains(AsmInstruction.register(operand));
+            if(!AsmInstruction.isMemory(operand))
+                return false;
+            for(String register : AsmInstruction.addressRegisters(operand)) {
+                if(line.registersWritten().contains(register))
+                    return true;
+            }
+            if(!line.writesMemory())
+                return false;
+            boolean destinationIsMemory = AsmInstruction.isMemory(line.operand(0));
+            if(line.is("xchg") && AsmInstruction.isMemory(line.operand(1)))
+                return mayAlias(line.operand(1), operand) || (destinationIsMemory && mayAlias(line.operand(0), operand));
+            return !destinationIsMemory || mayAlias(line.operand(0), operand);
+        }
+    }
+
+    // mov r, x whose value nobody reads before r is written again
+    static class DeadMove implements PeepholeRule {
+        public String getName() {
+            return "dead-move";
+        }
+
+        public boolean apply(List<AsmInstruction> code, int index) {
+            AsmInstruction instruction = code.get(index);
+            if(!(instruction.is("mov") || instruction.is("lea")) || !AsmInstruction.isRegister(instruction.operand(0)))
+                return false;
+            if(!isDeadAfter(code, index, AsmInstruction.register(instruction.operand(0))))
+                return false;
+            code.remove(index);
+            return true;
+        }
+    }
+
+    // mov ax, x followed by push ax pushes x, the 8086 can not push an immediate
+    static class PushDirect implements PeepholeRule {
+        private ETargetCpu target;
+
+        PushDirect(ETargetCpu target) {
+            this.target = target;
+        }
+
+        public String getName() {
+            return "push-direct";
+        }
+
+        public boolean apply(List<AsmInstruction> code, int index) {
+            AsmInstruction load = code.get(index);
+            int next = nextInstruction(code, index);
+            if(!load.is("mov") || next < 0 || !code.get(next).is("push"))
+                return false;
+            String register = load.operand(0);
+            String value = load.operand(1);
+            if(!AsmInstruction.isRegister(register) || !register.equals(code.get(next).operand(0)))
+                return false;
+            if(AsmInstruction.isImmediate(value) && target == ETargetCpu.i8086)
+                return false;
+            if(!isDeadAfter(code, next, register))
+                return false;
+
+            code.get(next).setOperands(AsmInstruction.isImmediate(value) || AsmInstruction.isRegister(value) ? value : sized(value));
+            code.remove(index);
+            return true;
+        }
+    }
+
+    // mov ax, x followed by mov y, ax moves x to y directly when one of them is a register or x is an immediate
+    static class MoveThrough implements PeepholeRule {
+        public String getName() {
+            return "move-through";
+        }
+
+        public boolean apply(List<AsmInstruction> code, int index) {
+            AsmInstruction load = code.get(index);
+            int next = nextInstruction(code, index);
+            if(!load.is("mov") || next < 0 || !code.get(next).is("mov"))
+                return false;
+            AsmInstruction store = code.get(next);
+            String register = load.operand(0);
+            String value = load.operand(1);
+            String destination = store.operand(0);
+            if(!AsmInstruction.isRegister(register) || !register.equals(store.operand(1)) || destination.equals(register))
+                return false;
+            // segment registers are only loaded from a register or memory
+            if(!AsmInstruction.isRegister(destination) && !AsmInstruction.isMemory(destination))
+                return false;
+            if(AsmInstruction.addressRegisters(destination).contains(register))
+                return false;
+            if(AsmInstruction.isMemory(value) && AsmInstruction.isMemory(destination))
+                return false;
+            if(!isDeadAfter(code, next, register))
+                return false;
+
+            store.setOperands(AsmInstruction.isImmediate(value) && AsmInstruction.isMemory(destination) ? sized(destination) : destination, value);
+            code.remove(index);
+            return true;
+        }
+    }
+
+    /**
+     * mov ax, x / add ax, y / mov x, ax becomes add x, y and mov ax, x / neg ax / mov x, ax becomes neg x,
+     * if ax is not read afterwards and the target does not run the result slower.
+     */
+    static class InPlace implements PeepholeRule {
+        private ETargetCpu target;
+
+        InPlace(ETargetCpu target) {
+            this.target = target;
+        }
+
+        public String getName() {
+            return "in-place";
+        }
+
+        public boolean apply(List<AsmInstruction> code, int index) {
+            AsmInstruction load = code.get(index);
+            int second = nextInstruction(code, index);
+            int third = second < 0 ? -1 : nextInstruction(code, second);
+            if(!load.is("mov") || third < 0 || !code.get(third).is("mov"))
+                return false;
+            AsmInstruction operation = code.get(second);
+            AsmInstruction store = code.get(third);
+            String register = load.operand(0);
+            String place = load.operand(1);
+            if(!AsmInstruction.isRegister(register) || AsmInstruction.isImmediate(place) || !store.operand(0).equals(place) || !register.equals(store.operand(1)))
+                return false;
+            if(!operation.isInstruction() || !register.equals(operation.operand(0)))
+                return false;
+
+            AsmInstruction replacement;
+            switch (operation.mnemonic) {
+                case "add": case "sub": case "and": case "or": case "xor": {
+                    String source = operation.operand(1);
+                    if(source.equals(register) || (AsmInstruction.isMemory(place) && AsmInstruction.isMemory(source)))
+                        return false;
+                    if(AsmInstruction.addressRegisters(place).contains(register))
+                        return false;
+                    replacement = new AsmInstruction(operation.mnemonic, AsmInstruction.isImmediate(source) ? sized(place) : place, source);
+                    break;
+                }
+                case "neg": case "not":
+                    replacement = new AsmInstruction(operation.mnemonic, sized(place));
+                    break;
+                default:
+                    return false;
+            }
+            if(!isDeadAfter(code, third, register))
+                return false;
+
+            int before = X86CostModel.cycles(load, target) + X86CostModel.cycles(operation, target) + X86CostModel.cycles(store, target);
+            if(X86CostModel.cycles(replacement, target) > before)
+                return false;
+
+            code.set(third, replacement);
+            code.remove(second);
+            code.remove(index);
+            return true;
+        }
+    }
+}
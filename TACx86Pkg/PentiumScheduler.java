@@ -0,0 +1,379 @@
+package TACx86Pkg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * List scheduling of the generated assembly for the two pipelines of the Pentium.
+ *
+ * The Pentium issues two instructions in one clock when the first one can go to the U pipe, the second one to the
+ * V pipe, and the second one does not depend on the first:
+ *  class   instructions
+ *  UV      mov, lea, nop, push and pop of a register or immediate, add, sub, and, or, xor, cmp, test, inc, dec
+ *  PU      adc, sbb, shifts and rotates by an immediate, only in the U pipe
+ *  NP      everything else (imul, neg, xchg, cwd, push of memory ...) and every instruction with both a
+ *          displacement and an immediate, such as mov _A, 7
+ * The pair takes as long as its slower instruction. An instruction that addresses memory through a register the
+ * clock before wrote waits one clock more (address generation interlock).
+ *
+ * Blocks are the instructions between labels, calls, returns and jumps. Inside a block an instruction depends on an
+ * earlier one that writes a register it reads or writes, or reads a register it writes, and on earlier memory
+ * accesses that may be the same word (PeepholeOptimizer.mayAlias) when one of the two writes it. push and pop
+ * access the stack, which may be any word. The flags only count when the block has an instruction that reads them.
+ * The scheduler issues the ready instruction with the longest path of cycles to the end of the block first, with the
+ * ready instruction that pairs with it, or as the partner of one that pairs with it. A block keeps its order unless
+ * the new one is estimated faster. The comments of a statement move with the instruction that follows them.
+ */
+public class PentiumScheduler {
+    private static final Set<String> scheduled = new HashSet<>(Arrays.asList("mov", "lea", "nop", "add", "sub", "and", "or", "xor",
+            "adc", "sbb", "cmp", "test", "neg", "not", "inc", "dec", "shl", "sal", "shr", "sar", "rol", "ror",
+            "imul", "mul", "idiv", "div", "cwd", "xchg", "push", "pop"));
+
+    enum EPairing {
+        UV, PU, NP
+    }
+
+    // procedure -> estimated cycles before and after
+    private LinkedHashMap<String, int[]> procedures = new LinkedHashMap<>();
+    public int cyclesBefore;
+    public int cyclesAfter;
+    public int pairsBefore;
+    public int pairsAfter;
+    public int blocks;
+    public int reordered;
+
+    public void run(List<AsmInstruction> code) {
+        Timing before = estimate(code);
+        cyclesBefore = before.cycles;
+        pairsBefore = before.pairs;
+
+        int start = 0;
+        while(start < code.size()) {
+            int end = start;
+            while(end < code.size() && !isBoundary(code.get(end)))
+                end++;
+            schedule(code.subList(start, end));
+            start = end + 1;
+        }
+
+        Timing after = estimate(code);
+        cyclesAfter = after.cycles;
+        pairsAfter = after.pairs;
+        for(String procedure : before.procedures.keySet())
+            procedures.put(procedure, new int[]{before.procedures.get(procedure), after.procedures.getOrDefault(procedure, 0)});
+    }
+
+    // procedure -> estimated cycles before and after scheduling
+    public LinkedHashMap<String, int[]> getProcedures() {
+        return procedures;
+    }
+
+    // a line that ends a block: labels, directives, calls, returns, jumps and instructions the model does not know
+    private static boolean isBoundary(AsmInstruction line) {
+        if(!line.isInstruction())
+            return line.type != EAsmLineType.comment && line.type != EAsmLineType.blank;
+        return line.endsBlock() || line.is("call") || !scheduled.contains(line.mnemonic);
+    }
+
+    // an instruction of a block with the lines before it and what it reads and writes
+    private static class Node {
+        AsmInstruction instruction;
+        List<AsmInstruction> comments = new ArrayList<>();
+        int index;
+        int cycles;
+        HashSet<String> reads = new HashSet<>();
+        HashSet<String> writes = new HashSet<>();
+        ArrayList<String> memoryReads = new ArrayList<>();
+        ArrayList<String> memoryWrites = new ArrayList<>();
+        ArrayList<Node> successors = new ArrayList<>();
+        int predecessors;
+        // cycles of the longest path from this instruction to the end of the block
+        int height;
+    }
+
+    private void schedule(List<AsmInstruction> block) {
+        ArrayList<Node> nodes = new ArrayList<>();
+        ArrayList<AsmInstruction> comments = new ArrayList<>();
+        for(AsmInstruction line : block) {
+            if(!line.isInstruction()) {
+                comments.add(line);
+                continue;
+            }
+            Node node = node(line, nodes.size());
+            node.comments.addAll(comments);
+            comments.clear();
+            nodes.add(node);
+        }
+        if(nodes.size() < 2)
+            return;
+        blocks++;
+
+        boolean flagsRead = false;
+        for(Node node : nodes)
+            flagsRead |= node.reads.contains("flags");
+        for(Node node : nodes) {
+            if(!flagsRead)
+                node.writes.remove("flags");
+        }
+        for(int j = 0; j < nodes.size(); j++) {
+            for(int i = 0; i < j; i++) {
+                if(dependsOn(nodes.get(j), nodes.get(i))) {
+                    nodes.get(i).successors.add(nodes.get(j));
+                    nodes.get(j).predecessors++;
+                }
+            }
+        }
+        for(int i = nodes.size() - 1; i >= 0; i--) {
+            Node node = nodes.get(i);
+            node.height = node.cycles;
+            for(Node successor : node.successors)
+                node.height = Math.max(node.height, node.cycles + successor.height);
+        }
+
+        ArrayList<Node> order = new ArrayList<>();
+        ArrayList<Node> ready = new ArrayList<>();
+        for(Node node : nodes) {
+            if(node.predecessors == 0)
+                ready.add(node);
+        }
+        while(!ready.isEmpty()) {
+            ready.sort((a, b) -> a.height != b.height ? Integer.compare(b.height, a.height) : Integer.compare(a.index, b.index));
+            Node first = ready.get(0);
+            Node u = first;
+            Node v = partner(first, ready);
+            if(v == null) {
+                // the most urgent instruction may still pair as the V instruction of another one
+                for(Node candidate : ready) {
+                    if(candidate != first && canPair(candidate, first)) {
+                        u = candidate;
+                        v = first;
+                        break;
+                    }
+                }
+            }
+            issue(u, order, ready);
+            if(v != null)
+                issue(v, order, ready);
+        }
+
+        ArrayList<AsmInstruction> original = new ArrayList<>(block);
+        ArrayList<AsmInstruction> rescheduled = new ArrayList<>();
+        for(Node node : order) {
+            rescheduled.addAll(node.comments);
+            rescheduled.add(node.instruction);
+        }
+        rescheduled.addAll(comments);
+        if(estimate(rescheduled).cycles >= estimate(original).cycles)
+            return;
+        for(int i = 0; i < order.size(); i++) {
+            if(order.get(i).index != i)
+                reordered++;
+        }
+        block.clear();
+        block.addAll(rescheduled);
+    }
+
+    // the ready instruction with the longest path that pairs with u, also one that only waits for u
+    private static Node partner(Node u, List<Node> ready) {
+        Node best = null;
+        ArrayList<Node> candidates = new ArrayList<>(ready);
+        for(Node successor : u.successors) {
+            if(successor.predecessors == 1)
+                candidates.add(successor);
+        }
+        for(Node candidate : candidates) {
+            if(candidate != u && canPair(u, candidate) && (best == null || candidate.height > best.height))
+                best = candidate;
+        }
+        return best;
+    }
+
+    private static void issue(Node node, List<Node> order, List<Node> ready) {
+        order.add(node);
+        ready.remove(node);
+        for(Node successor : node.successors) {
+            successor.predecessors--;
+            if(successor.predecessors == 0)
+                ready.add(successor);
+        }
+    }
+
+    private static Node node(AsmInstruction instruction, int index) {
+        Node node = new Node();
+        node.instruction = instruction;
+        node.index = index;
+        node.cycles = X86CostModel.cycles(instruction, ETargetCpu.pentium);
+        node.reads.addAll(instruction.registersRead());
+        node.writes.addAll(instruction.registersWritten());
+
+        String mnemonic = instruction.mnemonic;
+        if(mnemonic.equals("push") || mnemonic.equals("pop")) {
+            node.reads.add("sp");
+            node.writes.add("sp");
+            (mnemonic.equals("push") ? node.memoryWrites : node.memoryReads).add("[sp]");
+        }
+        if(mnemonic.equals("adc") || mnemonic.equals("sbb"))
+            node.reads.add("flags");
+        if(!mnemonic.equals("mov") && !mnemonic.equals("lea") && !mnemonic.equals("nop") && !mnemonic.equals("not")
+                && !mnemonic.equals("xchg") && !mnemonic.equals("cwd") && !mnemonic.equals("push") && !mnemonic.equals("pop"))
+            node.writes.add("flags");
+
+        // the destination of mov and pop is only written, lea only computes the address of its source
+        for(int i = 0; i < instruction.operands.length; i++) {
+            String operand = instruction.operand(i);
+            if(!AsmInstruction.isMemory(operand) || mnemonic.equals("lea"))
+                continue;
+            boolean destination = i == 0;
+            if(destination && instruction.writesMemory())
+                node.memoryWrites.add(operand);
+            if(!destination || (!mnemonic.equals("mov") && !mnemonic.equals("pop")))
+                node.memoryReads.add(operand);
+            if(mnemonic.equals("xchg"))
+                node.memoryWrites.add(operand);
+        }
+        return node;
+    }
+
+    // true if later has to stay after earlier
+    private static boolean dependsOn(Node later, Node earlier) {
+        if(intersects(earlier.writes, later.reads) || intersects(earlier.writes, later.writes) || intersects(earlier.reads, later.writes))
+            return true;
+        return aliases(earlier.memoryWrites, later.memoryReads) || aliases(earlier.memoryWrites, later.memoryWrites)
+                || aliases(earlier.memoryReads, later.memoryWrites);
+    }
+
+    /**
+     * True if v can run in the V pipe next to u in the U pipe: u is UV or PU, v is UV, v reads no register u writes
+     * and writes none (pushes and pops share sp), and v does not access memory u writes.
+     */
+    private static boolean canPair(Node u, Node v) {
+        EPairing first = pairing(u.instruction);
+        if((first != EPairing.UV && first != EPairing.PU) || pairing(v.instruction) != EPairing.UV)
+            return false;
+        HashSet<String> written = new HashSet<>(u.writes);
+        written.remove("flags");
+        if(isStackOperation(u.instruction) && isStackOperation(v.instruction))
+            written.remove("sp");
+        if(intersects(written, v.reads) || intersects(written, v.writes))
+            return false;
+        return !aliases(u.memoryWrites, v.memoryReads) && !aliases(u.memoryWrites, v.memoryWrites)
+                && (!isStackOperation(u.instruction) || !isStackOperation(v.instruction) || u.instruction.mnemonic.equals(v.instruction.mnemonic));
+    }
+
+    private static boolean isStackOperation(AsmInstruction instruction) {
+        return instruction.is("push") || instruction.is("pop");
+    }
+
+    static EPairing pairing(AsmInstruction instruction) {
+        if(!instruction.isInstruction())
+            return EPairing.NP;
+        boolean memory = false;
+        boolean immediate = false;
+        for(String operand : instruction.operands) {
+            memory |= AsmInstruction.isMemory(operand);
+            immediate |= AsmInstruction.isImmediate(operand);
+        }
+        // an immediate and a displacement in one instruction do not pair, [bx] has no displacement
+        String address = null;
+        for(String operand : instruction.operands) {
+            if(AsmInstruction.isMemory(operand))
+                address = PeepholeOptimizer.stripPtr(operand);
+        }
+        if(memory && immediate && (address == null || !address.matches("\\[(bx|si|di)\\]")))
+            return EPairing.NP;
+
+        switch (instruction.mnemonic) {
+            case "mov": case "lea": case "nop":
+            case "add": case "sub": case "and": case "or": case "xor": case "cmp": case "test": case "inc": case "dec":
+                return EPairing.UV;
+            case "push": case "pop":
+                return memory ? EPairing.NP : EPairing.UV;
+            case "adc": case "sbb":
+                return EPairing.PU;
+            case "shl": case "sal": case "shr": case "sar": case "rol": case "ror":
+                return "cl".equals(instruction.operand(1)) ? EPairing.NP : EPairing.PU;
+            default:
+                return EPairing.NP;
+        }
+    }
+
+    // estimated Pentium cycles of code with pairing and address generation interlocks, per procedure too
+    static Timing estimate(List<AsmInstruction> code) {
+        Timing timing = new Timing();
+        String procedure = null;
+        Node previous = null;
+        // registers written by the instructions of the clock before the current one, and of the current one
+        HashSet<String> before = new HashSet<>();
+        HashSet<String> current = new HashSet<>();
+        for(int i = 0; i < code.size(); i++) {
+            AsmInstruction line = code.get(i);
+            if(line.type == EAsmLineType.label) {
+                String[] parts = line.toString().trim().split("\\s+");
+                if(parts.length == 2 && parts[1].equalsIgnoreCase("proc"))
+                    procedure = parts[0];
+            }
+            if(!line.isInstruction()) {
+                if(line.type != EAsmLineType.comment && line.type != EAsmLineType.blank) {
+                    previous = null;
+                    current.clear();
+                }
+                continue;
+            }
+            Node node = node(line, i);
+            int cycles;
+            if(previous != null && canPair(previous, node)) {
+                // node joins the instruction before it in the V pipe
+                cycles = Math.max(0, node.cycles - previous.cycles) + (interlocks(line, before) ? 1 : 0);
+                current.addAll(node.writes);
+                timing.pairs++;
+                previous = null;
+            } else {
+                before = current;
+                cycles = node.cycles + (interlocks(line, before) ? 1 : 0);
+                current = new HashSet<>(node.writes);
+                previous = node;
+            }
+            timing.cycles += cycles;
+            if(procedure != null)
+                timing.procedures.merge(procedure, cycles, Integer::sum);
+        }
+        return timing;
+    }
+
+    // true if the instruction forms an address with a register the clock before wrote
+    private static boolean interlocks(AsmInstruction instruction, Set<String> lastWritten) {
+        for(String operand : instruction.operands) {
+            if(intersects(AsmInstruction.addressRegisters(operand), lastWritten))
+                return true;
+        }
+        return false;
+    }
+
+    static class Timing {
+        int cycles;
+        int pairs;
+        LinkedHashMap<String, Integer> procedures = new LinkedHashMap<>();
+    }
+
+    private static boolean intersects(Set<String> a, Set<String> b) {
+        for(String element : a) {
+            if(b.contains(element))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean aliases(List<String> a, List<String> b) {
+        for(String first : a) {
+            for(String second : b) {
+                if(PeepholeOptimizer.mayAlias(first, second))
+                    return true;
+            }
+        }
+        return false;
+    }
+}
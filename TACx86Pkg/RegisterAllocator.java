@@ -0,0 +1,154 @@
+package TACx86Pkg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Linear scan register allocation for the private operands (frame slots and global temporaries) of one procedure.
+ *
+ * ax is the scratch register of every template and is never allocated. cx, dx, bx, si and di are, as long as no
+ * instruction inside the live range of a value clobbers the register:
+ *  call            bx, cx, dx      the templates of the callee use them
+ *  wri, rdi        bx, cx, dx      writeint and readint in io.asm
+ *  wrs             dx              offset of the string
+ *  x = y * z       bx, dx          imul writes dx:ax, cx too when z is @p
+ *  x = y / z       bx, dx          the same for idiv and rem, cx too for mod or when y is @p
+ *  @p operands     bx              holds the pointer
+ * io.asm keeps si and di, and a procedure that uses them saves them in its prologue, so values that live across
+ * a call or an io routine get si or di. A value that finds no free register stays in its memory word (spilled).
+ * Parameters a procedure takes in registers are allocated like the private operands, from the start of the body,
+ * and the push of an argument that goes into a register clobbers that register, see RegisterCalls.
+ */
+public class RegisterAllocator {
+    private static final String[] registers = {"cx", "dx", "bx", "si", "di"};
+
+    // operand -> register
+    public HashMap<String, String> allocation = new HashMap<>();
+    // si and di if the procedure uses them, they are saved in the prologue
+    public ArrayList<String> savedRegisters = new ArrayList<>();
+    // size of the local variables that are still in memory
+    public int frameSize;
+    // number of operand reads and writes that use a register instead of memory
+    public int memoryAccessesRemoved;
+    public int values;
+
+    public RegisterAllocator(TacProcedure procedure) {
+        this(procedure, Collections.emptySet(), Collections.emptyMap());
+    }
+
+    /**
+     * @param parameters parameters the procedure takes in registers
+     * @param argumentRegisters register of every push of the body that loads an argument into a register
+     */
+    public RegisterAllocator(TacProcedure procedure, Set<String> parameters, Map<TacInstruction, String> argumentRegisters) {
+        List<TacInstruction> body = procedure.body;
+        ArrayList<LiveInterval> intervals = new ArrayList<>(LiveInterval.compute(body, parameters).values());
+        intervals.sort((a, b) -> Integer.compare(a.start, b.start));
+        values = intervals.size();
+
+        ArrayList<HashSet<String>> clobbers = new ArrayList<>(body.size());
+        for(TacInstruction instruction : body) {
+            HashSet<String> clobbered = clobbers(instruction);
+            if(argumentRegisters.get(instruction) != null)
+                clobbered.add(argumentRegisters.get(instruction));
+            clobbers.add(clobbered);
+        }
+
+        // intervals holding a register, the one that ends first on top
+        PriorityQueue<LiveInterval> active = new PriorityQueue<>((a, b) -> Integer.compare(a.end, b.end));
+        ArrayList<String> free = new ArrayList<>(Arrays.asList(registers));
+
+        for(LiveInterval interval : intervals) {
+            // the templates read every operand before they write the result, so a register is free at the last read of its value
+            while(!active.isEmpty() && active.peek().end <= interval.start && interval.start >= 0) {
+                LiveInterval expired = active.poll();
+                free.add(allocation.get(expired.operand));
+            }
+
+            String register = pickRegister(interval, free, clobbers);
+            if(register == null)
+                continue;
+            free.remove(register);
+            active.add(interval);
+            allocation.put(interval.operand, register);
+            if((register.equals("si") || register.equals("di")) && !savedRegisters.contains(register))
+                savedRegisters.add(register);
+        }
+        savedRegisters.sort(null);
+
+        for(TacInstruction instruction : body) {
+            memoryAccessesRemoved += count(instruction.result) + count(instruction.operand1) + count(instruction.operand2);
+            frameSize = Math.max(frameSize, Math.max(slotEnd(instruction.result), Math.max(slotEnd(instruction.operand1), slotEnd(instruction.operand2))));
+        }
+    }
+
+    // register an operand is allocated to, or null if it stays in memory
+    public String get(String operand) {
+        return allocation.get(operand);
+    }
+
+    // the first free register that nothing inside the interval clobbers, in the order of the registers array
+    private static String pickRegister(LiveInterval interval, ArrayList<String> free, ArrayList<HashSet<String>> clobbers) {
+        for(String register : registers) {
+            if(!free.contains(register))
+                continue;
+            boolean clobbered = false;
+            // the instruction at start writes the value after its own scratch registers are used
+            for(int position = interval.start + 1; position <= interval.end && !clobbered; position++)
+                clobbered = clobbers.get(position).contains(register);
+            if(!clobbered)
+                return register;
+        }
+        return null;
+    }
+
+    private static HashSet<String> clobbers(TacInstruction instruction) {
+        HashSet<String> registers = new HashSet<>();
+        switch (instruction.opcode) {
+            case call:
+            case wri:
+            case rdi:
+                registers.addAll(Arrays.asList("bx", "cx", "dx"));
+                break;
+            case wrs:
+                registers.add("dx");
+                break;
+            case binary:
+                if(instruction.operator.equals("*")) {
+                    registers.add("bx");
+                    registers.add("dx");
+                    if(TacInstruction.isReference(instruction.operand2))
+                        registers.add("cx");
+                } else if(instruction.operator.equals("/") || instruction.operator.equals("MOD") || instruction.operator.equals("REM")) {
+                    registers.add("bx");
+                    registers.add("dx");
+                    if(instruction.operator.equals("MOD") || TacInstruction.isReference(instruction.operand1))
+                        registers.add("cx");
+                }
+                break;
+        }
+        if(TacInstruction.isReference(instruction.result) || TacInstruction.isReference(instruction.operand1) || TacInstruction.isReference(instruction.operand2))
+            registers.add("bx");
+        return registers;
+    }
+
+    private int count(String operand) {
+        return operand != null && allocation.containsKey(operand) ? 1 : 0;
+    }
+
+    // offset just past a frame slot that is still in memory, 0 for any other operand
+    private int slotEnd(String operand) {
+        if(operand != null && TacInstruction.isReference(operand))
+            operand = operand.substring(1);
+        if(!TacInstruction.isFrameSlot(operand) || allocation.containsKey(operand))
+            return 0;
+        return Integer.parseInt(operand.substring(4));
+    }
+}
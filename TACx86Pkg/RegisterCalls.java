@@ -0,0 +1,221 @@
+package TACx86Pkg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Procedures that take their parameters in registers instead of on the stack.
+ *
+ * The stack convention pushes every argument through ax, and the procedure reads it from [bp+4] and removes it
+ * with ret n. A procedure qualifies for registers when the rest of the program can see all of its calls:
+ *  - it is not the procedure of START, which main calls,
+ *  - it calls no procedure, so its registers only have to survive its own statements and the io routines,
+ *  - it takes one to maxParameters word parameters,
+ *  - every call pushes one argument per parameter right before call, none of them an address in the caller's frame.
+ * Its parameters get registers from the register allocator like its private operands, live from the start of the
+ * body, so the clobber analysis of the allocator keeps them out of the registers its statements change. If a
+ * parameter the body reads first finds no register, the procedure keeps the stack convention.
+ * The push of an argument becomes a mov into the register of its parameter, and nothing at all when the body does
+ * not read the parameter before it assigns it. Such a parameter becomes a frame slot of the procedure, so the body
+ * never addresses the stack word the push no longer fills. The procedure returns with ret 0. In the caller the
+ * register of an argument is clobbered at its push, so no value of the caller lives in it across the call.
+ */
+public class RegisterCalls {
+    public static final int maxParameters = 3;
+
+    // qualifying procedure -> its parameters in the order of the parameter list, null for a parameter the body does not read first
+    private LinkedHashMap<String, List<String>> candidates = new LinkedHashMap<>();
+    // qualifying procedure -> the pushes of each of its calls
+    private HashMap<String, List<List<TacInstruction>>> calls = new HashMap<>();
+    // procedure -> register of every parameter, for the procedures that take their parameters in registers
+    private HashMap<String, String[]> registers = new HashMap<>();
+    // push of an argument of those procedures -> register it loads, null if the parameter is not read
+    private HashMap<TacInstruction, String> arguments = new HashMap<>();
+    public int leafProcedures;
+
+    public RegisterCalls(TacProgram program) {
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        HashMap<String, TacProcedure> byName = new HashMap<>();
+        for(TacProcedure procedure : procedures)
+            byName.put(procedure.name, procedure);
+
+        // procedures main calls or that have a call this convention can not change
+        HashSet<String> excluded = new HashSet<>();
+        for(TacInstruction instruction : program.instructions) {
+            if(instruction.opcode == ETacOpcode.start)
+                excluded.add(instruction.operand1);
+        }
+        for(TacProcedure caller : procedures) {
+            for(int i = 0; i < caller.body.size(); i++) {
+                TacInstruction instruction = caller.body.get(i);
+                TacProcedure callee = instruction.opcode == ETacOpcode.call ? byName.get(instruction.operand1) : null;
+                if(callee == null)
+                    continue;
+                List<TacInstruction> pushes = pushes(callee, caller.body, i);
+                if(pushes == null)
+                    excluded.add(callee.name);
+                else
+                    calls.computeIfAbsent(callee.name, k -> new ArrayList<>()).add(pushes);
+            }
+        }
+
+        for(TacProcedure procedure : procedures) {
+            if(procedure.function == null || isCaller(procedure))
+                continue;
+            leafProcedures++;
+            int parameters = procedure.function.functionAttributes.numberOfParameter;
+            if(excluded.contains(procedure.name) || !calls.containsKey(procedure.name) || parameters < 1 || parameters > maxParameters)
+                continue;
+
+            ArrayList<String> operands = new ArrayList<>();
+            for(int i = 0; i < parameters; i++)
+                operands.add("_bp+" + (4 + 2 * (parameters - 1 - i)));
+            Map<String, LiveInterval> intervals = LiveInterval.compute(procedure.body, new HashSet<>(operands));
+            HashMap<String, String> locals = new HashMap<>();
+            for(int i = 0; i < parameters; i++) {
+                LiveInterval interval = intervals.get(operands.get(i));
+                if(interval != null && interval.start >= 0) {
+                    // its value on entry is never read, so it becomes a local the push no longer has to fill
+                    procedure.function.functionAttributes.sizeOfLocalVariable += 2;
+                    locals.put(operands.get(i), "_bp-" + procedure.function.functionAttributes.sizeOfLocalVariable);
+                    operands.set(i, null);
+                } else if(interval == null && !isUsed(procedure, operands.get(i))) {
+                    operands.set(i, null);
+                }
+            }
+            rename(procedure, locals);
+            candidates.put(procedure.name, operands);
+        }
+    }
+
+    // the procedures that qualify, in program order
+    public Set<String> getCandidates() {
+        return candidates.keySet();
+    }
+
+    // parameters of a qualifying procedure that need a register
+    public Set<String> parameters(String procedure) {
+        HashSet<String> parameters = new HashSet<>();
+        for(String operand : candidates.get(procedure)) {
+            if(operand != null)
+                parameters.add(operand);
+        }
+        return parameters;
+    }
+
+    /**
+     * Makes procedure take its parameters in the registers the allocator gave them.
+     * @return false if a parameter did not get a register, the procedure then keeps the stack convention
+     */
+    public boolean assign(String procedure, RegisterAllocator allocator) {
+        List<String> operands = candidates.get(procedure);
+        String[] parameterRegisters = new String[operands.size()];
+        for(int i = 0; i < operands.size(); i++) {
+            if(operands.get(i) == null)
+                continue;
+            parameterRegisters[i] = allocator.get(operands.get(i));
+            if(parameterRegisters[i] == null)
+                return false;
+        }
+        registers.put(procedure, parameterRegisters);
+        for(List<TacInstruction> pushes : calls.get(procedure)) {
+            for(int i = 0; i < pushes.size(); i++)
+                arguments.put(pushes.get(i), parameterRegisters[i]);
+        }
+        return true;
+    }
+
+    // register of every push of an argument that goes into a register
+    public Map<TacInstruction, String> getArgumentRegisters() {
+        return arguments;
+    }
+
+    public boolean takesRegisters(String procedure) {
+        return registers.containsKey(procedure);
+    }
+
+    // true if push passes an argument of a procedure that takes its parameters in registers
+    public boolean isArgument(TacInstruction push) {
+        return arguments.containsKey(push);
+    }
+
+    // register the argument of push goes into, null if the procedure does not read it
+    public String register(TacInstruction push) {
+        return arguments.get(push);
+    }
+
+    public int procedures() {
+        return registers.size();
+    }
+
+    public int argumentsInRegisters() {
+        int count = 0;
+        for(String register : arguments.values())
+            count += register != null ? 1 : 0;
+        return count;
+    }
+
+    // register of every parameter of procedure, null for one it does not read
+    public String[] getRegisters(String procedure) {
+        return registers.get(procedure);
+    }
+
+    /**
+     * The pushes of a call of callee, or null if the call does not have a word push for every parameter right
+     * before it or one of them is the address of something in the caller's frame.
+     */
+    private static List<TacInstruction> pushes(TacProcedure callee, ArrayList<TacInstruction> body, int call) {
+        if(callee.function == null)
+            return null;
+        int parameters = callee.function.functionAttributes.numberOfParameter;
+        if(callee.function.functionAttributes.sizeOfParameters != 2 * parameters || call < parameters)
+            return null;
+        List<TacInstruction> pushes = body.subList(call - parameters, call);
+        for(TacInstruction push : pushes) {
+            if(push.opcode != ETacOpcode.push || (TacInstruction.isReference(push.operand1) && push.operand1.startsWith("@_bp")))
+                return null;
+        }
+        return new ArrayList<>(pushes);
+    }
+
+    // true if the body names operand, directly or as @operand
+    private static boolean isUsed(TacProcedure procedure, String operand) {
+        for(TacInstruction instruction : procedure.body) {
+            for(String name : new String[]{instruction.result, instruction.operand1, instruction.operand2}) {
+                if(operand.equals(name) || ("@" + operand).equals(name))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // replaces the parameters the body assigns before it reads them by their frame slots
+    private static void rename(TacProcedure procedure, Map<String, String> locals) {
+        for(TacInstruction instruction : procedure.body) {
+            instruction.result = rename(instruction.result, locals);
+            instruction.operand1 = rename(instruction.operand1, locals);
+            instruction.operand2 = rename(instruction.operand2, locals);
+        }
+    }
+
+    private static String rename(String operand, Map<String, String> locals) {
+        if(operand == null)
+            return null;
+        if(TacInstruction.isReference(operand))
+            return locals.containsKey(operand.substring(1)) ? "@" + locals.get(operand.substring(1)) : operand;
+        return locals.getOrDefault(operand, operand);
+    }
+
+    private static boolean isCaller(TacProcedure procedure) {
+        for(TacInstruction instruction : procedure.body) {
+            if(instruction.opcode == ETacOpcode.call)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,115 @@
+package TACx86Pkg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multiplication by a constant without imul.
+ *
+ * The constant is written in non adjacent form, a sum of powers of two with signs in which no two neighbouring
+ * digits are both set, so 15 is 16 - 1 and 10 is 8 + 2. The product is then built in ax by Horner's rule with shifts
+ * and one add or sub per digit, and negated for a negative constant. Every step wraps around at 16 bits exactly
+ * like the low word of imul.
+ * The 8086 only shifts by 1 or by cl, so the shifts are repeated; 80186 and later processors shift by an immediate.
+ * 16 bit addressing has no scaled index, so lea can not compute x*3 or x*5 the way 32 bit code does.
+ * Both the shift sequence and the imul sequence are priced with X86CostModel and the cheaper one is emitted.
+ */
+public class StrengthReduction {
+    public int multiplications;
+    public int reduced;
+    public int cyclesBefore;
+    public int cyclesAfter;
+    private ETargetCpu target;
+
+    public StrengthReduction(ETargetCpu target) {
+        this.target = target;
+    }
+
+    /**
+     * Code for var1 = x * constant, in the operand format of x86Templates.
+     */
+    public String multiplication(String var1, String x, int constant) {
+        String imul = x86Templates.multiplicationTemplate(var1, x, Integer.toString(constant));
+        String shifts = x86Templates.load("ax", x) + shiftSequence(x, constant) + x86Templates.store(var1, "ax");
+
+        int imulCycles = cycles(imul);
+        int shiftCycles = cycles(shifts);
+        multiplications++;
+        cyclesBefore += imulCycles;
+        if(shiftCycles < imulCycles) {
+            reduced++;
+            cyclesAfter += shiftCycles;
+            return shifts;
+        }
+        cyclesAfter += imulCycles;
+        return imul;
+    }
+
+    // instructions that multiply ax, which holds x, by constant
+    String shiftSequence(String x, int constant) {
+        if(constant == 0)
+            return "\t\tmov ax, 0\n";
+
+        List<Integer> digits = nonAdjacentForm(Math.abs(constant));
+        StringBuilder code = new StringBuilder();
+        int terms = 0;
+        for(int digit : digits)
+            terms += digit != 0 ? 1 : 0;
+        // add and sub can not read an @ operand, and a copy in dx is cheaper than reading memory more than once
+        String addend = x;
+        if(terms > 1 && (x.charAt(0) == '@' || (!x86Templates.isRegister(x) && terms > 2))) {
+            code.append("\t\tmov dx, ax\n");
+            addend = "dx";
+        }
+
+        // the highest digit is 1, ax already holds x times that digit
+        int shift = 0;
+        for(int i = digits.size() - 2; i >= 0; i--) {
+            shift++;
+            if(digits.get(i) != 0) {
+                code.append(shift(shift));
+                shift = 0;
+                code.append(digits.get(i) > 0 ? "\t\tadd ax, " : "\t\tsub ax, ").append(addend).append("\n");
+            }
+        }
+        code.append(shift(shift));
+
+        if(constant < 0)
+            code.append("\t\tneg ax\n");
+        return code.toString();
+    }
+
+    private String shift(int count) {
+        if(count == 0)
+            return "";
+        if(target != ETargetCpu.i8086)
+            return "\t\tshl ax, " + count + "\n";
+        StringBuilder code = new StringBuilder();
+        for(int i = 0; i < count; i++)
+            code.append("\t\tshl ax, 1\n");
+        return code.toString();
+    }
+
+    // digits of value, lowest first, each -1, 0 or 1 and no two neighbours both non zero
+    static List<Integer> nonAdjacentForm(int value) {
+        List<Integer> digits = new ArrayList<>();
+        while(value > 0) {
+            if((value & 1) == 1) {
+                int digit = 2 - (value & 3);
+                digits.add(digit);
+                value -= digit;
+            } else {
+                digits.add(0);
+            }
+            value >>= 1;
+        }
+        return digits;
+    }
+
+    private int cycles(String code) {
+        int cycles = 0;
+        for(String line : code.split("\n"))
+            cycles += X86CostModel.cycles(AsmInstruction.parse(line), target);
+        return cycles;
+    }
+}
@@ -0,0 +1,235 @@
+package TACx86Pkg;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * One statement of the Three Address Code.
+ * The parser writes TAC as text, parse turns a line back into an instruction and toString writes it in the same columns.
+ *
+ *  opcode      text                        fields
+ *  proc        PROC    name                operand1 = name
+ *  endp        ENDP    name                operand1 = name
+ *  start       START   PROC    name        operand1 = name
+ *  push        push    x                   operand1 = x, @x pushes the address of x
+ *  call        call    name                operand1 = name
+ *  wrs         wrs     s                   operand1 = s
+ *  wri         wri     x                   operand1 = x
+ *  wrln        wrln
+ *  rdi         rdi     x                   result = x
+ *  copy        x = y                       result = x, operand1 = y
+ *  neg         x = -y                      result = x, operand1 = y
+ *  binary      x = y op z                  result = x, operand1 = y, operator = op, operand2 = z
+ *
+ * Operands are global variables (_A, _t0), local variables and temporaries (_bp-2), parameters (_bp+4),
+ * out and inout parameters (@_bp+4, the word at the address stored in the parameter) and integer literals.
+ */
+public class TacInstruction {
+    public ETacOpcode opcode;
+    public String result;
+    public String operand1;
+    public String operator;
+    public String operand2;
+
+    public TacInstruction(ETacOpcode opcode, String result, String operand1, String operator, String operand2) {
+        this.opcode = opcode;
+        this.result = result;
+        this.operand1 = operand1;
+        this.operator = operator;
+        this.operand2 = operand2;
+    }
+
+    public static TacInstruction copy(String result, String operand1) {
+        return new TacInstruction(ETacOpcode.copy, result, operand1, null, null);
+    }
+
+    public static TacInstruction neg(String result, String operand1) {
+        return new TacInstruction(ETacOpcode.neg, result, operand1, null, null);
+    }
+
+    public static TacInstruction binary(String result, String operand1, String operator, String operand2) {
+        return new TacInstruction(ETacOpcode.binary, result, operand1, operator, operand2);
+    }
+
+    /**
+     * Parses one line written by the parser.
+     * @param line TAC statement
+     * @return the instruction, or null for an empty line
+     */
+    public static TacInstruction parse(String line) {
+        String[] tokens = line.trim().split("\\s+");
+        if(tokens[0].isEmpty())
+            return null;
+
+        switch (tokens[0]) {
+            case "PROC":
+                return new TacInstruction(ETacOpcode.proc, null, tokens[1], null, null);
+            case "ENDP":
+                return new TacInstruction(ETacOpcode.endp, null, tokens[1], null, null);
+            case "START":
+                return new TacInstruction(ETacOpcode.start, null, tokens[2], null, null);
+            case "push":
+                return new TacInstruction(ETacOpcode.push, null, tokens[1], null, null);
+            case "call":
+                return new TacInstruction(ETacOpcode.call, null, tokens[1], null, null);
+            case "wrs":
+                return new TacInstruction(ETacOpcode.wrs, null, tokens[1], null, null);
+            case "wri":
+                return new TacInstruction(ETacOpcode.wri, null, tokens[1], null, null);
+            case "wrln":
+                return new TacInstruction(ETacOpcode.wrln, null, null, null, null);
+            case "rdi":
+                return new TacInstruction(ETacOpcode.rdi, tokens[1], null, null, null);
+        }
+
+        if(tokens.length == 5)
+            return binary(tokens[0], tokens[2], tokens[3], tokens[4]);
+        else if(tokens[2].length() > 1 && tokens[2].charAt(0) == '-' && !isLiteral(tokens[2]))
+            return neg(tokens[0], tokens[2].substring(1));
+        else
+            // x = -5 is read as a copy of a negative literal, it has the same value as the negation of 5
+            return copy(tokens[0], tokens[2]);
+    }
+
+    public boolean isAssignment() {
+        return opcode == ETacOpcode.copy || opcode == ETacOpcode.neg || opcode == ETacOpcode.binary;
+    }
+
+    // the operand written by this instruction, or null
+    public String getDefinition() {
+        return isAssignment() || opcode == ETacOpcode.rdi ? result : null;
+    }
+
+    // true if the instruction reads the value of operand_
+    public boolean reads(String operand_) {
+        ArrayList<String> operands = new ArrayList<>(3);
+        collectReads(operands);
+        return operands.contains(operand_);
+    }
+
+    /**
+     * Adds every operand whose value this instruction reads to operands_.
+     * Reading or writing @x also reads the pointer x, and push @x passes x to the callee, which can read it.
+     */
+    public void collectReads(Collection<String> operands_) {
+        switch (opcode) {
+            case push:
+            case wri:
+                addRead(operand1, operands_);
+                break;
+            case rdi:
+                if(isReference(result))
+                    operands_.add(result.substring(1));
+                break;
+            case copy:
+            case neg:
+            case binary:
+                addRead(operand1, operands_);
+                addRead(operand2, operands_);
+                if(isReference(result))
+                    operands_.add(result.substring(1));
+                break;
+        }
+    }
+
+    private static void addRead(String operand_, Collection<String> operands_) {
+        if(operand_ == null || isLiteral(operand_))
+            return;
+        operands_.add(operand_);
+        if(isReference(operand_))
+            operands_.add(operand_.substring(1));
+    }
+
+    // integer literal, possibly negative
+    public static boolean isLiteral(String operand_) {
+        if(operand_ == null || operand_.isEmpty())
+            return false;
+        int start = operand_.charAt(0) == '-' ? 1 : 0;
+        if(start == operand_.length())
+            return false;
+        for(int i = start; i < operand_.length(); i++) {
+            if(operand_.charAt(i) < '0' || operand_.charAt(i) > '9')
+                return false;
+        }
+        return true;
+    }
+
+    // value of an integer literal, wrapped to the 16 bit range of the target
+    public static int literalValue(String operand_) {
+        return (short) Long.parseLong(operand_);
+    }
+
+    // @x, the word at the address stored in x
+    public static boolean isReference(String operand_) {
+        return operand_ != null && operand_.length() > 1 && operand_.charAt(0) == '@';
+    }
+
+    // local variable or temporary in the frame of a procedure
+    public static boolean isFrameSlot(String operand_) {
+        return operand_ != null && operand_.startsWith("_bp-");
+    }
+
+    // temporary of the start procedure, the parser names them _t0, _t1 ...
+    public static boolean isGlobalTemporary(String operand_) {
+        return operand_ != null && operand_.length() > 2 && operand_.charAt(0) == '_' && operand_.charAt(1) == 't' && operand_.charAt(2) >= '0' && operand_.charAt(2) <= '9';
+    }
+
+    /**
+     * An operand that only the current procedure can read or write.
+     * Frame slots are not visible outside their procedure, and the parser never uses a temporary outside the statement that created it.
+     * Parameters passed by value are private too, but they are initialized by the caller.
+     * Only push @x makes x visible to another procedure: the callee can store through the address, so a call changes
+     * the operands of addressesPassed like a global.
+     */
+    public static boolean isPrivate(String operand_) {
+        return isFrameSlot(operand_) || isGlobalTemporary(operand_);
+    }
+
+    // the private operands and parameters whose address body_ pushes as an argument
+    public static HashSet<String> addressesPassed(Collection<TacInstruction> body_) {
+        HashSet<String> operands = new HashSet<>();
+        for(TacInstruction instruction : body_) {
+            if(instruction.opcode != ETacOpcode.push || !isReference(instruction.operand1))
+                continue;
+            String operand = instruction.operand1.substring(1);
+            if(isPrivate(operand) || operand.startsWith("_bp+"))
+                operands.add(operand);
+        }
+        return operands;
+    }
+
+    @Override
+    public String toString() {
+        switch (opcode) {
+            case proc:
+                return formattedString(new String[]{"PROC", operand1});
+            case endp:
+                return formattedString(new String[]{"ENDP", operand1});
+            case start:
+                return formattedString(new String[]{"START", "PROC", operand1});
+            case push:
+            case call:
+            case wrs:
+            case wri:
+                return formattedString(new String[]{opcode.name(), operand1});
+            case wrln:
+                return formattedString(new String[]{"wrln"});
+            case rdi:
+                return formattedString(new String[]{"rdi", result});
+            case copy:
+                return formattedString(new String[]{result, "=", operand1});
+            case neg:
+                return formattedString(new String[]{result, "=", "-".concat(operand1)});
+            default:
+                return formattedString(new String[]{result, "=", operand1, operator, operand2});
+        }
+    }
+
+    private static String formattedString(String[] values_){
+        StringBuilder builder = new StringBuilder();
+        for(String value : values_)
+            builder.append(String.format("%-8s", value));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,19 @@
+package TACx86Pkg;
+
+import SymbolTablePkg.Symbol;
+
+import java.util.ArrayList;
+
+/**
+ * The statements between PROC and ENDP of one procedure, see TacProgram.getProcedures.
+ */
+public class TacProcedure {
+    public String name;
+    public Symbol function;
+    public ArrayList<TacInstruction> body = new ArrayList<>();
+
+    public TacProcedure(String name, Symbol function) {
+        this.name = name;
+        this.function = function;
+    }
+}
@@ -0,0 +1,99 @@
+package TACx86Pkg;
+
+import SymbolTablePkg.ESymbolType;
+import SymbolTablePkg.Symbol;
+import SymbolTablePkg.SymbolTable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Three Address Code of a whole program together with the symbol table the parser built for it.
+ * Optimization passes change the instructions and the symbol table in place, x86Translator reads both.
+ */
+public class TacProgram {
+    public ArrayList<TacInstruction> instructions = new ArrayList<>();
+    public SymbolTable symbolTable;
+    // order of the global symbols in the data segment, the order of the symbol table when null
+    public List<Symbol> dataLayout;
+
+    public TacProgram(SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+    }
+
+    public static TacProgram parse(BufferedReader tacReader, SymbolTable symbolTable) throws IOException {
+        TacProgram program = new TacProgram(symbolTable);
+        String line;
+        while((line = tacReader.readLine()) != null) {
+            TacInstruction instruction = TacInstruction.parse(line);
+            if(instruction != null)
+                program.instructions.add(instruction);
+        }
+        return program;
+    }
+
+    /**
+     * Splits the program into its procedures, in the order of their PROC statements.
+     * The bodies are copies, changes are written back with setProcedures.
+     */
+    public ArrayList<TacProcedure> getProcedures() {
+        ArrayList<TacProcedure> procedures = new ArrayList<>();
+        TacProcedure procedure = null;
+        for(TacInstruction instruction : instructions) {
+            if(instruction.opcode == ETacOpcode.proc) {
+                procedure = new TacProcedure(instruction.operand1, symbolTable.lookup(instruction.operand1, ESymbolType.function));
+                procedures.add(procedure);
+            } else if(instruction.opcode == ETacOpcode.endp) {
+                procedure = null;
+            } else if(procedure != null) {
+                procedure.body.add(instruction);
+            }
+        }
+        return procedures;
+    }
+
+    // replaces every procedure of the program, statements outside of procedures (START) follow them
+    public void setProcedures(ArrayList<TacProcedure> procedures) {
+        ArrayList<TacInstruction> newInstructions = new ArrayList<>(instructions.size());
+        for(TacProcedure procedure : procedures) {
+            newInstructions.add(new TacInstruction(ETacOpcode.proc, null, procedure.name, null, null));
+            newInstructions.addAll(procedure.body);
+            newInstructions.add(new TacInstruction(ETacOpcode.endp, null, procedure.name, null, null));
+        }
+
+        boolean insideProcedure = false;
+        for(TacInstruction instruction : instructions) {
+            if(instruction.opcode == ETacOpcode.proc)
+                insideProcedure = true;
+            else if(instruction.opcode == ETacOpcode.endp)
+                insideProcedure = false;
+            else if(!insideProcedure)
+                newInstructions.add(instruction);
+        }
+        instructions = newInstructions;
+    }
+
+    // TacInstruction.addressesPassed of every procedure, by the name of the procedure
+    public HashMap<String, HashSet<String>> addressesPassed() {
+        HashMap<String, HashSet<String>> addresses = new HashMap<>();
+        for(TacProcedure procedure : getProcedures())
+            addresses.put(procedure.name, TacInstruction.addressesPassed(procedure.body));
+        return addresses;
+    }
+
+    public int size() {
+        return instructions.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for(TacInstruction instruction : instructions)
+            builder.append(instruction).append(System.lineSeparator());
+        return builder.toString();
+    }
+}
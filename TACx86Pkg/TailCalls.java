@@ -0,0 +1,99 @@
+package TACx86Pkg;
+
+import SymbolTablePkg.ESymbolType;
+import SymbolTablePkg.Symbol;
+
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Calls in tail position that the translator turns into jumps.
+ *
+ * A call is in tail position when the ENDP of its procedure follows it. Its arguments are the pushes right before
+ * it, one word for each parameter of the callee. The jump reuses the caller's incoming parameter area, so the
+ * callee may take at most as many parameter bytes as the caller. An argument that is the address of a local variable
+ * or parameter of the caller (push @_bp-2) would point into the frame the jump gives up, such calls stay calls.
+ *
+ * At the jump the arguments are popped into the top of the caller's parameter area, the return address moves down
+ * to just below them when the callee takes fewer bytes, and the caller's frame is left. The callee then returns
+ * straight to the caller's caller, and its ret M leaves the stack where the caller's ret would have, so a chain of
+ * tail calls, recursion included, runs in constant stack space. Calls of a procedure that takes its parameters in
+ * registers stay calls.
+ */
+public class TailCalls {
+    private HashSet<TacInstruction> jumps = new HashSet<>();
+    // calls followed by ENDP
+    public int tailPosition;
+    // of those, calls whose arguments do not fit in the caller's parameters
+    public int tooManyArguments;
+    // of those, calls that pass the address of something in the caller's frame
+    public int frameAddresses;
+
+    /**
+     * @param registerCalls procedures that take their parameters in registers, null if none do
+     */
+    public TailCalls(TacProgram program, RegisterCalls registerCalls) {
+        List<TacInstruction> instructions = program.instructions;
+        Symbol caller = null;
+        for(int i = 0; i < instructions.size(); i++) {
+            TacInstruction instruction = instructions.get(i);
+            if(instruction.opcode == ETacOpcode.proc)
+                caller = program.symbolTable.lookup(instruction.operand1, ESymbolType.function);
+            if(instruction.opcode != ETacOpcode.call || i + 1 >= instructions.size() || instructions.get(i + 1).opcode != ETacOpcode.endp)
+                continue;
+            tailPosition++;
+
+            Symbol callee = program.symbolTable.lookup(instruction.operand1, ESymbolType.function);
+            if(caller == null || callee == null || (registerCalls != null && registerCalls.takesRegisters(instruction.operand1)))
+                continue;
+            int arguments = callee.functionAttributes.sizeOfParameters / 2;
+            if(arguments > i || callee.functionAttributes.sizeOfParameters > caller.functionAttributes.sizeOfParameters) {
+                tooManyArguments++;
+                continue;
+            }
+            boolean pushes = true;
+            boolean frameAddress = false;
+            for(int j = i - arguments; j < i; j++) {
+                TacInstruction push = instructions.get(j);
+                pushes &= push.opcode == ETacOpcode.push;
+                frameAddress |= TacInstruction.isReference(push.operand1) && push.operand1.startsWith("@_bp");
+            }
+            if(!pushes)
+                continue;
+            if(frameAddress) {
+                frameAddresses++;
+                continue;
+            }
+            jumps.add(instruction);
+        }
+    }
+
+    public boolean isJump(TacInstruction call) {
+        return jumps.contains(call);
+    }
+
+    public int jumps() {
+        return jumps.size();
+    }
+
+    /**
+     * Code that leaves the caller's frame and jumps to the callee, in place of call.
+     * @param savedRegisters registers the caller pushed after its prologue, in the order they were pushed
+     */
+    public static String jumpTemplate(String callee, int callerParameters, int calleeParameters, List<String> savedRegisters) {
+        // the callee's parameters end where the caller's end
+        int shift = callerParameters - calleeParameters;
+        StringBuilder template = new StringBuilder();
+        for(int offset = 0; offset < calleeParameters; offset += 2)
+            template.append("\t\tpop ax\n\t\tmov [bp+").append(4 + shift + offset).append("], ax\n");
+        if(shift > 0)
+            template.append("\t\tmov ax, [bp+2]\n\t\tmov [bp+").append(2 + shift).append("], ax\n");
+        for(int i = savedRegisters.size() - 1; i >= 0; i--)
+            template.append("\t\tpop ").append(savedRegisters.get(i)).append("\n");
+        template.append("\t\tmov sp, bp\n\t\tpop bp\n");
+        if(shift > 0)
+            template.append("\t\tadd sp, ").append(shift).append("\n");
+        template.append("\t\tjmp ").append(callee);
+        return template.toString();
+    }
+}
@@ -0,0 +1,285 @@
+package TACx86Pkg;
+
+import java.util.List;
+
+/**
+ * Estimated execution time of 16 bit instructions in clock cycles, from the instruction timing tables of the
+ * 8086 and the Pentium manuals. Where the tables give a range the middle is used.
+ * On the 8086 a memory operand adds the time to compute its effective address (EA).
+ * Timings assume word operands at even addresses, the cache hits and no pairing on the Pentium.
+ */
+public class X86CostModel {
+    private X86CostModel() {
+    }
+
+    public static int cycles(AsmInstruction instruction, ETargetCpu target) {
+        if(!instruction.isInstruction())
+            return 0;
+        return target == ETargetCpu.pentium ? pentiumCycles(instruction) : i8086Cycles(instruction);
+    }
+
+    /**
+     * Extra cycles of a word access at an odd address, which the cycles of the timing tables do not include.
+     * The 8086 splits it into two bus cycles of 4 clocks each, the Pentium needs 3 more clocks for a misaligned access.
+     */
+    public static int misalignedWordPenalty(ETargetCpu target) {
+        return target == ETargetCpu.pentium ? 3 : 4;
+    }
+
+    // estimated cycles of every instruction of code
+    public static int cycles(List<AsmInstruction> code, ETargetCpu target) {
+        int cycles = 0;
+        for(AsmInstruction instruction : code)
+            cycles += cycles(instruction, target);
+        return cycles;
+    }
+
+    /**
+     * Encoded size of a 16 bit instruction in bytes: opcode, ModR/M byte, displacement and immediate.
+     * Immediates from -128 to 127 use the sign extended byte forms of add, push and imul.
+     */
+    public static int bytes(AsmInstruction instruction) {
+        if(!instruction.isInstruction())
+            return 0;
+        int destination = kind(instruction.operand(0));
+        int source = kind(instruction.operand(1));
+        int memory = 0;
+        for(String operand : instruction.operands) {
+            if(kind(operand) == MEMORY)
+                memory = displacementBytes(operand);
+        }
+
+        switch (instruction.mnemonic) {
+            case "mov":
+                if(destination == REGISTER)
+                    return source == REGISTER ? 2 : source == IMMEDIATE ? 3 : 2 + memory;
+                return source == IMMEDIATE ? 4 + memory : 2 + memory;
+            case "add": case "sub": case "and": case "or": case "xor": case "adc": case "sbb": case "cmp":
+                if(source == IMMEDIATE)
+                    return 2 + memory + (isByte(instruction.operand(1)) ? 1 : 2);
+                return destination == REGISTER && source == REGISTER ? 2 : 2 + memory;
+            case "inc": case "dec":
+                return destination == REGISTER ? 1 : 2 + memory;
+            case "neg": case "not": case "mul": case "div": case "idiv": case "lea":
+                return 2 + memory;
+            case "shl": case "sal": case "shr": case "sar": case "rol": case "ror":
+                return 2 + memory + ("1".equals(instruction.operand(1)) || "cl".equals(instruction.operand(1)) ? 0 : 1);
+            case "imul":
+                if(instruction.operands.length == 1)
+                    return 2 + memory;
+                return 2 + memory + (isByte(instruction.operand(instruction.operands.length - 1)) ? 1 : 2);
+            case "cwd": case "leave": case "nop":
+                return 1;
+            case "xchg":
+                return destination == REGISTER && source == REGISTER && (instruction.operand(0).equals("ax") || instruction.operand(1).equals("ax")) ? 1 : 2 + memory;
+            case "push":
+                if(destination == IMMEDIATE)
+                    return isByte(instruction.operand(0)) ? 2 : 3;
+                return destination == REGISTER ? 1 : 2 + memory;
+            case "pop":
+                return destination == REGISTER ? 1 : 2 + memory;
+            case "call": case "jmp":
+                return 3;
+            case "ret":
+                return instruction.operands.length == 0 || "0".equals(instruction.operand(0)) ? 1 : 3;
+            case "int":
+                return 2;
+            case "enter":
+                return 4;
+            default:
+                return 3;
+        }
+    }
+
+    // total encoded size of code in bytes
+    public static int bytes(List<AsmInstruction> code) {
+        int bytes = 0;
+        for(AsmInstruction instruction : code)
+            bytes += bytes(instruction);
+        return bytes;
+    }
+
+    public static int countInstructions(List<AsmInstruction> code) {
+        int count = 0;
+        for(AsmInstruction instruction : code) {
+            if(instruction.isInstruction())
+                count++;
+        }
+        return count;
+    }
+
+    // operand kinds of the forms in the timing tables
+    private static final int REGISTER = 0;
+    private static final int MEMORY = 1;
+    private static final int IMMEDIATE = 2;
+
+    private static int kind(String operand) {
+        if(operand == null || AsmInstruction.isRegister(operand) || operand.equals("sp") || operand.equals("bp") || operand.equals("ds") || operand.equals("cl"))
+            return REGISTER;
+        return AsmInstruction.isImmediate(operand) ? IMMEDIATE : MEMORY;
+    }
+
+    // 8086 effective address time: [bx] 5, [bp+4] 9, a variable 6, [bp+si+4] 11
+    private static int effectiveAddress(String operand) {
+        int open = operand.indexOf('[');
+        if(open < 0)
+            return 6;
+        int registers = AsmInstruction.addressRegisters(operand).size();
+        boolean displacement = operand.substring(open, operand.indexOf(']')).matches(".*\\d.*");
+        if(registers == 1)
+            return displacement ? 9 : 5;
+        return displacement ? 11 : 7;
+    }
+
+    // bytes after the ModR/M byte: a variable has a 16 bit address, [bp] always has a displacement
+    private static int displacementBytes(String operand) {
+        int open = operand.indexOf('[');
+        if(open < 0)
+            return 2;
+        String address = operand.substring(open + 1, operand.indexOf(']'));
+        int sign = Math.max(address.lastIndexOf('+'), address.lastIndexOf('-'));
+        if(sign < 0 || !TacInstruction.isLiteral(address.substring(sign + 1).trim()))
+            return address.trim().equals("bp") ? 1 : 0;
+        return isByte(address.substring(sign).trim()) ? 1 : 2;
+    }
+
+    private static boolean isByte(String operand) {
+        if(operand == null)
+            return false;
+        String value = operand.startsWith("+") ? operand.substring(1) : operand;
+        if(!TacInstruction.isLiteral(value))
+            return false;
+        long number = Long.parseLong(value);
+        return number >= -128 && number <= 127;
+    }
+
+    private static int memoryOperandEA(AsmInstruction instruction) {
+        for(String operand : instruction.operands) {
+            if(kind(operand) == MEMORY)
+                return effectiveAddress(operand);
+        }
+        return 0;
+    }
+
+    private static int i8086Cycles(AsmInstruction instruction) {
+        int destination = kind(instruction.operand(0));
+        int source = kind(instruction.operand(1));
+        int ea = memoryOperandEA(instruction);
+
+        switch (instruction.mnemonic) {
+            case "mov":
+                if(destination == REGISTER)
+                    return source == REGISTER ? 2 : source == IMMEDIATE ? 4 : 8 + ea;
+                return source == IMMEDIATE ? 10 + ea : 9 + ea;
+            case "add": case "sub": case "and": case "or": case "xor": case "adc": case "sbb":
+                if(destination == REGISTER)
+                    return source == REGISTER ? 3 : source == IMMEDIATE ? 4 : 9 + ea;
+                return source == IMMEDIATE ? 17 + ea : 16 + ea;
+            case "cmp":
+                if(destination == REGISTER)
+                    return source == REGISTER ? 3 : source == IMMEDIATE ? 4 : 9 + ea;
+                return source == IMMEDIATE ? 10 + ea : 9 + ea;
+            case "neg": case "not":
+                return destination == REGISTER ? 3 : 16 + ea;
+            case "inc": case "dec":
+                return destination == REGISTER ? 2 : 15 + ea;
+            case "shl": case "sal": case "shr": case "sar": case "rol": case "ror":
+                if("1".equals(instruction.operand(1)))
+                    return destination == REGISTER ? 2 : 15 + ea;
+                if("cl".equals(instruction.operand(1)))
+                    return destination == REGISTER ? 8 + 4 * 4 : 20 + ea + 4 * 4;
+                // an immediate count other than 1 needs an 80186, the 8086 repeats the shift by 1
+                return (destination == REGISTER ? 2 : 15 + ea) * shiftCount(instruction);
+            case "imul":
+                if(instruction.operands.length == 1)
+                    return destination == REGISTER ? 134 : 140 + ea;
+                return 25 + ea; // 80186 imul with an immediate
+            case "mul":
+                return destination == REGISTER ? 124 : 130 + ea;
+            case "idiv":
+                return destination == REGISTER ? 175 : 181 + ea;
+            case "div":
+                return destination == REGISTER ? 153 : 159 + ea;
+            case "cwd":
+                return 5;
+            case "lea":
+                return 2 + ea;
+            case "xchg":
+                return destination == REGISTER && source == REGISTER ? 4 : 17 + ea;
+            case "push":
+                return destination == REGISTER ? 11 : destination == IMMEDIATE ? 10 : 16 + ea;
+            case "pop":
+                return destination == REGISTER ? 8 : 17 + ea;
+            case "call":
+                return 19;
+            case "ret":
+                return instruction.operands.length == 0 || "0".equals(instruction.operand(0)) ? 16 : 20;
+            case "jmp":
+                return 15;
+            case "int":
+                return 51;
+            case "leave":
+                return 8;
+            case "enter":
+                return 15;
+            case "nop":
+                return 3;
+            default:
+                return 10;
+        }
+    }
+
+    private static int pentiumCycles(AsmInstruction instruction) {
+        int destination = kind(instruction.operand(0));
+        int source = kind(instruction.operand(1));
+
+        switch (instruction.mnemonic) {
+            case "mov": case "lea": case "cmp": case "test":
+                return 1;
+            case "add": case "sub": case "and": case "or": case "xor": case "adc": case "sbb":
+                if(destination == MEMORY)
+                    return 3;
+                return source == MEMORY ? 2 : 1;
+            case "neg": case "not": case "inc": case "dec":
+                return destination == MEMORY ? 3 : 1;
+            case "shl": case "sal": case "shr": case "sar": case "rol": case "ror":
+                if("cl".equals(instruction.operand(1)))
+                    return 4;
+                return destination == MEMORY ? 3 : 1;
+            case "imul":
+            case "mul":
+                return instruction.operands.length == 1 ? 11 : 10;
+            case "idiv":
+                return 22;
+            case "div":
+                return 17;
+            case "cwd":
+                return 2;
+            case "xchg":
+                return 3;
+            case "push":
+                return destination == MEMORY ? 2 : 1;
+            case "pop":
+                return destination == MEMORY ? 3 : 1;
+            case "call": case "jmp":
+                return 1;
+            case "ret":
+                return instruction.operands.length == 0 || "0".equals(instruction.operand(0)) ? 2 : 3;
+            case "int":
+                return 16;
+            case "leave":
+                return 3;
+            case "enter":
+                return 11;
+            case "nop":
+                return 1;
+            default:
+                return 3;
+        }
+    }
+
+    private static int shiftCount(AsmInstruction instruction) {
+        String count = instruction.operand(1);
+        return TacInstruction.isLiteral(count) ? Math.max(1, Integer.parseInt(count)) : 1;
+    }
+}
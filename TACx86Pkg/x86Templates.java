@@ -43,6 +43,13 @@ public class x86Templates {
         return pushTemplate;
     }
 
+    // argument of a procedure that takes its parameters in registers, var1 is a value or the address of a variable
+    public static String argumentTemplate(String register, String var1){
+        if(var1.charAt(0) == '@')
+            return "\t\tmov " + register + ", offset " + var1.substring(1);
+        return "\t\tmov " + register + ", " + var1;
+    }
+
     public static String multiplicationTemplate(String var1, String var2, String var3) {
         String multiplicationTemplate = "";
         if(var2.charAt(0) == '@'){
@@ -56,6 +63,8 @@ public class x86Templates {
             multiplicationTemplate = multiplicationTemplate.concat("\t\tmov bx, ").concat(var3.substring(1, var3.length())).concat("\n");
             multiplicationTemplate = multiplicationTemplate.concat("\t\tmov cx, [bx]").concat("\n");
             multiplicationTemplate = multiplicationTemplate.concat("\t\timul cx").concat("\n");
+        } else if(isRegister(var3)){
+            multiplicationTemplate = multiplicationTemplate.concat("\t\timul ").concat(var3).concat("\n");
         } else {
             multiplicationTemplate = multiplicationTemplate.concat("\t\tmov bx, ").concat(var3).concat("\n");
             multiplicationTemplate = multiplicationTemplate.concat("\t\timul bx").concat("\n");
@@ -79,12 +88,21 @@ public class x86Templates {
 
     public static String readInt(String var1) {
         String readIntegerTemplate =   "\t\tcall readint\n" +
-                                        "\t\tmov ax, bx\n" +
-                                        "\t\tmov " + var1 + " , ax";
+                                        "\t\tmov ax, bx\n";
+        if(var1.charAt(0) == '@'){
+            readIntegerTemplate = readIntegerTemplate.concat("\t\tmov bx, ").concat(var1.substring(1, var1.length())).concat("\n");
+            readIntegerTemplate = readIntegerTemplate.concat("\t\tmov [bx], ax");
+        } else {
+            readIntegerTemplate = readIntegerTemplate.concat("\t\tmov " + var1 + " , ax");
+        }
         return readIntegerTemplate;
     }
 
     public static String copyTemplate(String var1, String var2){
+        // mov has a register form for every operand except memory to memory
+        if((isRegister(var1) && var2.charAt(0) != '@') || (isRegister(var2) && var1.charAt(0) != '@'))
+            return "\t\tmov " + var1 + ", " + var2;
+
         String copyTemplate = "";
         if(var2.charAt(0) == '@'){
             copyTemplate = copyTemplate.concat("\t\tmov bx, ").concat(var2.substring(1, var2.length())).concat("\n");
@@ -129,6 +147,51 @@ public class x86Templates {
         return additionTemplate;
     }
 
+    public static String subtractionTemplate(String var1, String var2, String var3){
+        String subtractionTemplate = load("ax", var2);
+
+        if(var3.charAt(0) == '@') {
+            subtractionTemplate = subtractionTemplate.concat("\t\tmov bx, ").concat(var3.substring(1)).concat("\n");
+            subtractionTemplate = subtractionTemplate.concat("\t\tsub ax, [bx]").concat("\n");
+        } else {
+            subtractionTemplate = subtractionTemplate.concat("\t\tsub ax, ").concat(var3).concat("\n");
+        }
+
+        return subtractionTemplate.concat(store(var1, "ax"));
+    }
+
+    /**
+     * var1 = var2 operator var3 for /, REM and MOD. cwd sign extends the dividend into dx:ax, idiv leaves the quotient
+     * truncated toward zero in ax and the remainder with the sign of the dividend in dx. MOD takes the sign of the
+     * divisor, it adds the divisor to a non zero remainder whose sign differs from it, with masks instead of a jump:
+     * the sign of remainder xor divisor extended by cwd, and neg and sbb for a non zero remainder.
+     */
+    public static String divisionTemplate(String var1, String var2, String var3, String operator){
+        String divisor = isRegister(var3) ? var3 : "bx";
+        String divisionTemplate = load("ax", var2).concat("\t\tcwd\n");
+        if(!isRegister(var3)) {
+            divisionTemplate = divisionTemplate.concat(load("bx", var3));
+        }
+        divisionTemplate = divisionTemplate.concat("\t\tidiv ").concat(divisor).concat("\n");
+
+        if(operator.equals("/"))
+            return divisionTemplate.concat(store(var1, "ax"));
+        if(operator.equals("REM"))
+            return divisionTemplate.concat(store(var1, "dx"));
+
+        divisionTemplate = divisionTemplate.concat("\t\tmov cx, dx\n");
+        divisionTemplate = divisionTemplate.concat("\t\tmov ax, dx\n");
+        divisionTemplate = divisionTemplate.concat("\t\txor ax, ").concat(divisor).concat("\n");
+        divisionTemplate = divisionTemplate.concat("\t\tcwd\n");
+        divisionTemplate = divisionTemplate.concat("\t\tand dx, ").concat(divisor).concat("\n");
+        divisionTemplate = divisionTemplate.concat("\t\tmov ax, cx\n");
+        divisionTemplate = divisionTemplate.concat("\t\tneg ax\n");
+        divisionTemplate = divisionTemplate.concat("\t\tsbb ax, ax\n");
+        divisionTemplate = divisionTemplate.concat("\t\tand ax, dx\n");
+        divisionTemplate = divisionTemplate.concat("\t\tadd ax, cx\n");
+        return divisionTemplate.concat(store(var1, "ax"));
+    }
+
     public static String writeInteger(String var1){
         String writeIntegerTemplate ="";
 
@@ -144,24 +207,45 @@ public class x86Templates {
         return writeIntegerTemplate;
     }
 
+    // var2 is the negated operand without its minus sign
     public static String negTemplate(String var1, String var2) {
         String negTemplate = "";
         if(var2.charAt(0) == '@'){
             negTemplate = negTemplate.concat("\t\tmov bx,").concat(var2.substring(1, var2.length())).concat("\n");
             negTemplate = negTemplate.concat("\t\tmov ax, [bx]").concat("\n");
-            negTemplate = negTemplate.concat("\t\tneg ax").concat(var2).concat("\n");
         } else {
-            negTemplate = negTemplate.concat("\t\tmov ax, ").concat(var2.substring(1, var2.length())).concat("\n");
-            negTemplate = negTemplate.concat("\t\tneg ax").concat("\n");
+            negTemplate = negTemplate.concat("\t\tmov ax, ").concat(var2).concat("\n");
         }
+        negTemplate = negTemplate.concat("\t\tneg ax").concat("\n");
 
         if(var1.charAt(0) == '@'){
             negTemplate = negTemplate.concat("\t\tmov bx, ").concat(var1.substring(1, var1.length())).concat("\n");
             negTemplate = negTemplate.concat("\t\tmov [bx], ax");
         } else {
-            negTemplate = negTemplate.concat("\t\tmov ").concat(var1).concat(", ax").concat("\n");
+            negTemplate = negTemplate.concat("\t\tmov ").concat(var1).concat(", ax");
         }
 
         return negTemplate;
     }
+
+    // an operand the register allocator placed in a register
+    public static boolean isRegister(String var){
+        return var.equals("bx") || var.equals("cx") || var.equals("dx") || var.equals("si") || var.equals("di");
+    }
+
+    // mov register, var1 where var1 can be an @ operand, ends with a new line
+    public static String load(String register, String var1){
+        if(var1.charAt(0) == '@')
+            return "\t\tmov bx, " + var1.substring(1) + "\n" +
+                   "\t\tmov " + register + ", [bx]\n";
+        return "\t\tmov " + register + ", " + var1 + "\n";
+    }
+
+    // mov var1, register where var1 can be an @ operand
+    public static String store(String var1, String register){
+        if(var1.charAt(0) == '@')
+            return "\t\tmov bx, " + var1.substring(1) + "\n" +
+                   "\t\tmov [bx], " + register;
+        return "\t\tmov " + var1 + ", " + register;
+    }
 }
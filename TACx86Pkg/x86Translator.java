@@ -1,168 +1,478 @@
 package TACx86Pkg;
 
-import SymbolTablePkg.EParameterModeType;
+import CompilerPkg.CompilerOptions;
+import CompilerPkg.PassManager;
+import CompilerPkg.TranslationException;
 import SymbolTablePkg.ESymbolType;
+import SymbolTablePkg.EVariableType;
 import SymbolTablePkg.Symbol;
 import SymbolTablePkg.SymbolTable;
 
 import java.io.*;
-import java.util.StringTokenizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
 public class x86Translator {
     SymbolTable symbolTable;
-    private static BufferedReader tacReader;
-    private String statement;
+    private TacInstruction statement;
+    // register allocation of every procedure, empty unless the regalloc pass is enabled
+    private HashMap<String, RegisterAllocator> allocators = new HashMap<>();
+    private RegisterAllocator allocator;
+    // the assembly, it is written when translation and the backend passes are done
+    private ArrayList<AsmInstruction> code = new ArrayList<>();
+    // multiplication by constants, null unless the strength-reduce pass is enabled
+    private StrengthReduction strengthReduction;
+    // division, rem and mod by constants, null unless the strength-reduce pass is enabled
+    private ConstantDivision constantDivision;
+    // tree tiling instruction selection, null unless the isel pass is enabled
+    private InstructionSelector selector;
+    // calls in tail position that become jumps, null unless the tail-call pass is enabled
+    private TailCalls tailCalls;
+    // procedures that take their parameters in registers, null unless the regalloc and regcall passes are enabled
+    private RegisterCalls registerCalls;
+    // function symbol of the procedure being translated
+    private Symbol procedure;
+    // private operands of the current procedure that hold a literal, valid before the current statement
+    private HashMap<String, Integer> knownConstants = new HashMap<>();
+    private TacInstruction lastConstantStatement;
+    // operands whose address every procedure pushes, and those of the current procedure
+    private HashMap<String, HashSet<String>> addressesPassed;
+    private HashSet<String> passed = new HashSet<>();
     public boolean isSuccessfullyTranslated;
 
     public x86Translator(String tacFileName, SymbolTable symbolTable) throws IOException {
-        this.symbolTable = symbolTable;
-
-        String asmFileName = tacFileName.substring(0, tacFileName.length()-4).concat(".asm");
-        PrintWriter asmWriter = new PrintWriter(asmFileName);
-
-        try{
-            tacReader = new BufferedReader(new FileReader(tacFileName));
-        }catch (FileNotFoundException e){
-            System.out.println("File not found: " + tacFileName);
-            System.exit(1);
-        }
-
-        asmWriter.println(x86Templates.preGlobalVariables);
-        for(Symbol symbol : symbolTable.lookup(1)){
-            if(symbol.getSymbolType() != ESymbolType.function)
-                if(symbol.getSymbolType() == ESymbolType.string)
-                    asmWriter.println(formattedString(new String[]{symbol.lexeme, "db", symbol.stringAttributes.attribute}));
-                else if(symbol.getSymbolType() == ESymbolType.constant)
-                    asmWriter.println(formattedString(new String[]{symbol.lexeme, "dw", symbol.getConstantValue()}));
-                else
-                    asmWriter.println(formattedString(new String[]{symbol.lexeme, "dw", "?"}));
-        }
-        asmWriter.println(x86Templates.postGlobalVariables);
-
+        // FileNotFoundException is passed to the caller instead of terminating the JVM
+        this(new BufferedReader(new FileReader(tacFileName)),
+                new PrintWriter(tacFileName.substring(0, tacFileName.length()-4).concat(".asm")),
+                symbolTable);
+    }
 
-        do{
-            // tac file never should be empty, so statement will never receive null
-            statement = tacReader.readLine();
-            if(statement == null) break;
-            asmWriter.println("\n\t\t;" + statement);
+    /**
+     * Translates the TAC read from tacReader into 8086 assembly written to asmWriter.
+     * @param tacReader source of the TAC, it is closed when it has been read
+     * @param asmWriter destination of the assembly, it is closed when translation finishes
+     * @param symbolTable symbol table produced by the parser of the same program
+     */
+    public x86Translator(BufferedReader tacReader, PrintWriter asmWriter, SymbolTable symbolTable) throws IOException {
+        this(readProgram(tacReader, symbolTable), asmWriter);
+    }
 
-            StringTokenizer tokenizer = new StringTokenizer(statement);
-            String firstToken = tokenizer.nextToken();
+    /**
+     * Translates a TAC program into 8086 assembly written to asmWriter.
+     * @param program TAC and symbol table of the program
+     * @param asmWriter destination of the assembly, it is closed when translation finishes
+     */
+    public x86Translator(TacProgram program, PrintWriter asmWriter) {
+        this(program, asmWriter, new CompilerOptions(), new ArrayList<>());
+    }
 
-            // PROC statement
-            if(firstToken.equals("PROC")) {
-                String funcName = tokenizer.nextToken();
-                Symbol symbol = this.symbolTable.lookup(funcName, ESymbolType.function);
-                asmWriter.println(x86Templates.preTranslatedCode(funcName, symbol.functionAttributes.sizeOfLocalVariable));
+    /**
+     * Translates a TAC program into 8086 assembly written to asmWriter.
+     * @param program TAC and symbol table of the program
+     * @param asmWriter destination of the assembly, it is closed when translation finishes
+     * @param options enables the backend passes, regalloc keeps private operands in registers
+     * @param report receives a summary of every enabled backend pass
+     */
+    public x86Translator(TacProgram program, PrintWriter asmWriter, CompilerOptions options, List<String> report) {
+        this(program, asmWriter, new PassManager(options, report));
+    }
 
-                continue;
+    /**
+     * Translates a TAC program into 8086 assembly written to asmWriter.
+     * @param program TAC and symbol table of the program
+     * @param asmWriter destination of the assembly, it is closed when translation finishes
+     * @param passes enables and measures the backend passes, and receives their summaries
+     */
+    public x86Translator(TacProgram program, PrintWriter asmWriter, PassManager passes) {
+        this.symbolTable = program.symbolTable;
+        CompilerOptions options = passes.getOptions();
+        List<String> report = passes.getReport();
+        HashSet<String> operandsInRegisters = new HashSet<>();
+        if(passes.isEnabled("regalloc"))
+            passes.run("regalloc", "TAC", () -> program.instructions.size(),
+                    () -> allocateRegisters(program, passes.isEnabled("regcall"), operandsInRegisters, report));
+        if(passes.isEnabled("strength-reduce")) {
+            strengthReduction = new StrengthReduction(options.getTarget());
+            constantDivision = new ConstantDivision(options.getTarget());
+        }
+        if(passes.isEnabled("isel"))
+            selector = new InstructionSelector(options.getTarget(), options.isOptimizeForSize());
+        if(passes.isEnabled("tail-call"))
+            tailCalls = new TailCalls(program, registerCalls);
+
+        // the writer is closed even when a TranslationException stops the translation
+        try {
+            PassManager.Measurement translation = passes.start("translate", "TAC -> x86", program.instructions.size());
+            emit(x86Templates.preGlobalVariables);
+            for(Symbol symbol : program.dataLayout == null ? symbolTable.lookup(1) : program.dataLayout){
+                if(symbol.getSymbolType() != ESymbolType.function && !operandsInRegisters.contains(symbol.lexeme))
+                    if(symbol.getSymbolType() == ESymbolType.string)
+                        emit(formattedString(new String[]{symbol.lexeme, "db", symbol.stringAttributes.attribute}));
+                    else if(symbol.getSymbolType() == ESymbolType.constant)
+                        emit(formattedString(new String[]{symbol.lexeme, "dw", symbol.getConstantValue()}));
+                    else
+                        emit(formattedString(new String[]{symbol.lexeme, "dw", "?"}));
             }
-            // ENDP statement
-            else if(firstToken.equals("ENDP")) {
-                String funcName = tokenizer.nextToken();
-                Symbol symbol = this.symbolTable.lookup(funcName, ESymbolType.function);
-                asmWriter.println(x86Templates.postTranslatedCode(funcName, symbol.functionAttributes.sizeOfLocalVariable, symbol.functionAttributes.sizeOfParameters));
-
-                continue;
+            emit(x86Templates.postGlobalVariables);
+
+            addressesPassed = program.addressesPassed();
+
+            for(TacInstruction instruction : program.instructions){
+                statement = instruction;
+                trackConstants(statement);
+                emit("\n\t\t;" + statement);
+
+                switch (statement.opcode) {
+                    // PROC statement
+                    case proc: {
+                        String funcName = statement.operand1;
+                        Symbol symbol = lookupFunction(funcName);
+                        allocator = allocators.get(funcName);
+                        procedure = symbol;
+                        emit(x86Templates.preTranslatedCode(funcName, frameSize(symbol)));
+                        if(allocator != null) {
+                            for(String register : allocator.savedRegisters)
+                                emit("\t\tpush " + register);
+                        }
+                        break;
+                    }
+                    // ENDP statement
+                    case endp: {
+                        String funcName = statement.operand1;
+                        Symbol symbol = lookupFunction(funcName);
+                        if(allocator != null) {
+                            for(int i = allocator.savedRegisters.size() - 1; i >= 0; i--)
+                                emit("\t\tpop " + allocator.savedRegisters.get(i));
+                        }
+                        boolean inRegisters = registerCalls != null && registerCalls.takesRegisters(funcName);
+                        emit(x86Templates.postTranslatedCode(funcName, frameSize(symbol), inRegisters ? 0 : symbol.functionAttributes.sizeOfParameters));
+                        allocator = null;
+                        break;
+                    }
+                    // START statement
+                    case start:
+                        emit(x86Templates.mainProcedure(statement.operand1));
+                        break;
+
+                    // push statement, an argument of a procedure that takes its parameters in registers is moved into its register
+                    case push: {
+                        String var1 = fixBP(statement.operand1);
+                        if(registerCalls != null && registerCalls.isArgument(statement)) {
+                            if(registerCalls.register(statement) != null)
+                                emit(x86Templates.argumentTemplate(registerCalls.register(statement), var1));
+                        }
+                        // the address of an @ operand is pushed by the template
+                        else if(var1.charAt(0) == '@')
+                            emit(x86Templates.pushTemplate(var1));
+                        else
+                            emit(select(InstructionSelector.push(InstructionSelector.operand(var1)), x86Templates.pushTemplate(var1)));
+                        break;
+                    }
+
+                    // call statement, a call in tail position jumps and the epilogue of ENDP is not reached
+                    case call:
+                        if(tailCalls != null && tailCalls.isJump(statement))
+                            emit(TailCalls.jumpTemplate(statement.operand1, procedure.functionAttributes.sizeOfParameters,
+                                    lookupFunction(statement.operand1).functionAttributes.sizeOfParameters,
+                                    allocator == null ? new ArrayList<>() : allocator.savedRegisters));
+                        else
+                            emit("\t\tcall " + statement.operand1);
+                        break;
+
+                    case wrln:
+                        emit("\t\tcall writeln");
+                        break;
+
+                    // Output statement
+                    case wri:
+                        emit(select(InstructionSelector.write(InstructionSelector.operand(fixBP(statement.operand1))),
+                                x86Templates.writeInteger(fixBP(statement.operand1))));
+                        break;
+                    case wrs:
+                        emit(x86Templates.writeString(fixBP(statement.operand1)));
+                        break;
+
+                    // Input statement
+                    case rdi:
+                        emit(select(InstructionSelector.move(InstructionSelector.read(), InstructionSelector.operand(fixBP(statement.result))),
+                                x86Templates.readInt(fixBP(statement.result))));
+                        break;
+
+                    // Assignment statement #1 : x = y op z
+                    case binary: {
+                        String var1 = fixBP(statement.result);
+                        String var2 = fixBP(statement.operand1);
+                        String operator = statement.operator;
+                        String var3 = fixBP(statement.operand2);
+
+                        if(operator.equals("+")){
+                            emit(select(binaryTree(var1, var2, operator, var3), x86Templates.additionTemplate(var1,var2,var3)));
+                        } else if(operator.equals("-")){
+                            emit(select(binaryTree(var1, var2, operator, var3), x86Templates.subtractionTemplate(var1,var2,var3)));
+                        } else if(operator.equals("*")){
+                            Integer constant2 = constantValue(statement.operand1);
+                            Integer constant3 = constantValue(statement.operand2);
+                            if(strengthReduction != null && constant3 != null)
+                                emit(strengthReduction.multiplication(var1, var2, constant3));
+                            else if(strengthReduction != null && constant2 != null)
+                                emit(strengthReduction.multiplication(var1, var3, constant2));
+                            else
+                                emit(select(binaryTree(var1, var2, operator, var3), x86Templates.multiplicationTemplate(var1,var2,var3)));
+                        } else if(operator.equals("/") || operator.equals("MOD") || operator.equals("REM")){
+                            Integer constant3 = constantValue(statement.operand2);
+                            if(constantDivision != null && constant3 != null)
+                                emit(constantDivision.division(var1, var2, operator, constant3));
+                            else
+                                emit(x86Templates.divisionTemplate(var1,var2,var3,operator));
+                        }
+                        break;
+                    }
+
+                    // Assignment statement #2 : x = op y
+                    case neg:
+                        emit(select(InstructionSelector.move(InstructionSelector.neg(InstructionSelector.operand(fixBP(statement.operand1))), InstructionSelector.operand(fixBP(statement.result))),
+                                x86Templates.negTemplate(fixBP(statement.result), fixBP(statement.operand1))));
+                        break;
+
+                    // copy statement x = y
+                    case copy:
+                        emit(select(InstructionSelector.move(InstructionSelector.operand(fixBP(statement.operand1)), InstructionSelector.operand(fixBP(statement.result))),
+                                x86Templates.copyTemplate(fixBP(statement.result), fixBP(statement.operand1))));
+                        break;
+                }
             }
-            // START statement
-            else if(firstToken.equals("START")){
-                tokenizer.nextToken();
-                String funcName = tokenizer.nextToken();
-                asmWriter.println(x86Templates.mainProcedure(funcName));
 
-                continue;
+            passes.finish(translation, X86CostModel.countInstructions(code));
+
+            if(tailCalls != null)
+                report.add("tail-call: " + tailCalls.jumps() + " of " + tailCalls.tailPosition + " calls in tail position turned into jumps, " +
+                        tailCalls.tooManyArguments + " with more arguments than the caller has parameters, " + tailCalls.frameAddresses +
+                        " passing an address in the caller's frame");
+            if(strengthReduction != null)
+                report.add("strength-reduce: " + strengthReduction.reduced + " of " + strengthReduction.multiplications +
+                        " multiplications by a constant without imul, " + strengthReduction.cyclesBefore + " -> " +
+                        strengthReduction.cyclesAfter + " estimated " + options.getTarget() + " cycles");
+            if(constantDivision != null)
+                report.add("strength-reduce: " + constantDivision.reduced + " of " + constantDivision.divisions +
+                        " divisions, rem and mod by a constant without idiv, " + constantDivision.cyclesBefore + " -> " +
+                        constantDivision.cyclesAfter + " estimated " + options.getTarget() + " cycles");
+            if(selector != null) {
+                StringBuilder rules = new StringBuilder();
+                for(Map.Entry<String, Integer> rule : selector.getUsed().entrySet()) {
+                    if(rule.getValue() > 0)
+                        rules.append(rules.length() == 0 ? "" : ", ").append(rule.getKey()).append(" ").append(rule.getValue());
+                }
+                report.add("isel: " + selector.statements + " statements, " + selector.instructionsBefore + " -> " + selector.instructionsAfter +
+                        " instructions, " + selector.cyclesBefore + " -> " + selector.cyclesAfter + " estimated " + options.getTarget() +
+                        " cycles, " + selector.bytesBefore + " -> " + selector.bytesAfter + " bytes");
+                report.add("isel: " + rules);
             }
+            if(passes.isEnabled("peephole"))
+                passes.run("peephole", "x86", () -> X86CostModel.countInstructions(code), () -> runPeephole(options.getTarget(), report));
+            if(passes.isEnabled("frame"))
+                passes.run("frame", "x86", () -> X86CostModel.countInstructions(code),
+                        () -> selectFrames(options.getTarget(), options.isOptimizeForSize(), report));
+            if(passes.isEnabled("schedule"))
+                passes.run("schedule", "x86", () -> X86CostModel.countInstructions(code), () -> schedule(options.getTarget(), report));
+            if(passes.isEnabled("icf"))
+                passes.run("icf", "x86", () -> X86CostModel.countInstructions(code), () -> foldIdenticalCode(report));
+
+            for(AsmInstruction line : code)
+                asmWriter.println(line);
+            isSuccessfullyTranslated = true;
+        } finally {
+            asmWriter.close();
+        }
+    }
 
-            // push statement
-            else if(firstToken.equals("push")){
-                String var = fixBP(tokenizer.nextToken());
-                asmWriter.println(x86Templates.pushTemplate(var));
-
-                continue;
-            }
+    private static TacProgram readProgram(BufferedReader tacReader, SymbolTable symbolTable) throws IOException {
+        try {
+            return TacProgram.parse(tacReader, symbolTable);
+        } finally {
+            tacReader.close();
+        }
+    }
 
-            // call statement
-            else if(firstToken.equals("call")){
-                String var = tokenizer.nextToken();
-                asmWriter.println("\t\tcall " + var);
+    // adds the lines of a template to the code
+    private void emit(String text) {
+        for(String line : text.split("\n", -1))
+            code.add(AsmInstruction.parse(line));
+    }
 
-                continue;
-            }
+    // code of the statement tree chosen by the instruction selector, or the template without it
+    private String select(InstructionSelector.Node tree, String template) {
+        return selector == null ? template : selector.select(tree, template);
+    }
 
-            else if(firstToken.equals("wrln")){
-                asmWriter.println("\t\tcall writeln");
-            }
+    // var1 = var2 operator var3
+    private static InstructionSelector.Node binaryTree(String var1, String var2, String operator, String var3) {
+        return InstructionSelector.move(InstructionSelector.binary(operator, InstructionSelector.operand(var2), InstructionSelector.operand(var3)),
+                InstructionSelector.operand(var1));
+    }
 
-            // Output statement
-            else if(firstToken.length() > 2 && firstToken.substring(0, 2).equals("wr")){
-                if(firstToken.charAt(2) == 'i'){
-                    String var1 = fixBP(tokenizer.nextToken());
-                    asmWriter.println(x86Templates.writeInteger(var1));
-                } else {
-                    String var1 = fixBP(tokenizer.nextToken());
-                    asmWriter.println(x86Templates.writeString(var1));
-                }
+    private void runPeephole(ETargetCpu target, List<String> report) {
+        int instructions = X86CostModel.countInstructions(code);
+        int cycles = X86CostModel.cycles(code, target);
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(PeepholeRules.all(target));
+        optimizer.run(code);
+
+        StringBuilder rules = new StringBuilder();
+        for(Map.Entry<String, Integer> rule : optimizer.getFired().entrySet())
+            rules.append(rules.length() == 0 ? "" : ", ").append(rule.getKey()).append(" ").append(rule.getValue());
+        report.add("peephole: " + instructions + " -> " + X86CostModel.countInstructions(code) + " instructions, " +
+                cycles + " -> " + X86CostModel.cycles(code, target) + " estimated " + target + " cycles");
+        report.add("peephole: " + rules);
+    }
 
-                continue;
-            }
+    private void selectFrames(ETargetCpu target, boolean size, List<String> report) {
+        FrameSelection selection = new FrameSelection(target, size);
+        selection.run(code);
 
-            // Input statement
-            else if(firstToken.length() > 2 && firstToken.substring(0, 2).equals("rd")){
-                String var1 = fixBP(tokenizer.nextToken());
-                asmWriter.println(x86Templates.readInt(var1));
-                continue;
-            }
+        StringBuilder frames = new StringBuilder();
+        for(Map.Entry<String, Integer> frame : selection.getChosen().entrySet())
+            frames.append(frames.length() == 0 ? "" : ", ").append(frame.getKey()).append(" ").append(frame.getValue());
+        report.add("frame: " + frames + ", prologues and epilogues " + selection.cyclesBefore + " -> " + selection.cyclesAfter +
+                " estimated " + target + " cycles, " + selection.bytesBefore + " -> " + selection.bytesAfter + " bytes");
+    }
 
-            // Assignment statement #1 : x = y op z
-            else if(statement.length() > 38){
-                String var1 = fixBP(firstToken);
-                tokenizer.nextToken();
-                String var2 = fixBP(tokenizer.nextToken());
-                String operator = fixBP(tokenizer.nextToken());
-                String var3 = fixBP(tokenizer.nextToken());
-
-                if(operator.equals("+")){
-                    asmWriter.println(x86Templates.additionTemplate(var1,var2,var3));
-                } else if(operator.equals("-")){
-                    //todo subtraction
-                } else if(operator.equals("*")){
-                    asmWriter.println(x86Templates.multiplicationTemplate(var1,var2,var3));
-                } else if(operator.equals("/")){
-                    // todo division
-                }
+    // only the Pentium has a second pipeline, the 8086 runs one instruction after the other in any order
+    private void schedule(ETargetCpu target, List<String> report) {
+        if(target != ETargetCpu.pentium) {
+            report.add("schedule: the " + target + " has one pipeline, nothing to schedule");
+            return;
+        }
+        PentiumScheduler scheduler = new PentiumScheduler();
+        scheduler.run(code);
+
+        StringBuilder procedures = new StringBuilder();
+        for(Map.Entry<String, int[]> procedure : scheduler.getProcedures().entrySet())
+            procedures.append(procedures.length() == 0 ? "" : ", ").append(procedure.getKey()).append(" ")
+                    .append(procedure.getValue()[0]).append(" -> ").append(procedure.getValue()[1]);
+        report.add("schedule: " + scheduler.reordered + " instructions moved in " + scheduler.blocks + " blocks, " + scheduler.pairsBefore +
+                " -> " + scheduler.pairsAfter + " U/V pairs, " + scheduler.cyclesBefore + " -> " + scheduler.cyclesAfter +
+                " estimated pentium cycles with pairing");
+        report.add("schedule: " + procedures);
+    }
 
-                continue;
-            }
+    private void foldIdenticalCode(List<String> report) {
+        IdenticalCodeFolding folding = new IdenticalCodeFolding();
+        folding.run(code);
 
-            // Assignment statement #2 : x = op y
-            else if(statement.length() > 22 && (statement.charAt(16) == '-')){
-                String var1 = fixBP(firstToken);
-                tokenizer.nextToken();
-                String var2 = fixBP(tokenizer.nextToken());
-                asmWriter.println(x86Templates.negTemplate(var1, var2));
+        StringBuilder aliases = new StringBuilder();
+        for(Map.Entry<String, String> alias : folding.getAliases().entrySet())
+            aliases.append(", ").append(alias.getKey()).append(" = ").append(alias.getValue());
+        report.add("icf: " + folding.getAliases().size() + " of " + folding.procedures + " procedures folded into an identical one, code " +
+                folding.bytesBefore + " -> " + folding.bytesAfter + " bytes" + aliases);
+    }
 
-                continue;
+    /**
+     * Allocates the registers of every procedure. With registerConvention the procedures that qualify for the register
+     * convention are allocated first, with their parameters, then their callers know the registers of the arguments.
+     */
+    private void allocateRegisters(TacProgram program, boolean registerConvention, HashSet<String> operandsInRegisters, List<String> report) {
+        ArrayList<TacProcedure> procedures = program.getProcedures();
+        if(registerConvention) {
+            registerCalls = new RegisterCalls(program);
+            for(TacProcedure procedure : procedures) {
+                if(!registerCalls.getCandidates().contains(procedure.name))
+                    continue;
+                RegisterAllocator procedureAllocator = new RegisterAllocator(procedure, registerCalls.parameters(procedure.name), new HashMap<>());
+                if(registerCalls.assign(procedure.name, procedureAllocator))
+                    allocators.put(procedure.name, procedureAllocator);
             }
+        }
 
-            // copy statement x = y
-            else {
-                String var1 = fixBP(firstToken);    //x
-                tokenizer.nextToken();              //=
-                String var2 = fixBP(tokenizer.nextToken());//y
+        int values = 0;
+        int allocated = 0;
+        int accesses = 0;
+        int frameBefore = 0;
+        int frameAfter = 0;
+        for(TacProcedure procedure : procedures) {
+            RegisterAllocator procedureAllocator = allocators.get(procedure.name);
+            if(procedureAllocator == null) {
+                procedureAllocator = registerCalls == null ? new RegisterAllocator(procedure)
+                        : new RegisterAllocator(procedure, new HashSet<>(), registerCalls.getArgumentRegisters());
+                allocators.put(procedure.name, procedureAllocator);
+            }
+            operandsInRegisters.addAll(procedureAllocator.allocation.keySet());
+
+            values += procedureAllocator.values;
+            allocated += procedureAllocator.allocation.size();
+            accesses += procedureAllocator.memoryAccessesRemoved;
+            if(procedure.function != null)
+                frameBefore += procedure.function.functionAttributes.sizeOfLocalVariable;
+            frameAfter += procedureAllocator.frameSize;
+        }
+        report.add("regalloc: " + allocated + " of " + values + " values in registers, " + accesses +
+                " memory accesses removed, frames " + frameBefore + " -> " + frameAfter + " bytes");
+        if(registerCalls != null) {
+            StringBuilder conventions = new StringBuilder();
+            for(TacProcedure procedure : procedures) {
+                if(registerCalls.takesRegisters(procedure.name))
+                    conventions.append(", ").append(procedure.name).append(" ").append(Arrays.toString(registerCalls.getRegisters(procedure.name)).replace("null", "-"));
+            }
+            report.add("regcall: " + registerCalls.procedures() + " of " + registerCalls.leafProcedures +
+                    " leaf procedures take their parameters in registers, " + registerCalls.getArgumentRegisters().size() +
+                    " pushes removed, " + registerCalls.argumentsInRegisters() + " of them moved into a register" + conventions);
+        }
+    }
 
-                asmWriter.println(x86Templates.copyTemplate(var1, var2));
+    /**
+     * Records the private operands that the previous statement assigned a literal. Only the current procedure can
+     * change a private operand, so the value holds until the next assignment to it or the end of the procedure, or
+     * until a call if the procedure pushes its address.
+     */
+    private void trackConstants(TacInstruction next) {
+        TacInstruction previous = lastConstantStatement;
+        lastConstantStatement = next;
+        if(next.opcode == ETacOpcode.proc) {
+            knownConstants.clear();
+            passed = addressesPassed.getOrDefault(next.operand1, new HashSet<>());
+        }
+        if(previous != null && previous.opcode == ETacOpcode.call)
+            knownConstants.keySet().removeAll(passed);
+        if(previous == null || previous.getDefinition() == null)
+            return;
+        knownConstants.remove(previous.getDefinition());
+        if(previous.opcode == ETacOpcode.copy && TacInstruction.isPrivate(previous.result) && TacInstruction.isLiteral(previous.operand1))
+            knownConstants.put(previous.result, TacInstruction.literalValue(previous.operand1));
+    }
 
-                continue; // redundant
-            }
-        } while (statement != null);
+    // value of an integer literal, of a CONSTANT symbol or of a private operand known to hold a literal, otherwise null
+    private Integer constantValue(String operand) {
+        if(TacInstruction.isLiteral(operand))
+            return TacInstruction.literalValue(operand);
+        if(knownConstants.containsKey(operand))
+            return knownConstants.get(operand);
+        Symbol symbol = symbolTable.lookup(operand);
+        if(symbol != null && symbol.getSymbolType() == ESymbolType.constant && symbol.constantAttributes.typeOfConstant == EVariableType.integerType)
+            return (int) (short) symbol.constantAttributes.value;
+        return null;
+    }
 
-        isSuccessfullyTranslated = true;
+    // with register allocation only the frame slots that stay in memory take space
+    private int frameSize(Symbol function) {
+        return allocator != null ? allocator.frameSize : function.functionAttributes.sizeOfLocalVariable;
+    }
 
-        asmWriter.close();
+    private Symbol lookupFunction(String funcName) {
+        Symbol symbol = this.symbolTable.lookup(funcName, ESymbolType.function);
+        if(symbol == null)
+            throw new TranslationException("Unknown procedure " + funcName + " in TAC statement: " + statement);
+        return symbol;
     }
 
-    private String fixBP(String var) { // todo : Does not handle -_bp-12
+    private String fixBP(String var) {
+        if(allocator != null && allocator.get(var) != null)
+            return allocator.get(var);
+        // the pointer of a reference parameter that came in a register
+        if(allocator != null && TacInstruction.isReference(var) && allocator.get(var.substring(1)) != null)
+            return "@" + allocator.get(var.substring(1));
+
         StringBuilder builder;
         if(var.contains("bp")){
             builder = new StringBuilder();
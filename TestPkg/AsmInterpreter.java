@@ -0,0 +1,460 @@
+package TestPkg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Runs the assembly of the compiler on a model of the 8086, so tests can compare what programs print.
+ *
+ * The data segment starts at 100h and the stack grows down from FFFEh in the same 64K, code addresses are kept
+ * apart: call pushes C000h plus the index of the next instruction, and ret fails on any other value, so a
+ * procedure that overwrites its return address stops the run instead of jumping somewhere. The io.asm routines
+ * are built in, with the registers they leave behind in io.asm: writeint prints ax as an unsigned number and
+ * leaves ax, bx, cx and dx changed, readint echoes the number and a new line and returns it in bx.
+ * Only the carry flag is kept, the generated code has no conditional jumps and only sbb and adc read a flag.
+ */
+public class AsmInterpreter {
+    private static final int returnMarker = 0xC000;
+    private static final int stepLimit = 2_000_000;
+
+    private ArrayList<String[]> code = new ArrayList<>();
+    private HashMap<String, Integer> labels = new HashMap<>();
+    private HashMap<String, Integer> symbols = new HashMap<>();
+    private byte[] memory = new byte[0x10000];
+    private HashMap<String, Integer> registers = new HashMap<>();
+    private boolean carry;
+    private StringBuilder output = new StringBuilder();
+    private List<Integer> input;
+    private int nextInput;
+
+    public static class ExecutionException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ExecutionException(String message) {
+            super(message);
+        }
+    }
+
+    public AsmInterpreter(String assembly) {
+        int data = 0x100;
+        HashMap<String, String> aliases = new HashMap<>();
+        for(String line : assembly.split("\n")) {
+            String trimmed = line.trim();
+            int comment = trimmed.indexOf(';');
+            if(comment >= 0 && !trimmed.contains("\""))
+                trimmed = trimmed.substring(0, comment).trim();
+            if(trimmed.isEmpty() || trimmed.startsWith(".") || trimmed.startsWith("include") || trimmed.startsWith("END"))
+                continue;
+            String[] words = trimmed.split("\\s+", 3);
+            if(!Character.isWhitespace(line.charAt(0))) {
+                if(words.length >= 2 && words[1].equals("dw")) {
+                    symbols.put(words[0], data);
+                    if(words.length > 2 && !words[2].equals("?"))
+                        store(data, number(words[2]));
+                    data += 2;
+                } else if(words.length >= 2 && words[1].equals("db")) {
+                    symbols.put(words[0], data);
+                    data = storeBytes(data, trimmed.substring(trimmed.indexOf("db") + 2).trim());
+                } else if(words.length >= 3 && words[1].equals("equ")) {
+                    aliases.put(words[0], words[2]);
+                } else if(words.length >= 2 && words[1].equalsIgnoreCase("proc")) {
+                    labels.put(words[0], code.size());
+                } else if(trimmed.endsWith(":")) {
+                    labels.put(trimmed.substring(0, trimmed.length() - 1), code.size());
+                }
+                continue;
+            }
+            int space = trimmed.indexOf(' ');
+            ArrayList<String> instruction = new ArrayList<>();
+            instruction.add(space < 0 ? trimmed.toLowerCase() : trimmed.substring(0, space).toLowerCase());
+            if(space >= 0) {
+                for(String operand : trimmed.substring(space + 1).split(","))
+                    instruction.add(operand.trim());
+            }
+            code.add(instruction.toArray(new String[0]));
+        }
+        for(String alias : aliases.keySet()) {
+            String target = aliases.get(alias);
+            while(aliases.containsKey(target))
+                target = aliases.get(target);
+            labels.put(alias, labels.get(target));
+        }
+    }
+
+    /**
+     * Runs the program from main with the numbers readint returns, in order.
+     * @return everything the program printed, with a new line as \r\n
+     */
+    public String run(List<Integer> numbers) {
+        input = numbers;
+        for(String register : new String[]{"ax", "bx", "cx", "dx", "si", "di", "bp"})
+            registers.put(register, 0);
+        registers.put("sp", 0xFFFE);
+        Integer pc = labels.get("main");
+        if(pc == null)
+            throw new ExecutionException("no main procedure");
+
+        for(int steps = 0; steps < stepLimit; steps++) {
+            if(pc < 0 || pc >= code.size())
+                throw new ExecutionException("ran past the end of the code");
+            String[] instruction = code.get(pc);
+            pc = execute(instruction, pc + 1);
+            if(pc == null)
+                return output.toString();
+        }
+        throw new ExecutionException("more than " + stepLimit + " instructions");
+    }
+
+    // executes one instruction, returns the index of the next one or null when the program exits
+    private Integer execute(String[] instruction, int next) {
+        String mnemonic = instruction[0];
+        String a = instruction.length > 1 ? instruction[1] : null;
+        String b = instruction.length > 2 ? instruction[2] : null;
+        switch (mnemonic) {
+            case "mov":
+                if(!a.equals("ds"))
+                    write(a, read(b));
+                return next;
+            case "add": {
+                int sum = unsigned(a) + (read(b) & 0xFFFF);
+                carry = sum > 0xFFFF;
+                write(a, sum);
+                return next;
+            }
+            case "adc": {
+                int sum = unsigned(a) + (read(b) & 0xFFFF) + (carry ? 1 : 0);
+                carry = sum > 0xFFFF;
+                write(a, sum);
+                return next;
+            }
+            case "sub":
+            case "cmp": {
+                int difference = unsigned(a) - (read(b) & 0xFFFF);
+                carry = difference < 0;
+                if(mnemonic.equals("sub"))
+                    write(a, difference);
+                return next;
+            }
+            case "sbb": {
+                int difference = unsigned(a) - (read(b) & 0xFFFF) - (carry ? 1 : 0);
+                carry = difference < 0;
+                write(a, difference);
+                return next;
+            }
+            case "and":
+            case "or":
+            case "xor":
+            case "test": {
+                int x = read(a);
+                int y = read(b);
+                int result = mnemonic.equals("or") ? x | y : mnemonic.equals("xor") ? x ^ y : x & y;
+                carry = false;
+                if(!mnemonic.equals("test"))
+                    write(a, result);
+                return next;
+            }
+            case "neg":
+                carry = read(a) != 0;
+                write(a, -read(a));
+                return next;
+            case "not":
+                write(a, ~read(a));
+                return next;
+            case "inc":
+                write(a, read(a) + 1);
+                return next;
+            case "dec":
+                write(a, read(a) - 1);
+                return next;
+            case "shl":
+            case "sal":
+            case "shr":
+            case "sar": {
+                int count = read(b) & 0x1F;
+                int value = mnemonic.equals("sar") ? read(a) : unsigned(a);
+                if(count > 0) {
+                    if(mnemonic.equals("shl") || mnemonic.equals("sal")) {
+                        carry = ((value << (count - 1)) & 0x8000) != 0;
+                        value <<= count;
+                    } else {
+                        carry = ((value >> (count - 1)) & 1) != 0;
+                        value >>= count;
+                    }
+                }
+                write(a, value);
+                return next;
+            }
+            case "imul":
+                if(instruction.length == 2) {
+                    int product = read("ax") * read(a);
+                    registers.put("ax", product & 0xFFFF);
+                    registers.put("dx", (product >> 16) & 0xFFFF);
+                } else {
+                    write(a, read(instruction.length == 4 ? b : a) * read(instruction.length == 4 ? instruction[3] : b));
+                }
+                return next;
+            case "mul": {
+                long product = (long) unsigned("ax") * unsigned(a);
+                registers.put("ax", (int) (product & 0xFFFF));
+                registers.put("dx", (int) ((product >> 16) & 0xFFFF));
+                return next;
+            }
+            case "idiv":
+            case "div": {
+                long dividend = ((long) unsigned("dx") << 16) | unsigned("ax");
+                long divisor = mnemonic.equals("idiv") ? read(a) : unsigned(a);
+                if(mnemonic.equals("idiv"))
+                    dividend = (int) dividend;
+                if(divisor == 0)
+                    throw new ExecutionException("division by zero");
+                long quotient = dividend / divisor;
+                if(mnemonic.equals("idiv") ? quotient < -32768 || quotient > 32767 : quotient > 0xFFFF)
+                    throw new ExecutionException("division overflow");
+                registers.put("ax", (int) (quotient & 0xFFFF));
+                registers.put("dx", (int) ((dividend % divisor) & 0xFFFF));
+                return next;
+            }
+            case "cwd":
+                registers.put("dx", read("ax") < 0 ? 0xFFFF : 0);
+                return next;
+            case "lea":
+                write(a, address(b));
+                return next;
+            case "xchg": {
+                int x = read(a);
+                write(a, read(b));
+                write(b, x);
+                return next;
+            }
+            case "push":
+                push(read(a));
+                return next;
+            case "pop":
+                write(a, pop());
+                return next;
+            case "enter":
+                push(read("bp"));
+                registers.put("bp", unsigned("sp"));
+                registers.put("sp", (unsigned("sp") - read(a)) & 0xFFFF);
+                return next;
+            case "leave":
+                registers.put("sp", unsigned("bp"));
+                registers.put("bp", pop());
+                return next;
+            case "nop":
+                return next;
+            case "call":
+                if(io(a))
+                    return next;
+                push(returnMarker + next);
+                return jump(a);
+            case "jmp":
+                return io(a) ? ret(null) : jump(a);
+            case "ret":
+                return ret(a);
+            case "int":
+                if((unsigned("ax") >> 8) == 0x4C)
+                    return null;
+                throw new ExecutionException("unknown interrupt " + a + " with ax " + Integer.toHexString(unsigned("ax")));
+            default:
+                throw new ExecutionException("unknown instruction " + String.join(" ", instruction));
+        }
+    }
+
+    private Integer ret(String bytes) {
+        int address = pop();
+        if(address < returnMarker || address - returnMarker > code.size())
+            throw new ExecutionException("ret to " + Integer.toHexString(address) + ", which is not a return address");
+        if(bytes != null)
+            registers.put("sp", (unsigned("sp") + read(bytes)) & 0xFFFF);
+        return address - returnMarker;
+    }
+
+    private Integer jump(String label) {
+        Integer target = labels.get(label);
+        if(target == null)
+            throw new ExecutionException("unknown label " + label);
+        return target;
+    }
+
+    // runs an io.asm routine, false for any other name
+    private boolean io(String name) {
+        switch (name) {
+            case "writeint": {
+                String digits = Integer.toString(unsigned("ax"));
+                output.append(digits);
+                registers.put("bx", 10);
+                registers.put("cx", 0);
+                registers.put("dx", (int) digits.charAt(digits.length() - 1));
+                registers.put("ax", 0x0200 | digits.charAt(digits.length() - 1));
+                return true;
+            }
+            case "writestr":
+                for(int address = unsigned("dx"); memory[address] != '$'; address = (address + 1) & 0xFFFF)
+                    output.append((char) (memory[address] & 0xFF));
+                return true;
+            case "writeln":
+                output.append("\r\n");
+                return true;
+            case "readint": {
+                if(nextInput >= input.size())
+                    throw new ExecutionException("no more input");
+                int value = input.get(nextInput++);
+                output.append(value).append("\r\n");
+                registers.put("bx", value & 0xFFFF);
+                registers.put("cx", 10);
+                registers.put("dx", 0);
+                registers.put("ax", 0x010D);
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    // signed value of a register, memory word or immediate
+    private int read(String operand) {
+        return (short) unsigned(operand);
+    }
+
+    private int unsigned(String operand) {
+        String register = register(operand);
+        if(register != null) {
+            int value = registers.get(register);
+            if(register.equals(operand))
+                return value & 0xFFFF;
+            return operand.endsWith("l") ? value & 0xFF : (value >> 8) & 0xFF;
+        }
+        if(isMemory(operand)) {
+            int address = address(operand);
+            return (memory[address] & 0xFF) | ((memory[(address + 1) & 0xFFFF] & 0xFF) << 8);
+        }
+        return immediate(operand) & 0xFFFF;
+    }
+
+    private void write(String operand, int value) {
+        String register = register(operand);
+        if(register != null) {
+            int old = registers.get(register);
+            if(!register.equals(operand) && operand.endsWith("l"))
+                value = (old & 0xFF00) | (value & 0xFF);
+            else if(!register.equals(operand))
+                value = (old & 0x00FF) | ((value & 0xFF) << 8);
+            registers.put(register, value & 0xFFFF);
+            return;
+        }
+        if(!isMemory(operand))
+            throw new ExecutionException("can not write to " + operand);
+        store(address(operand), value);
+    }
+
+    // 16 bit register an operand names, ax for al and ah, otherwise null
+    private static String register(String operand) {
+        switch (operand) {
+            case "ax": case "bx": case "cx": case "dx": case "si": case "di": case "sp": case "bp":
+                return operand;
+            case "al": case "ah": case "bl": case "bh": case "cl": case "ch": case "dl": case "dh":
+                return operand.charAt(0) + "x";
+            default:
+                return null;
+        }
+    }
+
+    private boolean isMemory(String operand) {
+        String name = operand.startsWith("word ptr ") ? operand.substring(9).trim() : operand;
+        if(name.startsWith("["))
+            return true;
+        int plus = name.indexOf('+');
+        return symbols.containsKey(plus < 0 ? name : name.substring(0, plus).trim());
+    }
+
+    // address of a memory operand such as [bp-2], [bx], word ptr _A or _s0+6
+    private int address(String operand) {
+        String text = operand.startsWith("word ptr ") ? operand.substring(9).trim() : operand;
+        text = text.replace("[", "+").replace("]", "");
+        int address = 0;
+        int sign = 1;
+        StringBuilder term = new StringBuilder();
+        for(int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : '+';
+            if(c == '+' || c == '-') {
+                String part = term.toString().trim();
+                if(!part.isEmpty())
+                    address += sign * term(part);
+                sign = c == '+' ? 1 : -1;
+                term.setLength(0);
+            } else {
+                term.append(c);
+            }
+        }
+        return address & 0xFFFF;
+    }
+
+    private int term(String part) {
+        if(register(part) != null)
+            return unsigned(part);
+        if(symbols.containsKey(part))
+            return symbols.get(part);
+        return number(part);
+    }
+
+    private int immediate(String operand) {
+        if(operand.equals("@data"))
+            return 0;
+        if(operand.startsWith("offset "))
+            return address(operand.substring(7).trim());
+        return number(operand);
+    }
+
+    private static int number(String text) {
+        text = text.trim();
+        if(text.length() == 3 && text.charAt(0) == '\'' && text.charAt(2) == '\'')
+            return text.charAt(1);
+        if(text.endsWith("h") || text.endsWith("H"))
+            return Integer.parseInt(text.substring(0, text.length() - 1), 16);
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new ExecutionException("not a number: " + text);
+        }
+    }
+
+    // the bytes of a db directive such as "Hi",13,10,"$" from address on, returns the address after them
+    private int storeBytes(int address, String operands) {
+        int i = 0;
+        while(i < operands.length()) {
+            char c = operands.charAt(i);
+            if(c == '"') {
+                int end = operands.indexOf('"', i + 1);
+                for(int j = i + 1; j < end; j++)
+                    memory[address++] = (byte) operands.charAt(j);
+                i = end + 1;
+            } else if(c == ',' || Character.isWhitespace(c)) {
+                i++;
+            } else {
+                int end = operands.indexOf(',', i);
+                end = end < 0 ? operands.length() : end;
+                memory[address++] = (byte) number(operands.substring(i, end));
+                i = end;
+            }
+        }
+        return address;
+    }
+
+    private void store(int address, int value) {
+        memory[address] = (byte) value;
+        memory[(address + 1) & 0xFFFF] = (byte) (value >> 8);
+    }
+
+    private void push(int value) {
+        registers.put("sp", (unsigned("sp") - 2) & 0xFFFF);
+        store(unsigned("sp"), value);
+    }
+
+    private int pop() {
+        int top = unsigned("sp");
+        registers.put("sp", (top + 2) & 0xFFFF);
+        return (memory[top] & 0xFF) | ((memory[(top + 1) & 0xFFFF] & 0xFF) << 8);
+    }
+}
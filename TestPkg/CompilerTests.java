@@ -0,0 +1,323 @@
+package TestPkg;
+
+import CompilerPkg.CompilationException;
+import CompilerPkg.CompilationResult;
+import CompilerPkg.Compiler;
+import CompilerPkg.CompilerOptions;
+import CompilerPkg.EOptimizationLevel;
+import CompilerPkg.SemanticException;
+import CompilerPkg.SyntaxException;
+import OptimizerPkg.ConstantFoldingPass;
+import OptimizerPkg.CopyPropagationPass;
+import OptimizerPkg.TacPass;
+import OptimizerPkg.ValueNumberingPass;
+import SymbolTablePkg.ESymbolType;
+import SymbolTablePkg.Symbol;
+import SymbolTablePkg.SymbolTable;
+import TACx86Pkg.ETacOpcode;
+import TACx86Pkg.TacInstruction;
+import TACx86Pkg.TacProgram;
+import TACx86Pkg.x86Translator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Checks of single behaviours of the compiler API and of the passes, on the TAC and assembly they produce.
+ * RegressionTests only compares what programs print, these check that a pass did what it is there for.
+ *
+ *   java TestPkg.CompilerTests
+ *
+ * prints every failed check and exits with 1 if there is one.
+ */
+public class CompilerTests {
+    private static int failures;
+    private static int checks;
+
+    public static void main(String[] args) {
+        errors();
+        options();
+        addressesPassed();
+        unusedSaves();
+        stringPool();
+        interproceduralConstants();
+        outputFolding();
+
+        System.out.println(checks + " checks run, " + failures + " failed");
+        if(failures > 0)
+            System.exit(1);
+    }
+
+    // errors are thrown as CompilationException subclasses with the line of the source, the JVM keeps running
+    private static void errors() {
+        String missingSemicolon =
+                "procedure M is\n" +
+                "  A : integer;\n" +
+                "begin\n" +
+                "  A := 1\n" +
+                "  put(A);\n" +
+                "end M;\n";
+        CompilationException syntax = error(missingSemicolon, new CompilerOptions());
+        check("syntax error is a SyntaxException", syntax instanceof SyntaxException, String.valueOf(syntax));
+        check("syntax error has its line", syntax != null && syntax.getLineNumber() == 5, syntax == null ? "no error" : "line " + syntax.getLineNumber());
+
+        String undefined =
+                "procedure M is\n" +
+                "  A : integer;\n" +
+                "begin\n" +
+                "  A := 1;\n" +
+                "  B := A;\n" +
+                "end M;\n";
+        for(boolean ast : new boolean[]{false, true}) {
+            CompilationException semantic = error(undefined, new CompilerOptions().setBuildAst(ast));
+            check("undefined identifier is a SemanticException" + (ast ? " with the AST" : ""), semantic instanceof SemanticException, String.valueOf(semantic));
+            check("undefined identifier has its line" + (ast ? " with the AST" : ""), semantic != null && semantic.getLineNumber() == 5,
+                    semantic == null ? "no error" : "line " + semantic.getLineNumber());
+        }
+
+        String duplicate =
+                "procedure M is\n" +
+                "  A : integer;\n" +
+                "  A : integer;\n" +
+                "begin\n" +
+                "  A := 1;\n" +
+                "end M;\n";
+        CompilationException twice = error(duplicate, new CompilerOptions());
+        check("duplicate identifier is a SemanticException", twice instanceof SemanticException, String.valueOf(twice));
+
+        // a failed compilation leaves nothing behind that the next one sees
+        CompilationResult result = Compiler.compile("procedure M is\nbegin\n  putln(\"ok\");\nend M;\n", new CompilerOptions());
+        check("compiles after errors", result.getAssembly().contains("call writestr"), result.getAssembly());
+    }
+
+    // a misspelled pass or parameter name is an error instead of an option that changes nothing
+    private static void options() {
+        for(String name : new String[]{"inlin", "schedul"}) {
+            check("-f" + name + " is rejected", rejected(() -> new CompilerOptions().enablePass(name)), name);
+            check("-fno-" + name + " is rejected", rejected(() -> new CompilerOptions().disablePass(name)), name);
+        }
+        check("--param inline-sise is rejected", rejected(() -> new CompilerOptions().setParameter("inline-sise", 4)), "inline-sise");
+        check("--param inline-size is accepted", !rejected(() -> new CompilerOptions().setParameter("inline-size", 4)), "inline-size");
+        for(EOptimizationLevel level : EOptimizationLevel.values()) {
+            for(String pass : level.getPasses())
+                check("pass " + pass + " of " + level + " is known", !rejected(() -> new CompilerOptions().disablePass(pass)), pass);
+        }
+
+        CompilerOptions ipcp = new CompilerOptions().setOptimizationLevel(EOptimizationLevel.O1);
+        check("const-fold-ipcp is off without ipcp", !ipcp.isPassEnabled("const-fold-ipcp"), "O1");
+        check("const-fold-ipcp runs with ipcp", ipcp.enablePass("ipcp").isPassEnabled("const-fold-ipcp"), "O1 -fipcp");
+    }
+
+    private static boolean rejected(Runnable setting) {
+        try {
+            setting.run();
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    // a callee can store to a frame slot or parameter whose address it gets, a call ends what is known about them
+    private static void addressesPassed() {
+        for(String operand : new String[]{"_bp-2", "_bp+4"}) {
+            TacProgram program = tac(
+                    "PROC _Q", "ENDP _Q",
+                    "PROC _P",
+                    operand + " = 5",
+                    "push @" + operand,
+                    "call _Q",
+                    "wri " + operand,
+                    "ENDP _P");
+            run(new ConstantFoldingPass(), program);
+            check("const-fold keeps " + operand + " after push @" + operand + " and a call", written(program).equals(operand), program.toString());
+        }
+
+        for(String pushed : new String[]{"_bp-2", "_bp-4"}) {
+            TacProgram program = tac(
+                    "PROC _Q", "ENDP _Q",
+                    "PROC _P",
+                    "rdi _bp-2",
+                    "_bp-4 = _bp-2",
+                    "push @" + pushed,
+                    "call _Q",
+                    "wri _bp-4",
+                    "ENDP _P");
+            run(new CopyPropagationPass(), program);
+            // frames are compacted, so only whether wri reads the operand whose address is pushed is fixed
+            check("copy-prop keeps _bp-4 = _bp-2 apart after push @" + pushed + " and a call",
+                    written(program).equals(pushed(program)) == pushed.equals("_bp-4"), program.toString());
+        }
+
+        TacProgram multiplication = tac(
+                "PROC _Q", "ENDP _Q",
+                "PROC _P",
+                "_bp-2 = 4",
+                "push @_bp-2",
+                "call _Q",
+                "_bp-4 = _bp+4 * _bp-2",
+                "wri _bp-4",
+                "ENDP _P");
+        TacProgram expression = tac(
+                "PROC _Q", "ENDP _Q",
+                "PROC _P",
+                "rdi _bp-2",
+                "_bp-4 = _bp-2 + 1",
+                "push @_bp-2",
+                "call _Q",
+                "_bp-6 = _bp-2 + 1",
+                "wri _bp-6",
+                "ENDP _P");
+        run(new ValueNumberingPass(), expression);
+        check("lvn computes _bp-2 + 1 again after push @_bp-2 and a call", expression.toString().split("\\+").length == 3, expression.toString());
+
+        String assembly = translate(multiplication, new CompilerOptions().enablePass("strength-reduce"));
+        check("strength-reduce does not multiply by _bp-2 = 4 after push @_bp-2 and a call", !assembly.contains("shl"), assembly);
+    }
+
+    // the register allocator puts the quotient in si, the peephole optimizer moves every use of it to ax
+    private static void unusedSaves() {
+        String source =
+                "procedure M is\n" +
+                "  A, B : integer;\n" +
+                "  Z : constant := 0;\n" +
+                "begin\n" +
+                "  get(A);\n" +
+                "  putln(A);\n" +
+                "  B := A / Z;\n" +
+                "  putln(B);\n" +
+                "end M;\n";
+        String assembly = Compiler.compile(source, new CompilerOptions().setOptimizationLevel(EOptimizationLevel.O1)).getAssembly();
+        check("peephole drops the save of si it made unused", !assembly.contains("push si") && !assembly.contains("pop si"), assembly);
+    }
+
+    // a string that ends another one is printed from inside the longer one, the get keeps output-fold from joining them
+    private static void stringPool() {
+        String source =
+                "procedure M is\n" +
+                "  A : integer;\n" +
+                "begin\n" +
+                "  put(\"Hello World\");\n" +
+                "  get(A);\n" +
+                "  put(\"World\");\n" +
+                "end M;\n";
+        String assembly = Compiler.compile(source, new CompilerOptions().enablePass("string-pool")).getAssembly();
+        check("string-pool prints a suffix from _s0+6", assembly.contains("offset _s0+6") && !assembly.contains("_s1"), assembly);
+        String output = new AsmInterpreter(assembly).run(Arrays.asList(1));
+        // readint echoes the number it reads
+        check("string-pool suffix prints the end of the string", output.equals("Hello World1\r\nWorld"), output);
+    }
+
+    // a literal every call passes replaces the parameter, different literals give every call a clone of its own
+    private static void interproceduralConstants() {
+        for(String second : new String[]{"5", "7"}) {
+            String source =
+                    "procedure M is\n" +
+                    "  G : integer;\n" +
+                    "  procedure P(in A : integer; in B : integer) is\n" +
+                    "  begin\n" +
+                    "    G := A + B;\n" +
+                    "    put(G);\n" +
+                    "  end P;\n" +
+                    "begin\n" +
+                    "  get(G);\n" +
+                    "  P(G, 5);\n" +
+                    "  P(G, " + second + ");\n" +
+                    "end M;\n";
+            CompilationResult result = Compiler.compile(source, new CompilerOptions().enablePass("ipcp"));
+            String tac = result.getTac();
+            check("ipcp removes the pushes of literals, calls with 5 and " + second, !tac.matches("(?s).*push\\s+[57]\\s.*"), tac);
+            boolean clones = tac.matches("(?s).*call\\s+_P_1\\s.*call\\s+_P_2\\s.*");
+            check("ipcp clones P only for different literals, calls with 5 and " + second, clones == second.equals("7"), tac);
+            // readint echoes 3, the first call prints 3 + 5 into G and the second one 8 plus its literal
+            String output = new AsmInterpreter(result.getAssembly()).run(Arrays.asList(3));
+            check("ipcp keeps the output, calls with 5 and " + second, output.equals("3\r\n8" + (8 + Integer.parseInt(second))), output);
+        }
+    }
+
+    // writestr stops at a $, so a string with one ends the run of known output before it and starts none
+    private static void outputFolding() {
+        String source =
+                "procedure M is\n" +
+                "begin\n" +
+                "  put(\"a\", 1);\n" +
+                "  put(\"cost $5\");\n" +
+                "  putln(\"b\", 2);\n" +
+                "end M;\n";
+        CompilationResult result = Compiler.compile(source, new CompilerOptions().enablePass("output-fold"));
+        int writes = result.getTac().split("wrs").length - 1;
+        check("output-fold folds the runs on both sides of a $ string apart", writes == 3 && !result.getTac().contains("wri"), result.getTac());
+        String expected = new AsmInterpreter(Compiler.compile(source, new CompilerOptions()).getAssembly()).run(new ArrayList<>());
+        String output = new AsmInterpreter(result.getAssembly()).run(new ArrayList<>());
+        check("output-fold prints what -O0 prints around a $ string", output.equals(expected), output + " instead of " + expected);
+    }
+
+    // TAC program of lines, with an empty symbol table
+    private static TacProgram tac(String... lines) {
+        try {
+            return TacProgram.parse(new BufferedReader(new StringReader(String.join("\n", lines))), new SymbolTable());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void run(TacPass pass, TacProgram program) {
+        pass.run(program, new ArrayList<>());
+    }
+
+    // assembly of program, its procedures are entered into the symbol table with a frame of 4 bytes
+    private static String translate(TacProgram program, CompilerOptions options) {
+        for(TacInstruction instruction : program.instructions) {
+            if(instruction.opcode != ETacOpcode.proc)
+                continue;
+            Symbol procedure = program.symbolTable.insert(instruction.operand1, 1);
+            procedure.setSymbolType(ESymbolType.function);
+            procedure.functionAttributes.sizeOfLocalVariable = 4;
+        }
+        StringWriter assembly = new StringWriter();
+        new x86Translator(program, new PrintWriter(assembly), options, new ArrayList<>());
+        return assembly.toString();
+    }
+
+    // operand of the last wri of program
+    private static String written(TacProgram program) {
+        String operand = null;
+        for(TacInstruction instruction : program.instructions) {
+            if(instruction.opcode == ETacOpcode.wri)
+                operand = instruction.operand1;
+        }
+        return operand;
+    }
+
+    // operand whose address the last push of program passes
+    private static String pushed(TacProgram program) {
+        String operand = null;
+        for(TacInstruction instruction : program.instructions) {
+            if(instruction.opcode == ETacOpcode.push && TacInstruction.isReference(instruction.operand1))
+                operand = instruction.operand1.substring(1);
+        }
+        return operand;
+    }
+
+    // the exception compile throws for source, or null if it compiles
+    private static CompilationException error(String source, CompilerOptions options) {
+        try {
+            Compiler.compile(source, options);
+            return null;
+        } catch (CompilationException e) {
+            return e;
+        }
+    }
+
+    private static void check(String name, boolean passed, String detail) {
+        checks++;
+        if(!passed) {
+            failures++;
+            System.out.println("FAIL " + name + ": " + detail);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package TestPkg;
+
+import CompilerPkg.CompilationException;
+import CompilerPkg.Compiler;
+import CompilerPkg.CompilerOptions;
+import CompilerPkg.EOptimizationLevel;
+import TACx86Pkg.ETargetCpu;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compiles programs with every optimization level and compares what they print with -O0, on AsmInterpreter.
+ *
+ * The cases are programs that were miscompiled once, and programs of a generator with fixed seeds that mix the
+ * parameter modes, arguments that are variables and literals, constant and variable divisors and output of known and
+ * unknown values. Every program is compiled with and without the AST, and its locals are assigned before they are read,
+ * so an uninitialized word can not make two correct compilations print different things.
+ *
+ *   java TestPkg.RegressionTests [number of generated programs]
+ *
+ * prints every difference and exits with 1 if there is one.
+ */
+public class RegressionTests {
+    private static final List<Integer> input = Arrays.asList(7, 13, -5, 100, 0, 32767, -32768, 3, 42, 9, 1, -1, 12, 6, 250, 17, 8, 2, 31, 4);
+
+    private static int failures;
+    private static int runs;
+
+    public static void main(String[] args) {
+        int generated = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+
+        // a parameter the body assigns before it reads it got no register, its push was dropped and the body
+        // stored into [bp+4], the return address, at -Os and with -fregalloc -fregcall
+        check("regcall-written-parameter",
+                "procedure M is\n" +
+                "  G : integer;\n" +
+                "  procedure P0(in A : integer) is\n" +
+                "  begin\n" +
+                "    get(A);\n" +
+                "  end P0;\n" +
+                "begin\n" +
+                "  G := 3;\n" +
+                "  P0(G);\n" +
+                "  put(G);\n" +
+                "end M;\n");
+        check("regcall-dead-store",
+                "procedure M is\n" +
+                "  G, H : integer;\n" +
+                "  procedure P0(in A : integer; in B : integer) is\n" +
+                "  begin\n" +
+                "    A := 5;\n" +
+                "    put(B);\n" +
+                "  end P0;\n" +
+                "begin\n" +
+                "  G := 3;\n" +
+                "  H := 4;\n" +
+                "  P0(G, H);\n" +
+                "  P0(H, G);\n" +
+                "  putln(G, H);\n" +
+                "end M;\n");
+
+        for(int seed = 0; seed < generated; seed++)
+            check("generated-" + seed, new ProgramGenerator(new Random(seed)).program());
+
+        System.out.println(runs + " compilations run, " + failures + " differences");
+        if(failures > 0)
+            System.exit(1);
+    }
+
+    // configurations every program is compiled with, besides the -O0 reference
+    private static List<Supplier<CompilerOptions>> configurations() {
+        List<Supplier<CompilerOptions>> configurations = new ArrayList<>();
+        configurations.add(() -> new CompilerOptions().setOptimizationLevel(EOptimizationLevel.O1));
+        configurations.add(() -> new CompilerOptions().setOptimizationLevel(EOptimizationLevel.O2));
+        configurations.add(() -> new CompilerOptions().setOptimizationLevel(EOptimizationLevel.Os));
+        configurations.add(() -> new CompilerOptions().setOptimizationLevel(EOptimizationLevel.O2).setTarget(ETargetCpu.pentium));
+        configurations.add(() -> new CompilerOptions().enablePass("regalloc").enablePass("regcall"));
+        return configurations;
+    }
+
+    private static void check(String name, String source) {
+        String expected;
+        try {
+            expected = run(source, new CompilerOptions());
+        } catch (CompilationException | AsmInterpreter.ExecutionException e) {
+            fail(name, "-O0", e.getMessage(), source);
+            return;
+        }
+        List<Supplier<CompilerOptions>> configurations = configurations();
+        for(int i = 0; i < configurations.size(); i++) {
+            for(boolean ast : new boolean[]{false, true}) {
+                CompilerOptions options = configurations.get(i).get().setBuildAst(ast);
+                String label = "configuration " + i + " " + options.getOptimizationLevel() + " " + options.getTarget() + (ast ? " ast" : "");
+                try {
+                    String actual = run(source, options);
+                    if(!actual.equals(expected))
+                        fail(name, label, "prints\n" + actual + "\ninstead of\n" + expected, source);
+                } catch (CompilationException | AsmInterpreter.ExecutionException e) {
+                    fail(name, label, e.getMessage(), source);
+                }
+            }
+        }
+    }
+
+    private static String run(String source, CompilerOptions options) {
+        runs++;
+        String assembly = Compiler.compile(source, options).getAssembly();
+        return new AsmInterpreter(assembly).run(input);
+    }
+
+    private static void fail(String name, String configuration, String message, String source) {
+        failures++;
+        System.out.println("FAIL " + name + " with " + configuration + ": " + message);
+        System.out.println(source);
+    }
+
+    /**
+     * Random programs of one outer procedure that calls one nested procedure: the parser only records the parameter
+     * modes of the first nested procedure and only finds them for calls in the outer procedure. Divisors are literals other than 0 and -1 or v rem 5 + 7, which is never 0.
+     */
+    static class ProgramGenerator {
+        private final Random random;
+        private final StringBuilder source = new StringBuilder();
+
+        ProgramGenerator(Random random) {
+            this.random = random;
+        }
+
+        String program() {
+            String[] globals = {"g0", "g1", "g2"};
+            source.append("procedure Main is\n");
+            source.append("  g0, g1, g2 : integer;\n");
+            source.append("  k : constant := ").append(random.nextInt(20) + 1).append(";\n");
+
+            int parameters = 1 + random.nextInt(3);
+            String[] modes = new String[parameters];
+            String[] names = new String[parameters];
+            StringBuilder list = new StringBuilder();
+            for(int i = 0; i < parameters; i++) {
+                modes[i] = new String[]{"in", "out", "inout"}[random.nextInt(3)];
+                names[i] = "a" + i;
+                list.append(i == 0 ? "" : "; ").append(modes[i]).append(" ").append(names[i]).append(" : integer");
+            }
+            source.append("  procedure P(").append(list).append(") is\n");
+            source.append("    la, lb : integer;\n");
+            source.append("  begin\n");
+
+            ArrayList<String> readable = new ArrayList<>(Arrays.asList(globals));
+            ArrayList<String> writable = new ArrayList<>(Arrays.asList(globals));
+            for(int i = 0; i < parameters; i++) {
+                writable.add(names[i]);
+                // an out parameter is only read after the body assigns it
+                if(!modes[i].equals("out"))
+                    readable.add(names[i]);
+            }
+            for(String local : new String[]{"la", "lb"}) {
+                statement("    " + local + " := " + expression(readable) + ";");
+                readable.add(local);
+                writable.add(local);
+            }
+            for(int i = 0; i < parameters; i++) {
+                if(modes[i].equals("out") && random.nextBoolean()) {
+                    statement("    " + names[i] + " := " + expression(readable) + ";");
+                    readable.add(names[i]);
+                }
+            }
+            statements(1 + random.nextInt(6), "    ", readable, writable, null);
+            for(int i = 0; i < parameters; i++) {
+                if(modes[i].equals("out") && !readable.contains(names[i]))
+                    statement("    " + names[i] + " := " + expression(readable) + ";");
+            }
+            source.append("  end P;\n");
+
+            source.append("begin\n");
+            ArrayList<String> variables = new ArrayList<>(Arrays.asList(globals));
+            for(String global : globals)
+                statement("  " + global + " := " + random.nextInt(50) + ";");
+            statements(3 + random.nextInt(8), "  ", variables, variables, modes);
+            statement("  putln(g0, \" \", g1, \" \", g2);");
+            source.append("end Main;\n");
+            return source.toString();
+        }
+
+        // modes of the parameters of P if the statements may call it, otherwise null
+        private void statements(int count, String indent, List<String> readable, List<String> writable, String[] modes) {
+            for(int i = 0; i < count; i++) {
+                int kind = random.nextInt(10);
+                if(kind < 4) {
+                    statement(indent + pick(writable) + " := " + expression(readable) + ";");
+                } else if(kind < 5) {
+                    statement(indent + "get(" + pick(writable) + ");");
+                } else if(kind < 7 || modes == null) {
+                    statement(indent + output(readable));
+                } else {
+                    StringBuilder call = new StringBuilder(indent + "P(");
+                    for(int m = 0; m < modes.length; m++) {
+                        // Params matches a number as the first argument against an id token, so only later ones are literals
+                        String argument = modes[m].equals("in") && m > 0 && random.nextInt(3) == 0 ? Integer.toString(random.nextInt(30)) :
+                                modes[m].equals("in") ? pick(readable) : pick(writable);
+                        call.append(m == 0 ? "" : ", ").append(argument);
+                    }
+                    statement(call.append(");").toString());
+                }
+            }
+        }
+
+        private String output(List<String> readable) {
+            StringBuilder items = new StringBuilder();
+            int count = 1 + random.nextInt(4);
+            for(int i = 0; i < count; i++) {
+                int kind = random.nextInt(4);
+                String item = kind == 0 ? "\"s" + random.nextInt(10) + " \"" : kind == 1 ? Integer.toString(random.nextInt(1000)) :
+                        kind == 2 ? "k" : pick(readable);
+                items.append(i == 0 ? "" : ", ").append(item);
+            }
+            return (random.nextBoolean() ? "putln(" : "put(") + items + ");";
+        }
+
+        private String expression(List<String> readable) {
+            StringBuilder expression = new StringBuilder(operand(readable));
+            int operators = random.nextInt(4);
+            for(int i = 0; i < operators; i++) {
+                String operator = new String[]{"+", "-", "*", "/", "mod", "rem"}[random.nextInt(6)];
+                expression.append(" ").append(operator).append(" ");
+                if(operator.equals("+") || operator.equals("-") || operator.equals("*"))
+                    expression.append(operand(readable));
+                else
+                    expression.append(divisor(readable));
+            }
+            return expression.toString();
+        }
+
+        private String operand(List<String> readable) {
+            return random.nextInt(3) == 0 ? Integer.toString(random.nextInt(100)) : pick(readable);
+        }
+
+        private String divisor(List<String> readable) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    return "(" + pick(readable) + " rem 5 + 7)";
+                case 1:
+                    return "k";
+                case 2:
+                    return "-" + (2 + random.nextInt(9));
+                default:
+                    return Integer.toString(new int[]{1, 2, 3, 4, 5, 7, 8, 10, 16, 100, 1000}[random.nextInt(11)]);
+            }
+        }
+
+        private String pick(List<String> names) {
+            return names.get(random.nextInt(names.size()));
+        }
+
+        private void statement(String line) {
+            source.append(line).append("\n");
+        }
+    }
+}
@@ -1,9 +1,9 @@
 package TokenizerPkg;
 
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -13,21 +13,22 @@ import java.util.List;
 public class Tokenizer {
     private int currentTokenIndex = 0;
     private int lineNumber = 1; // even in an empty time the eof token will be at line 1
-    private static int index;
-    private static String input = null;
-    private static Token token = new Token(TokenType.unknown, null, 0);
-    private static BufferedReader reader = null;
+    // scanning state is kept per instance, so several tokenizers can run at the same time in one JVM
+    private int index;
+    private String input = null;
+    private Token token = new Token(TokenType.unknown, null, 0);
     private List<Token> tokenList = new ArrayList<>();
     private Token nextToken;
 
     public Tokenizer(String fileName)throws IOException{
         // parse the source input file and enlist all available tokens in the TokenList
-        try{
-            reader = new BufferedReader(new FileReader(fileName));
-        }catch (FileNotFoundException e){
-            System.out.println("File not found: " + fileName);
-            System.exit(1);
-        }
+        // FileNotFoundException is passed to the caller instead of terminating the JVM
+        this(new FileReader(fileName));
+    }
+
+    public Tokenizer(Reader source) throws IOException{
+        // parse the source text and enlist all available tokens in the TokenList
+        BufferedReader reader = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader(source);
 
         input = reader.readLine();
         while(input != null){
@@ -75,6 +76,8 @@ public class Tokenizer {
         // when readLine returns null, we are at the end of file
         token = new Token(TokenType.eof, "", lineNumber);
         tokenList.add(token);
+
+        reader.close();
     }
 
     /**
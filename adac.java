@@ -1,6 +1,16 @@
-import ParserPkg.Parser;
-import SymbolTablePkg.SymbolTable;
-import TACx86Pkg.x86Translator;
+import CompilerPkg.CompilationException;
+import CompilerPkg.CompilationResult;
+import CompilerPkg.Compiler;
+import CompilerPkg.CompilerOptions;
+import CompilerPkg.EOptimizationLevel;
+import CompilerPkg.TranslationException;
+import TACx86Pkg.ETargetCpu;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 
 /**
  * Quazi Irfan
@@ -10,30 +20,93 @@ import TACx86Pkg.x86Translator;
 
 public class adac {
     public static void main(String[] args) throws Exception {
-        if(args.length < 1){
+        String adaFileName = null;
+        CompilerOptions options = new CompilerOptions();
+        for(int i = 0; i < args.length; i++){
+            String arg = args[i];
+            try {
+                if(arg.equals("--param") && i + 1 < args.length && args[i + 1].contains("=")){
+                    String[] parameter = args[++i].split("=", 2);
+                    try {
+                        options.setParameter(parameter[0], Integer.parseInt(parameter[1]));
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid value of parameter " + parameter[0] + ": " + parameter[1]);
+                        System.exit(1);
+                    }
+                }
+                else if(EOptimizationLevel.fromOption(arg) != null)
+                    options.setOptimizationLevel(EOptimizationLevel.fromOption(arg));
+                else if(arg.startsWith("-fno-"))
+                    options.disablePass(arg.substring(5));
+                else if(arg.startsWith("-f"))
+                    options.enablePass(arg.substring(2));
+                else if(arg.equals("--time-passes"))
+                    options.setTimePasses(true);
+                else if(arg.equals("-m8086"))
+                    options.setTarget(ETargetCpu.i8086);
+                else if(arg.equals("-mpentium"))
+                    options.setTarget(ETargetCpu.pentium);
+                else if(arg.startsWith("-"))
+                    usage("Unknown option " + arg);
+                else
+                    adaFileName = arg;
+            } catch (IllegalArgumentException e) {
+                usage(e.getMessage());
+            }
+        }
+
+        if(adaFileName == null){
             System.out.println("Enter input file name as 2nd argument.");
             return;
         }
-
-        String adaFileName = args[0];
         String tacFileName = adaFileName.substring(0, adaFileName.length()-4).concat(".tac");
         String asmFileName = adaFileName.substring(0, adaFileName.length()-4).concat(".asm");
 
-        Parser parser = new Parser(adaFileName);
-        if(parser.isParsingSuccessful()){
-            System.out.println("Parsing successful. Output at " + tacFileName);;
-        } else {
-            System.out.println("Parsing " + adaFileName + " failed.");
+        String source;
+        try {
+            source = new String(Files.readAllBytes(Paths.get(adaFileName)));
+        } catch (NoSuchFileException e) {
+            System.out.println("File not found: " + adaFileName);
             System.exit(1);
+            return;
         }
 
-        SymbolTable symbolTable = parser.getSymbolTable();
-        x86Translator x86Translator = new x86Translator(tacFileName, symbolTable);
-        if(x86Translator.isSuccessfullyTranslated()){
-            System.out.println("TAC to x86 translation sucessful. Output at " + asmFileName);
-        } else {
+        CompilationResult result;
+        try {
+            result = Compiler.compile(source, options.setSourceName(adaFileName));
+        } catch (TranslationException e) {
+            System.out.println("Error: " + e.getMessage());
             System.out.println("TAC to x86 translation failed.");
             System.exit(1);
+            return;
+        } catch (CompilationException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.out.println("Parsing " + adaFileName + " failed.");
+            System.exit(1);
+            return;
+        }
+
+        writeFile(tacFileName, result.getTac());
+        System.out.println("Parsing successful. Output at " + tacFileName);
+
+        writeFile(asmFileName, result.getAssembly());
+        System.out.println("TAC to x86 translation sucessful. Output at " + asmFileName);
+
+        for(String diagnostic : result.getDiagnostics())
+            System.out.println(diagnostic);
+    }
+
+    private static void usage(String error) {
+        System.out.println(error);
+        System.out.println("Usage: java adac [-O0 | -O1 | -O2 | -Os] [-f<pass> | -fno-<pass> ...] [--param name=value ...] [--time-passes] [-m8086 | -mpentium] file.ada");
+        System.out.println("Passes: " + String.join(", ", CompilerOptions.PASS_NAMES));
+        System.out.println("Parameters: " + String.join(", ", CompilerOptions.PARAMETER_NAMES));
+        System.exit(1);
+    }
+
+    private static void writeFile(String fileName, String content) throws IOException {
+        try(PrintWriter writer = new PrintWriter(fileName)){
+            writer.print(content);
         }
     }
 }